@@ -0,0 +1,99 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.http.HttpStatus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Avgjør om en request kan sendes, etter circuit breakeren for base-url og begrensningen av samtidige kall for
+ * operasjonstypen. Kontrollen gjøres rett før requesten sendes, slik at tid i kø ikke regnes med i responstiden.
+ */
+class Adgangskontroll {
+
+    private static final String USENDT_ATTRIBUTE = Adgangskontroll.class.getName() + ".usendt";
+
+    private final CircuitBreaker circuitBreaker;
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * @param circuitBreaker null dersom circuit breaker ikke er konfigurert
+     * @param limiter        null dersom begrensning av samtidige kall ikke er konfigurert
+     */
+    Adgangskontroll(CircuitBreaker circuitBreaker, ConcurrencyLimiter limiter) {
+        this.circuitBreaker = circuitBreaker;
+        this.limiter = limiter;
+    }
+
+    void slippInn(Request request) {
+        try {
+            slippInnAsync(request).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    CompletableFuture<Void> slippInnAsync(Request request) {
+        long generasjon;
+        try {
+            generasjon = circuitBreaker == null ? 0 : circuitBreaker.tillatKall();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (limiter == null) {
+            registrer(request, generasjon, null);
+            return CompletableFuture.completedFuture(null);
+        }
+        return limiter.acquire().handle((tillatelse, e) -> {
+            if (e != null) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.ignorerUtfall(generasjon);
+                }
+                throw e instanceof CompletionException ce ? ce : new CompletionException(e);
+            }
+            registrer(request, generasjon, tillatelse);
+            return null;
+        });
+    }
+
+    /**
+     * Frigir tillatelsen og prøvekallet til en request som er sluppet inn, men som likevel ikke blir sendt. Gjør
+     * ingenting dersom requesten ikke er sluppet inn, eller allerede er ferdig.
+     */
+    static void frigiUsendt(Request request) {
+        Runnable frigi = (Runnable) request.getAttributes().get(USENDT_ATTRIBUTE);
+        if (frigi != null) {
+            frigi.run();
+        }
+    }
+
+    private void registrer(Request request, long generasjon, ConcurrencyLimiter.Tillatelse tillatelse) {
+        Runnable ignorerUtfall = circuitBreaker == null ? () -> { } : circuitBreaker.registrer(request, generasjon);
+        request.attribute(USENDT_ATTRIBUTE, (Runnable) () -> {
+            ignorerUtfall.run();
+            if (tillatelse != null) {
+                tillatelse.frigiUtenMaling();
+            }
+        });
+        if (tillatelse != null) {
+            long start = System.nanoTime();
+            long[] responstid = {-1};
+            request.onResponseBegin(response -> responstid[0] = System.nanoTime() - start);
+            request.onComplete(result -> {
+                if (result.getFailure() instanceof HedgedRequests.TaptHedgeException) {
+                    tillatelse.frigiUtenMaling();
+                    return;
+                }
+                // Feil før svaret startet, som timeout og brutt tilkobling, regnes som overbelastning
+                boolean svarMottatt = responstid[0] >= 0;
+                int status = svarMottatt ? result.getResponse().getStatus() : 0;
+                boolean overbelastet = !svarMottatt || status == HttpStatus.TOO_MANY_REQUESTS_429 || status == HttpStatus.SERVICE_UNAVAILABLE_503;
+                tillatelse.frigi(overbelastet, svarMottatt ? responstid[0] : System.nanoTime() - start);
+            });
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.*;
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.io.Content;
+
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ikke-blokkerende variant av {@link DokumentlagerApi}. Returnerte futures fullføres fra Jetty sine callbacks,
+ * slik at ingen tråd holdes mens man venter på svar fra Dokumentlager.
+ */
+public interface AsyncDokumentlagerApi {
+    CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadDokumentAsync(
+            InputStream dokumentStream,
+            DokumentMetadataUpload metadata,
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            boolean kryptert
+    );
+
+    /**
+     * Se {@link DokumentlagerApi#uploadDokument(Request.Content, DokumentMetadataUpload, UUID, UUID, boolean)}.
+     */
+    default CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadDokumentAsync(
+            Request.Content dokumentContent,
+            DokumentMetadataUpload metadata,
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            boolean kryptert
+    ) {
+        return uploadDokumentAsync(Content.Source.asInputStream(dokumentContent), metadata, fiksOrganisasjonId, kontoId, kryptert);
+    }
+
+    CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateDokumentMetadataAsync(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID dokumentId,
+            DokumentMetadataUpdate update
+    );
+
+    /**
+     * Asynkron variant av {@link DokumentlagerApi#updateDokumentMetadata(UUID, UUID, UUID, DokumentMetadataUpdate, byte[])}.
+     */
+    default CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateDokumentMetadataAsync(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID dokumentId,
+            DokumentMetadataUpdate update,
+            byte[] updateJson
+    ) {
+        return updateDokumentMetadataAsync(fiksOrganisasjonId, kontoId, dokumentId, update);
+    }
+
+    CompletableFuture<DokumentlagerResponse<Void>> deleteDokumentAsync(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID dokumentId
+    );
+
+    CompletableFuture<DokumentlagerResponse<Void>> deleteDokumenterByKorrelasjonsidAsync(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID korrelasjonsid
+    );
+
+    CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> downloadDokumentMetadataAsync(UUID dokumentId);
+
+    CompletableFuture<DokumentlagerResponse<Sokeresultat>> sokDokumenterMedKorrelasjonsidAsync(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID korrelasjonsid,
+            Integer fra,
+            Integer til
+    );
+
+    CompletableFuture<DokumentlagerResponse<String>> getPublicKeyAsync();
+}
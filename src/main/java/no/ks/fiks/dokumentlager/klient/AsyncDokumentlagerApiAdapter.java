@@ -0,0 +1,87 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.*;
+import org.eclipse.jetty.client.Request;
+
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynkrone kall for et {@link DokumentlagerApi} uten egen støtte for det. Kallene gjøres synkront på executoren.
+ */
+class AsyncDokumentlagerApiAdapter implements AsyncDokumentlagerApi {
+
+    private final DokumentlagerApi api;
+    private final Executor executor;
+
+    AsyncDokumentlagerApiAdapter(DokumentlagerApi api, Executor executor) {
+        this.api = api;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadDokumentAsync(InputStream dokumentStream,
+                                                                                                     DokumentMetadataUpload metadata,
+                                                                                                     UUID fiksOrganisasjonId,
+                                                                                                     UUID kontoId,
+                                                                                                     boolean kryptert) {
+        return CompletableFuture.supplyAsync(() -> api.uploadDokument(dokumentStream, metadata, fiksOrganisasjonId, kontoId, kryptert), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadDokumentAsync(Request.Content dokumentContent,
+                                                                                                     DokumentMetadataUpload metadata,
+                                                                                                     UUID fiksOrganisasjonId,
+                                                                                                     UUID kontoId,
+                                                                                                     boolean kryptert) {
+        return CompletableFuture.supplyAsync(() -> api.uploadDokument(dokumentContent, metadata, fiksOrganisasjonId, kontoId, kryptert), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateDokumentMetadataAsync(UUID fiksOrganisasjonId,
+                                                                                                             UUID kontoId,
+                                                                                                             UUID dokumentId,
+                                                                                                             DokumentMetadataUpdate update) {
+        return CompletableFuture.supplyAsync(() -> api.updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, update), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateDokumentMetadataAsync(UUID fiksOrganisasjonId,
+                                                                                                             UUID kontoId,
+                                                                                                             UUID dokumentId,
+                                                                                                             DokumentMetadataUpdate update,
+                                                                                                             byte[] updateJson) {
+        return CompletableFuture.supplyAsync(() -> api.updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, update, updateJson), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<Void>> deleteDokumentAsync(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId) {
+        return CompletableFuture.supplyAsync(() -> api.deleteDokument(fiksOrganisasjonId, kontoId, dokumentId), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<Void>> deleteDokumenterByKorrelasjonsidAsync(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid) {
+        return CompletableFuture.supplyAsync(() -> api.deleteDokumenterByKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> downloadDokumentMetadataAsync(UUID dokumentId) {
+        return CompletableFuture.supplyAsync(() -> api.downloadDokumentMetadata(dokumentId), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<Sokeresultat>> sokDokumenterMedKorrelasjonsidAsync(UUID fiksOrganisasjonId,
+                                                                                                     UUID kontoId,
+                                                                                                     UUID korrelasjonsid,
+                                                                                                     Integer fra,
+                                                                                                     Integer til) {
+        return CompletableFuture.supplyAsync(() -> api.sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til), executor);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<String>> getPublicKeyAsync() {
+        return CompletableFuture.supplyAsync(api::getPublicKey, executor);
+    }
+}
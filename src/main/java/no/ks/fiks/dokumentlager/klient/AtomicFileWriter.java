@@ -0,0 +1,65 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerIOException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Skriver til en midlertidig fil ved siden av målfilen, og flytter den på plass først når skrivingen er vellykket.
+ * Feiler skrivingen slettes kun den midlertidige filen, slik at en eksisterende fil ikke berøres.
+ */
+@Slf4j
+final class AtomicFileWriter {
+
+    private static final String TEMP_FILENDELSE = ".tmp";
+
+    private AtomicFileWriter() {
+    }
+
+    interface Skriver<T> {
+        T skriv(FileChannel channel) throws IOException;
+    }
+
+    static <T> T skriv(Path fil, Skriver<T> skriver) {
+        // Opprettes med vanlige rettigheter, i motsetning til Files.createTempFile, siden filen flyttes på plass
+        Path tempFil = fil.toAbsolutePath().resolveSibling("." + fil.getFileName() + "." + UUID.randomUUID() + TEMP_FILENDELSE);
+        try {
+            T resultat;
+            try (FileChannel channel = FileChannel.open(tempFil, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                resultat = skriver.skriv(channel);
+            }
+            flytt(tempFil, fil);
+            return resultat;
+        } catch (IOException e) {
+            slettStille(tempFil);
+            throw new DokumentlagerIOException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            slettStille(tempFil);
+            throw e;
+        }
+    }
+
+    private static void flytt(Path tempFil, Path fil) throws IOException {
+        try {
+            Files.move(tempFil, fil, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFil, fil, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void slettStille(Path fil) {
+        try {
+            Files.deleteIfExists(fil);
+        } catch (IOException e) {
+            log.warn("Failed to delete incomplete download {}", fil, e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+import no.ks.fiks.dokumentlager.klient.model.UploadJobResult;
+
+import java.util.function.Consumer;
+
+@Value
+@Builder
+public class BulkOptions {
+    /**
+     * Maks antall opplastinger som er i gang samtidig.
+     */
+    @Builder.Default
+    int parallelism = 8;
+
+    /**
+     * Kalles for hver jobb når den er ferdig, fra tråden som fullførte opplastingen. Må derfor være trådsikker.
+     */
+    @Builder.Default
+    Consumer<UploadJobResult> resultHandler = result -> {};
+}
@@ -0,0 +1,67 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Kjører en asynkron operasjon for hvert element, med maks {@code parallelism} operasjoner i gang samtidig.
+ * Elementene hentes fra iteratoren først når det er ledig kapasitet, slik at hele batchen aldri holdes i minnet.
+ */
+@Slf4j
+class BulkRunner {
+
+    private BulkRunner() {
+    }
+
+    static <T, R> void run(Iterable<T> items,
+                           int parallelism,
+                           Function<T, CompletableFuture<R>> operation,
+                           BiConsumer<T, Result<R>> resultHandler) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        }
+        Semaphore permits = new Semaphore(parallelism);
+        try {
+            for (T item : items) {
+                permits.acquire();
+                start(item, operation).whenComplete((result, e) -> {
+                    try {
+                        resultHandler.accept(item, new Result<>(result, unwrap(e)));
+                    } catch (RuntimeException handlerException) {
+                        log.warn("Result handler failed", handlerException);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            permits.acquire(parallelism);
+            permits.release(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T, R> CompletableFuture<R> start(T item, Function<T, CompletableFuture<R>> operation) {
+        try {
+            return operation.apply(item);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    static Throwable unwrap(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+
+    record Result<R>(R value, Throwable failure) {
+    }
+}
@@ -0,0 +1,116 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import org.eclipse.jetty.client.Response;
+import org.eclipse.jetty.client.Result;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.Content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Skriver responsen direkte fra Jetty sine chunks til en kanal, uten å gå via en InputStream.
+ * Ved feilstatus samles innholdet opp i minnet i stedet, slik at det kan brukes i feilmeldingen.
+ */
+class ChannelResponseListener implements Response.Listener {
+
+    private final WritableByteChannel channel;
+    private final ContentLengthHandler contentLengthHandler;
+    private final CompletableFuture<Response> future = new CompletableFuture<>();
+
+    private ByteArrayOutputStream errorContent;
+    private long antallBytes = 0;
+
+    ChannelResponseListener(WritableByteChannel channel, ContentLengthHandler contentLengthHandler) {
+        this.channel = channel;
+        this.contentLengthHandler = contentLengthHandler;
+    }
+
+    @Override
+    public void onHeaders(Response response) {
+        if (HttpStatus.isClientError(response.getStatus()) || HttpStatus.isServerError(response.getStatus())) {
+            errorContent = new ByteArrayOutputStream();
+            return;
+        }
+
+        long contentLength = response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH);
+        if (contentLength > 0) {
+            try {
+                contentLengthHandler.onContentLength(contentLength);
+            } catch (IOException e) {
+                response.abort(e);
+            }
+        }
+    }
+
+    @Override
+    public void onContentSource(Response response, Content.Source contentSource) {
+        while (true) {
+            Content.Chunk chunk = contentSource.read();
+            if (chunk == null) {
+                contentSource.demand(() -> onContentSource(response, contentSource));
+                return;
+            }
+            if (Content.Chunk.isFailure(chunk)) {
+                response.abort(chunk.getFailure());
+                return;
+            }
+
+            try {
+                write(chunk.getByteBuffer());
+            } catch (IOException e) {
+                response.abort(e);
+                return;
+            } finally {
+                chunk.release();
+            }
+
+            if (chunk.isLast()) {
+                return;
+            }
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (errorContent != null) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            errorContent.write(bytes);
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            antallBytes += channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void onComplete(Result result) {
+        if (result.isFailed()) {
+            future.completeExceptionally(result.getFailure());
+        } else {
+            future.complete(result.getResponse());
+        }
+    }
+
+    CompletableFuture<Response> getFuture() {
+        return future;
+    }
+
+    long getAntallBytes() {
+        return antallBytes;
+    }
+
+    String getErrorContent() {
+        return errorContent == null ? null : errorContent.toString(StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    interface ContentLengthHandler {
+        void onContentLength(long contentLength) throws IOException;
+    }
+}
@@ -0,0 +1,198 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.CircuitBreakerConfiguration.State;
+import no.ks.fiks.dokumentlager.klient.exception.CircuitBreakerOpenException;
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.http.HttpStatus;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker for én base-url, med et vindu over utfallet av de siste kallene. Utfallet registreres når
+ * responsen starter, slik at tiden det tar å sende requesten eller lese innholdet ikke regnes som et tregt kall.
+ */
+@Slf4j
+class CircuitBreaker {
+
+    private final String navn;
+    private final CircuitBreakerConfiguration configuration;
+    private final long slowCallNanos;
+    private final long waitNanos;
+
+    private final boolean[] feilet;
+    private final boolean[] treg;
+    private int posisjon;
+    private int antall;
+    private int antallFeilet;
+    private int antallTreg;
+
+    private State state = State.CLOSED;
+    private long generasjon;
+    private long apnet;
+    private int tillatteProvekall;
+    private int vellykkedeProvekall;
+
+    CircuitBreaker(String navn, CircuitBreakerConfiguration configuration) {
+        if (configuration.getSlidingWindowSize() <= 0 || configuration.getPermittedCallsInHalfOpenState() <= 0) {
+            throw new IllegalArgumentException("Sliding window size and permitted calls in half-open state must be positive");
+        }
+        this.navn = navn;
+        this.configuration = configuration;
+        this.slowCallNanos = configuration.getSlowCallDuration().toNanos();
+        this.waitNanos = configuration.getWaitDurationInOpenState().toNanos();
+        this.feilet = new boolean[configuration.getSlidingWindowSize()];
+        this.treg = new boolean[configuration.getSlidingWindowSize()];
+    }
+
+    /**
+     * Registrerer utfallet når requesten får svar eller feiler. Tregt kall måles fra requesten er ferdig sendt til
+     * svaret starter, slik at tiden det tar å sende et stort dokument ikke regnes med.
+     *
+     * @param kallGenerasjon fra {@link #tillatKall()}
+     */
+    /**
+     * Registrerer utfallet av requesten når den er ferdig. Returnerer en handling som ignorerer utfallet dersom
+     * requesten likevel ikke sendes.
+     */
+    Runnable registrer(Request request, long kallGenerasjon) {
+        AtomicLong start = new AtomicLong(System.nanoTime());
+        AtomicBoolean registrert = new AtomicBoolean();
+        request.onRequestSuccess(sendt -> start.set(System.nanoTime()));
+        request.onResponseBegin(response -> {
+            if (registrert.compareAndSet(false, true)) {
+                registrerUtfall(kallGenerasjon, HttpStatus.isServerError(response.getStatus()), System.nanoTime() - start.get());
+            }
+        });
+        request.onComplete(result -> {
+            if (registrert.compareAndSet(false, true)) {
+                if (result.getFailure() instanceof HedgedRequests.TaptHedgeException) {
+                    ignorerUtfall(kallGenerasjon);
+                } else {
+                    registrerUtfall(kallGenerasjon, result.isFailed(), System.nanoTime() - start.get());
+                }
+            }
+        });
+        return () -> {
+            if (registrert.compareAndSet(false, true)) {
+                ignorerUtfall(kallGenerasjon);
+            }
+        };
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Sjekker om kallet slippes gjennom, og returnerer en verdi som identifiserer gjeldende state for kallet.
+     */
+    long tillatKall() {
+        State fra;
+        long kallGenerasjon;
+        synchronized (this) {
+            fra = state;
+            if (state == State.OPEN) {
+                if (System.nanoTime() - apnet < waitNanos) {
+                    throw new CircuitBreakerOpenException(String.format("Circuit breaker for %s is open", navn), navn);
+                }
+                endreState(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (tillatteProvekall == 0) {
+                    throw new CircuitBreakerOpenException(String.format("Circuit breaker for %s is half-open and waiting for trial calls", navn), navn);
+                }
+                tillatteProvekall--;
+            }
+            kallGenerasjon = generasjon;
+        }
+        varsle(fra, fra == State.OPEN ? State.HALF_OPEN : fra);
+        return kallGenerasjon;
+    }
+
+    void registrerUtfall(long kallGenerasjon, boolean kallFeilet, long varighetNanos) {
+        boolean kallTreg = varighetNanos >= slowCallNanos;
+        State fra;
+        State til;
+        synchronized (this) {
+            if (kallGenerasjon != generasjon) {
+                // Kallet ble startet før forrige endring av state
+                return;
+            }
+            fra = state;
+            if (state == State.HALF_OPEN) {
+                if (kallFeilet || kallTreg) {
+                    endreState(State.OPEN);
+                } else if (++vellykkedeProvekall == configuration.getPermittedCallsInHalfOpenState()) {
+                    endreState(State.CLOSED);
+                }
+            } else if (state == State.CLOSED) {
+                leggTil(kallFeilet, kallTreg);
+                if (antall >= configuration.getMinimumNumberOfCalls()
+                        && (antallFeilet >= configuration.getFailureRateThreshold() * antall
+                        || antallTreg >= configuration.getSlowCallRateThreshold() * antall)) {
+                    log.warn("Opening circuit breaker for {}: {} of {} calls failed and {} were slow", navn, antallFeilet, antall, antallTreg);
+                    endreState(State.OPEN);
+                }
+            }
+            til = state;
+        }
+        varsle(fra, til);
+    }
+
+    /**
+     * For kall som ble avbrutt av klienten. Et prøvekall gis tilbake, slik at et annet kall kan ta det.
+     */
+    synchronized void ignorerUtfall(long kallGenerasjon) {
+        if (kallGenerasjon == generasjon && state == State.HALF_OPEN) {
+            tillatteProvekall++;
+        }
+    }
+
+    private void leggTil(boolean kallFeilet, boolean kallTreg) {
+        if (antall == feilet.length) {
+            antallFeilet -= feilet[posisjon] ? 1 : 0;
+            antallTreg -= treg[posisjon] ? 1 : 0;
+        } else {
+            antall++;
+        }
+        feilet[posisjon] = kallFeilet;
+        treg[posisjon] = kallTreg;
+        antallFeilet += kallFeilet ? 1 : 0;
+        antallTreg += kallTreg ? 1 : 0;
+        posisjon = (posisjon + 1) % feilet.length;
+    }
+
+    private void endreState(State nyState) {
+        state = nyState;
+        generasjon++;
+        switch (nyState) {
+            case OPEN -> apnet = System.nanoTime();
+            case HALF_OPEN -> {
+                tillatteProvekall = configuration.getPermittedCallsInHalfOpenState();
+                vellykkedeProvekall = 0;
+            }
+            case CLOSED -> {
+                posisjon = 0;
+                antall = 0;
+                antallFeilet = 0;
+                antallTreg = 0;
+            }
+        }
+    }
+
+    private void varsle(State fra, State til) {
+        if (fra == til) {
+            return;
+        }
+        log.info("Circuit breaker for {} changed from {} to {}", navn, fra, til);
+        if (configuration.getStateListener() != null) {
+            try {
+                configuration.getStateListener().onStateTransition(navn, fra, til);
+            } catch (RuntimeException e) {
+                log.warn("Circuit breaker state listener failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Konfigurasjon av circuit breaker for upload- og download-url. Hver url har sin egen circuit breaker, som åpnes når
+ * andelen feilede eller trege kall blant de siste slidingWindowSize kallene når en terskel. Mens den er åpen avvises
+ * kall umiddelbart med {@link no.ks.fiks.dokumentlager.klient.exception.CircuitBreakerOpenException}. Etter
+ * waitDurationInOpenState slippes permittedCallsInHalfOpenState prøvekall gjennom, og lykkes alle lukkes den igjen.
+ */
+@Value
+@Builder
+public class CircuitBreakerConfiguration {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    @FunctionalInterface
+    public interface StateListener {
+        /**
+         * @param navn "upload" eller "download"
+         */
+        void onStateTransition(String navn, State fra, State til);
+    }
+
+    /**
+     * Andel feilede kall, dvs. IO-feil, timeout eller status 5xx, som åpner circuit breakeren.
+     */
+    @Builder.Default
+    double failureRateThreshold = 0.5;
+
+    /**
+     * Andel kall som bruker lengre enn slowCallDuration på å få svar, som åpner circuit breakeren.
+     */
+    @Builder.Default
+    double slowCallRateThreshold = 0.8;
+
+    @Builder.Default
+    Duration slowCallDuration = Duration.ofSeconds(30);
+
+    @Builder.Default
+    int slidingWindowSize = 100;
+
+    /**
+     * Minste antall kall i vinduet før andelene vurderes.
+     */
+    @Builder.Default
+    int minimumNumberOfCalls = 20;
+
+    @Builder.Default
+    Duration waitDurationInOpenState = Duration.ofSeconds(30);
+
+    @Builder.Default
+    int permittedCallsInHalfOpenState = 5;
+
+    StateListener stateListener;
+}
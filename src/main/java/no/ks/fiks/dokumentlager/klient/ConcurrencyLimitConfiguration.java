@@ -0,0 +1,52 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Konfigurasjon av adaptiv begrensning av antall samtidige kall for en operasjonstype. Grensen økes med én per grensens
+ * antall vellykkede kall mens grensen er i bruk, og ganges med backoffRatio når et kall feiler, får status 429 eller 503,
+ * eller bruker lengre enn maxLatency på å få svar (AIMD). Kall over grensen venter i kø i opptil maxQueueWait.
+ */
+@Value
+@Builder(toBuilder = true)
+public class ConcurrencyLimitConfiguration {
+
+    public enum Operation {
+        UPLOAD,
+        DOWNLOAD,
+        /**
+         * Henting og oppdatering av metadata, sletting og henting av public key.
+         */
+        METADATA,
+        SEARCH
+    }
+
+    @Builder.Default
+    int initialLimit = 20;
+
+    @Builder.Default
+    int minLimit = 1;
+
+    @Builder.Default
+    int maxLimit = 200;
+
+    @Builder.Default
+    double backoffRatio = 0.9;
+
+    /**
+     * Responstid som regnes som overbelastning. Ikke satt betyr at kun feil reduserer grensen.
+     */
+    Duration maxLatency;
+
+    @Builder.Default
+    int maxQueueSize = 1000;
+
+    /**
+     * Hvor lenge et kall kan vente på ledig kapasitet. 0 betyr at kall over grensen avvises umiddelbart.
+     */
+    @Builder.Default
+    Duration maxQueueWait = Duration.ofSeconds(10);
+}
@@ -0,0 +1,126 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.exception.ConcurrencyLimitExceededException;
+import no.ks.fiks.dokumentlager.klient.model.ConcurrencyLimitStatus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adaptiv begrensning av antall samtidige kall for én operasjonstype, etter {@link ConcurrencyLimitConfiguration}.
+ * Tillatelser hentes asynkront, slik at asynkrone kall ikke blokkerer tråden mens de venter i kø.
+ */
+@Slf4j
+class ConcurrencyLimiter {
+
+    private final String navn;
+    private final ConcurrencyLimitConfiguration configuration;
+    private final long maxLatencyNanos;
+    private final long maxQueueWaitNanos;
+
+    private final ArrayDeque<CompletableFuture<Tillatelse>> ko = new ArrayDeque<>();
+    private double limit;
+    private int antallAktive;
+    private int vellykkedeSidenOkning;
+
+    ConcurrencyLimiter(String navn, ConcurrencyLimitConfiguration configuration) {
+        if (configuration.getMinLimit() < 1 || configuration.getMaxLimit() < configuration.getMinLimit()) {
+            throw new IllegalArgumentException("Concurrency limits must be positive, and max limit cannot be lower than min limit");
+        }
+        this.navn = navn;
+        this.configuration = configuration;
+        this.maxLatencyNanos = configuration.getMaxLatency() == null ? Long.MAX_VALUE : configuration.getMaxLatency().toNanos();
+        this.maxQueueWaitNanos = configuration.getMaxQueueWait().toNanos();
+        this.limit = Math.max(configuration.getMinLimit(), Math.min(configuration.getMaxLimit(), configuration.getInitialLimit()));
+    }
+
+    /**
+     * En tillatelse for ett kall, som må frigis nøyaktig én gang når kallet er ferdig.
+     */
+    class Tillatelse {
+        private final AtomicBoolean frigitt = new AtomicBoolean();
+
+        void frigi(boolean overbelastet, long latencyNanos) {
+            if (frigitt.compareAndSet(false, true)) {
+                ferdig(overbelastet || latencyNanos >= maxLatencyNanos);
+            }
+        }
+
+        /**
+         * Frigir tillatelsen uten å påvirke grensen, f.eks. når kallet ble avbrutt av klienten.
+         */
+        void frigiUtenMaling() {
+            if (frigitt.compareAndSet(false, true)) {
+                ferdig(null);
+            }
+        }
+    }
+
+    CompletableFuture<Tillatelse> acquire() {
+        CompletableFuture<Tillatelse> venter;
+        synchronized (this) {
+            if (antallAktive < (int) limit) {
+                antallAktive++;
+                return CompletableFuture.completedFuture(new Tillatelse());
+            }
+            if (maxQueueWaitNanos <= 0 || ko.size() >= configuration.getMaxQueueSize()) {
+                return CompletableFuture.failedFuture(avvist());
+            }
+            venter = new CompletableFuture<>();
+            ko.add(venter);
+        }
+        CompletableFuture.delayedExecutor(maxQueueWaitNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            boolean fjernet;
+            synchronized (this) {
+                fjernet = ko.remove(venter);
+            }
+            if (fjernet) {
+                venter.completeExceptionally(avvist());
+            }
+        });
+        return venter;
+    }
+
+    synchronized ConcurrencyLimitStatus status() {
+        return new ConcurrencyLimitStatus((int) limit, antallAktive, ko.size());
+    }
+
+    /**
+     * @param overbelastet null dersom kallet ikke skal påvirke grensen
+     */
+    private void ferdig(Boolean overbelastet) {
+        List<CompletableFuture<Tillatelse>> slippesInn = new ArrayList<>();
+        synchronized (this) {
+            antallAktive--;
+            if (Boolean.TRUE.equals(overbelastet)) {
+                double forrige = limit;
+                limit = Math.max(configuration.getMinLimit(), limit * configuration.getBackoffRatio());
+                vellykkedeSidenOkning = 0;
+                if ((int) forrige != (int) limit) {
+                    log.debug("Reduced concurrency limit for {} to {}", navn, (int) limit);
+                }
+            } else if (Boolean.FALSE.equals(overbelastet) && antallAktive + 1 >= limit / 2) {
+                // Øker kun når grensen faktisk er i bruk, slik at den ikke vokser ubegrenset ved lav last, og med én
+                // per grensens antall vellykkede kall, slik at grensen øker med én per runde med fulle kall
+                if (++vellykkedeSidenOkning >= (int) limit) {
+                    limit = Math.min(configuration.getMaxLimit(), limit + 1);
+                    vellykkedeSidenOkning = 0;
+                }
+            }
+            while (antallAktive < (int) limit && !ko.isEmpty()) {
+                antallAktive++;
+                slippesInn.add(ko.poll());
+            }
+        }
+        slippesInn.forEach(venter -> venter.complete(new Tillatelse()));
+    }
+
+    private ConcurrencyLimitExceededException avvist() {
+        return new ConcurrencyLimitExceededException(String.format("Concurrency limit for %s exceeded", navn));
+    }
+}
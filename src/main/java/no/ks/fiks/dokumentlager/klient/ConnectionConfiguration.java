@@ -0,0 +1,87 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Konfigurasjon av tilkoblingene mot én base-url. Verdier som ikke settes bruker Jetty sine standardverdier,
+ * bortsett fra HTTP-versjon som er HTTP/1.1.
+ */
+@Value
+@Builder
+public class ConnectionConfiguration {
+
+    public enum PoolStrategy {
+        /**
+         * Én request om gangen per tilkobling.
+         */
+        DUPLEX,
+        /**
+         * Flere samtidige requester per tilkobling, begrenset av maxRequestsPerConnection og det serveren tillater.
+         * Krever {@link HttpVersion#HTTP_2}.
+         */
+        MULTIPLEX
+    }
+
+    public enum HttpVersion {
+        HTTP_1_1,
+        /**
+         * HTTP/2 forhandles med ALPN over TLS, med fallback til HTTP/1.1 dersom serveren ikke støtter det.
+         */
+        HTTP_2
+    }
+
+    @Builder.Default
+    int maxConnectionsPerDestination = 64;
+
+    @Builder.Default
+    int maxRequestsQueuedPerDestination = 1024;
+
+    /**
+     * Hvis ikke satt brukes {@link PoolStrategy#MULTIPLEX} for HTTP/2 og {@link PoolStrategy#DUPLEX} for HTTP/1.1.
+     * {@link PoolStrategy#MULTIPLEX} med HTTP/1.1 avvises når klienten bygges.
+     */
+    PoolStrategy poolStrategy;
+
+    /**
+     * Maks antall samtidige requester per tilkobling ved {@link PoolStrategy#MULTIPLEX}.
+     */
+    @Builder.Default
+    int maxRequestsPerConnection = 100;
+
+    @Builder.Default
+    HttpVersion httpVersion = HttpVersion.HTTP_1_1;
+
+    /**
+     * Størrelse på TCP mottaksbuffer i bytes. -1 bruker operativsystemets standard.
+     */
+    @Builder.Default
+    int receiveBufferSize = -1;
+
+    /**
+     * Størrelse på TCP sendebuffer i bytes. -1 bruker operativsystemets standard.
+     */
+    @Builder.Default
+    int sendBufferSize = -1;
+
+    @Builder.Default
+    Duration connectTimeout = Duration.ofSeconds(15);
+
+    /**
+     * Antall tilkoblinger som åpnes mot destinasjonen ved warm-up.
+     */
+    @Builder.Default
+    int warmUpConnections = 1;
+
+    PoolStrategy getEffectivePoolStrategy() {
+        if (poolStrategy == PoolStrategy.MULTIPLEX && httpVersion != HttpVersion.HTTP_2) {
+            throw new IllegalArgumentException("Pool strategy MULTIPLEX requires HTTP/2");
+        }
+        if (poolStrategy != null) {
+            return poolStrategy;
+        }
+        return httpVersion == HttpVersion.HTTP_2 ? PoolStrategy.MULTIPLEX : PoolStrategy.DUPLEX;
+    }
+}
@@ -0,0 +1,312 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerIOException;
+import no.ks.fiks.dokumentlager.klient.model.DokumentCacheStatistikk;
+import no.ks.fiks.dokumentlager.klient.model.DokumentDownloadResult;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Lokal diskcache for nedlastede dokumenter, begrenset på total størrelse i bytes. Dokumentene lastes ned til en
+ * temporær fil og flyttes atomisk på plass, slik at cachen aldri inneholder halvskrevne filer. Treff leses via
+ * minnemappede filer, og de minst nylig brukte dokumentene kastes ut når cachen blir full.
+ */
+@Slf4j
+class DokumentCache {
+
+    private static final String FILENDELSE = ".dokument";
+    private static final String TEMP_FILENDELSE = ".tmp";
+    private static final int HTTP_OK = 200;
+
+    private final Path katalog;
+    private final long maksStorrelse;
+
+    private final LinkedHashMap<UUID, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<UUID, Nedlasting> pagaende = new HashMap<>();
+    private long storrelse;
+
+    private final LongAdder treff = new LongAdder();
+    private final LongAdder bom = new LongAdder();
+    private final LongAdder utkastet = new LongAdder();
+
+    DokumentCache(Path katalog, long maksStorrelse) {
+        if (maksStorrelse <= 0) {
+            throw new IllegalArgumentException("Maximum cache size must be positive");
+        }
+        this.katalog = katalog;
+        this.maksStorrelse = maksStorrelse;
+        try {
+            Files.createDirectories(katalog);
+            slettGamleFiler();
+        } catch (IOException e) {
+            throw new DokumentlagerIOException("Could not initialize document cache in " + katalog, e);
+        }
+    }
+
+    /**
+     * Henter dokumentet fra cachen, eller laster det ned med nedlaster dersom det ikke finnes. Nedlasteren får en
+     * temporær fil i cachekatalogen som dokumentet skal skrives til. Samtidige oppslag på et dokument som lastes ned
+     * venter på den pågående nedlastingen i stedet for å starte en ny.
+     */
+    DokumentlagerResponse<InputStream> hent(UUID dokumentId, Function<Path, DokumentlagerResponse<DokumentDownloadResult>> nedlaster) {
+        boolean forsteOppslag = true;
+        while (true) {
+            Nedlasting nedlasting;
+            boolean startetNedlasting = false;
+            synchronized (this) {
+                Entry entry = entries.get(dokumentId);
+                if (entry != null) {
+                    if (forsteOppslag) {
+                        treff.increment();
+                        log.debug("Document cache hit for dokument {}", dokumentId);
+                    }
+                    return tilResponse(entry);
+                }
+                nedlasting = pagaende.get(dokumentId);
+                if (nedlasting == null) {
+                    nedlasting = new Nedlasting();
+                    pagaende.put(dokumentId, nedlasting);
+                    startetNedlasting = true;
+                }
+            }
+            if (forsteOppslag) {
+                bom.increment();
+                log.debug("Document cache miss for dokument {}", dokumentId);
+                forsteOppslag = false;
+            }
+            if (startetNedlasting) {
+                return lastNed(dokumentId, nedlasting, nedlaster);
+            }
+            // Når den pågående nedlastingen er ferdig ligger dokumentet i cachen, med mindre det ble invalidert eller var for stort
+            ventPa(nedlasting);
+        }
+    }
+
+    private DokumentlagerResponse<InputStream> lastNed(UUID dokumentId,
+                                                       Nedlasting nedlasting,
+                                                       Function<Path, DokumentlagerResponse<DokumentDownloadResult>> nedlaster) {
+        Path tempFil = null;
+        try {
+            tempFil = lagTempFil(dokumentId);
+            DokumentlagerResponse<DokumentDownloadResult> response = nedlaster.apply(tempFil);
+            long antallBytes = response.getResult().getAntallBytes();
+
+            synchronized (this) {
+                pagaende.remove(dokumentId, nedlasting);
+                if (nedlasting.invalidert) {
+                    log.debug("Dokument {} was invalidated while it was downloaded, serving it without caching", dokumentId);
+                } else if (antallBytes > maksStorrelse) {
+                    log.debug("Dokument {} is larger than the cache ({} bytes), serving it without caching", dokumentId, antallBytes);
+                } else {
+                    Entry entry = leggTil(dokumentId, tempFil, antallBytes, response.getHttpHeaders());
+                    nedlasting.ferdig.complete(null);
+                    return tilResponse(entry);
+                }
+            }
+            nedlasting.ferdig.complete(null);
+            return DokumentlagerResponse.<InputStream>builder()
+                    .result(apneTempFil(tempFil))
+                    .httpStatus(response.getHttpStatus())
+                    .httpHeaders(response.getHttpHeaders())
+                    .build();
+        } catch (RuntimeException e) {
+            if (tempFil != null) {
+                slettStille(tempFil);
+            }
+            synchronized (this) {
+                pagaende.remove(dokumentId, nedlasting);
+            }
+            nedlasting.ferdig.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Entry leggTil(UUID dokumentId, Path tempFil, long antallBytes, Map<String, String> httpHeaders) {
+        Path fil = katalog.resolve(dokumentId + FILENDELSE);
+        try {
+            Files.move(tempFil, fil, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new DokumentlagerIOException("Could not move downloaded dokument " + dokumentId + " into the cache", e);
+        }
+        Entry entry = new Entry(fil, antallBytes, httpHeaders);
+        Entry forrige = entries.put(dokumentId, entry);
+        if (forrige != null) {
+            storrelse -= forrige.storrelse;
+        }
+        storrelse += antallBytes;
+        kastUt();
+        return entry;
+    }
+
+    private static void ventPa(Nedlasting nedlasting) {
+        try {
+            nedlasting.ferdig.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Fjerner dokumentet fra cachen. En nedlasting av dokumentet som fortsatt pågår legges ikke i cachen når den er
+     * ferdig, slik at et slettet dokument ikke caches på nytt.
+     */
+    synchronized void invalider(UUID dokumentId) {
+        Entry entry = entries.remove(dokumentId);
+        if (entry != null) {
+            storrelse -= entry.storrelse;
+            slettStille(entry.fil);
+        }
+        Nedlasting nedlasting = pagaende.remove(dokumentId);
+        if (nedlasting != null) {
+            nedlasting.invalidert = true;
+        }
+    }
+
+    synchronized void invaliderAlle() {
+        entries.values().forEach(entry -> slettStille(entry.fil));
+        entries.clear();
+        storrelse = 0;
+        pagaende.values().forEach(nedlasting -> nedlasting.invalidert = true);
+        pagaende.clear();
+    }
+
+    synchronized DokumentCacheStatistikk statistikk() {
+        return new DokumentCacheStatistikk(treff.sum(), bom.sum(), utkastet.sum(), entries.size(), storrelse);
+    }
+
+    private void kastUt() {
+        Iterator<Map.Entry<UUID, Entry>> iterator = entries.entrySet().iterator();
+        while (storrelse > maksStorrelse && iterator.hasNext()) {
+            Map.Entry<UUID, Entry> eldste = iterator.next();
+            iterator.remove();
+            storrelse -= eldste.getValue().storrelse;
+            slettStille(eldste.getValue().fil);
+            utkastet.increment();
+            log.debug("Evicted dokument {} from document cache", eldste.getKey());
+        }
+    }
+
+    private DokumentlagerResponse<InputStream> tilResponse(Entry entry) {
+        return DokumentlagerResponse.<InputStream>builder()
+                .result(apneCachetFil(entry))
+                .httpStatus(HTTP_OK)
+                .httpHeaders(entry.httpHeaders)
+                .build();
+    }
+
+    private InputStream apneCachetFil(Entry entry) {
+        try {
+            if (entry.storrelse > Integer.MAX_VALUE) {
+                return Files.newInputStream(entry.fil);
+            }
+            // Mappingen er gyldig etter at kanalen er lukket, og også om filen kastes ut mens den leses
+            try (FileChannel channel = FileChannel.open(entry.fil, StandardOpenOption.READ)) {
+                return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.storrelse));
+            }
+        } catch (IOException e) {
+            throw new DokumentlagerIOException("Could not read cached dokument " + entry.fil, e);
+        }
+    }
+
+    private InputStream apneTempFil(Path tempFil) {
+        try {
+            return Files.newInputStream(tempFil, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            slettStille(tempFil);
+            throw new DokumentlagerIOException("Could not read downloaded dokument " + tempFil, e);
+        }
+    }
+
+    private Path lagTempFil(UUID dokumentId) {
+        try {
+            return Files.createTempFile(katalog, dokumentId + "-", TEMP_FILENDELSE);
+        } catch (IOException e) {
+            throw new DokumentlagerIOException("Could not create temporary file in document cache " + katalog, e);
+        }
+    }
+
+    private void slettGamleFiler() throws IOException {
+        try (DirectoryStream<Path> filer = Files.newDirectoryStream(katalog, "*{" + FILENDELSE + "," + TEMP_FILENDELSE + "}")) {
+            for (Path fil : filer) {
+                slettStille(fil);
+            }
+        }
+    }
+
+    private static void slettStille(Path fil) {
+        try {
+            Files.deleteIfExists(fil);
+        } catch (IOException e) {
+            log.warn("Could not delete cached file {}", fil, e);
+        }
+    }
+
+    private record Entry(Path fil, long storrelse, Map<String, String> httpHeaders) {
+    }
+
+    private static class Nedlasting {
+        private final CompletableFuture<Void> ferdig = new CompletableFuture<>();
+        private boolean invalidert;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int antall = Math.min(len, buffer.remaining());
+            buffer.get(b, off, antall);
+            return antall;
+        }
+
+        @Override
+        public long skip(long n) {
+            int antall = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + antall);
+            return antall;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
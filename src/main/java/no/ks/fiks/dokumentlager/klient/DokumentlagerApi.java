@@ -1,10 +1,20 @@
 package no.ks.fiks.dokumentlager.klient;
 
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerIOException;
 import no.ks.fiks.dokumentlager.klient.model.*;
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.io.Content;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface DokumentlagerApi extends Closeable {
     DokumentlagerResponse<DokumentMetadataUploadResult> uploadDokument(
@@ -15,6 +25,24 @@ public interface DokumentlagerApi extends Closeable {
             boolean kryptert
     );
 
+    /**
+     * Laster opp innhold som produseres mens det sendes, f.eks. kryptert innhold eller en fil. Default leses innholdet
+     * som en InputStream og lastes opp med {@link #uploadDokument(InputStream, DokumentMetadataUpload, UUID, UUID, boolean)}.
+     */
+    default DokumentlagerResponse<DokumentMetadataUploadResult> uploadDokument(
+            Request.Content dokumentContent,
+            DokumentMetadataUpload metadata,
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            boolean kryptert
+    ) {
+        try (InputStream dokumentStream = Content.Source.asInputStream(dokumentContent)) {
+            return uploadDokument(dokumentStream, metadata, fiksOrganisasjonId, kontoId, kryptert);
+        } catch (IOException e) {
+            throw new DokumentlagerIOException(e.getMessage(), e);
+        }
+    }
+
     DokumentlagerResponse<DokumentMetadataUpdateResult> updateDokumentMetadata(
             UUID fiksOrganisasjonId,
             UUID kontoId,
@@ -22,6 +50,21 @@ public interface DokumentlagerApi extends Closeable {
             DokumentMetadataUpdate update
     );
 
+    /**
+     * Oppdaterer metadata med en oppdatering som allerede er serialisert til JSON, slik at samme oppdatering kan sendes
+     * for mange dokumenter uten å serialiseres på nytt. Default sendes {@code update} med
+     * {@link #updateDokumentMetadata(UUID, UUID, UUID, DokumentMetadataUpdate)}.
+     */
+    default DokumentlagerResponse<DokumentMetadataUpdateResult> updateDokumentMetadata(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID dokumentId,
+            DokumentMetadataUpdate update,
+            byte[] updateJson
+    ) {
+        return updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, update);
+    }
+
     DokumentlagerResponse<Void> deleteDokument(
             UUID fiksOrganisasjonId,
             UUID kontoId,
@@ -38,6 +81,34 @@ public interface DokumentlagerApi extends Closeable {
 
     DokumentlagerResponse<InputStream> downloadDokumentLazy(UUID dokumentId);
 
+    /**
+     * Laster ned dokumentet til en fil. Dokumentet skrives til en midlertidig fil som flyttes på plass når nedlastingen
+     * er ferdig, slik at en eksisterende fil ikke endres dersom nedlastingen feiler.
+     */
+    default DokumentlagerResponse<DokumentDownloadResult> downloadDokumentTo(UUID dokumentId, Path fil) {
+        return AtomicFileWriter.skriv(fil, channel -> downloadDokumentTo(dokumentId, channel));
+    }
+
+    /**
+     * Laster ned dokumentet til kanalen. Default leses dokumentet fra {@link #downloadDokument(UUID)}.
+     */
+    default DokumentlagerResponse<DokumentDownloadResult> downloadDokumentTo(UUID dokumentId, WritableByteChannel channel) {
+        long start = System.nanoTime();
+        DokumentlagerResponse<InputStream> response = downloadDokument(dokumentId);
+        try (InputStream dokumentStream = response.getResult()) {
+            // Strømmen rundt kanalen lukkes ikke, da det ville lukket kanalen
+            long antallBytes = dokumentStream.transferTo(Channels.newOutputStream(channel));
+            return DokumentlagerResponse.<DokumentDownloadResult>builder()
+                    .result(new DokumentDownloadResult(antallBytes, Duration.ofNanos(System.nanoTime() - start)))
+                    .httpStatus(response.getHttpStatus())
+                    .httpHeaders(response.getHttpHeaders())
+                    .antallForsok(response.getAntallForsok())
+                    .build();
+        } catch (IOException e) {
+            throw new DokumentlagerIOException(e.getMessage(), e);
+        }
+    }
+
     DokumentlagerResponse<DokumentMetadataDownloadResult> downloadDokumentMetadata(UUID dokumentId);
 
     DokumentlagerResponse<Sokeresultat> sokDokumenterMedKorrelasjonsid(
@@ -48,5 +119,39 @@ public interface DokumentlagerApi extends Closeable {
             Integer til
     );
 
+    /**
+     * Strømmende variant av søk, der hvert treff sendes til treffHandler etter hvert som det leses fra responsen.
+     * Resultatet er totalt antall treff. Default hentes hele siden med
+     * {@link #sokDokumenterMedKorrelasjonsid(UUID, UUID, UUID, Integer, Integer)} før treffene sendes til treffHandler.
+     */
+    default DokumentlagerResponse<Integer> sokDokumenterMedKorrelasjonsid(
+            UUID fiksOrganisasjonId,
+            UUID kontoId,
+            UUID korrelasjonsid,
+            Integer fra,
+            Integer til,
+            Consumer<Soketreff> treffHandler
+    ) {
+        DokumentlagerResponse<Sokeresultat> response = sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til);
+        Sokeresultat sokeresultat = response.getResult();
+        if (sokeresultat.getDokumenter() != null) {
+            sokeresultat.getDokumenter().forEach(treffHandler);
+        }
+        return DokumentlagerResponse.<Integer>builder()
+                .result(sokeresultat.getTotaltAntallTreff())
+                .httpStatus(response.getHttpStatus())
+                .httpHeaders(response.getHttpHeaders())
+                .antallForsok(response.getAntallForsok())
+                .tidsbruk(response.getTidsbruk().orElse(null))
+                .build();
+    }
+
     DokumentlagerResponse<String> getPublicKey();
+
+    /**
+     * Åpner tilkoblinger og initialiserer det som ellers gjøres ved første request. Returnerer tidsbruk per fase.
+     */
+    default WarmUpResult warmUp() {
+        return new WarmUpResult(Collections.emptyMap(), Collections.emptySet());
+    }
 }
@@ -2,76 +2,190 @@ package no.ks.fiks.dokumentlager.klient;
 
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.ConcurrencyLimitConfiguration.Operation;
+import no.ks.fiks.dokumentlager.klient.authentication.AsyncAuthenticationStrategy;
 import no.ks.fiks.dokumentlager.klient.authentication.AuthenticationStrategy;
 import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerHttpException;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerIOException;
+import no.ks.fiks.dokumentlager.klient.metrics.DokumentlagerMetrics;
 import no.ks.fiks.dokumentlager.klient.model.*;
 import no.ks.fiks.dokumentlager.klient.path.DefaultPathHandler;
 import no.ks.fiks.dokumentlager.klient.path.PathHandler;
 import org.apache.commons.io.IOUtils;
 import org.apache.hc.core5.http.ContentType;
 import org.eclipse.jetty.client.*;
+import org.eclipse.jetty.client.transport.HttpClientConnectionFactory;
 import org.eclipse.jetty.client.transport.HttpClientTransportDynamic;
 import org.eclipse.jetty.http.*;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.transport.ClientConnectionFactoryOverHTTP2;
+import org.eclipse.jetty.io.ClientConnectionFactory;
 import org.eclipse.jetty.io.ClientConnector;
+import org.eclipse.jetty.io.Content;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
-public class DokumentlagerApiImpl implements DokumentlagerApi {
+public class DokumentlagerApiImpl implements DokumentlagerApi, AsyncDokumentlagerApi {
 
     private static final String KRYPTERT_PARAM = "kryptert";
     private static final String METADATA_PART = "metadata";
     private static final String DOKUMENT_PART = "dokument";
+    private static final String MIME_TYPE_JSON = "application/json";
+    private static final String MIME_TYPE_OCTET_STREAM = "application/octet-stream";
+    private static final String MULTIPART_BOUNDARY_PREFIX = "DokumentlagerBoundary";
+    private static final int MULTIPART_BOUNDARY_LENGTH = 24;
+    private static final String ADGANGSKONTROLL_ATTRIBUTE = DokumentlagerApiImpl.class.getName() + ".adgangskontroll";
+    private static final String AUTENTISERING_ATTRIBUTE = DokumentlagerApiImpl.class.getName() + ".autentisering";
+    private static final String MALING_ATTRIBUTE = DokumentlagerApiImpl.class.getName() + ".maling";
+
+    private static final String UPLOAD_ERROR = "HTTP-error during upload (%d): %s";
+    private static final String UPDATE_METADATA_ERROR = "HTTP-error during metadata update (%d): %s";
+    private static final String DELETE_ERROR = "HTTP-error during delete (%d): %s";
+    private static final String DELETE_BY_KORRELASJONSID_ERROR = "HTTP-error during delete by korrelasjonsid (%d): %s";
+    private static final String DOWNLOAD_ERROR = "HTTP-error during download (%d): %s";
+    private static final String SOK_ERROR = "HTTP-error during document query (%d): %s";
+    private static final String PUBLIC_KEY_ERROR = "HTTP-error getting public-key (%d): %s";
 
     private final JsonMapper mapper = new JsonMapper();
 
-    private final HttpClient client;
+    private final HttpClient uploadClient;
+    private final HttpClient downloadClient;
     private final Duration uploadTimeout;
     private final Duration downloadTimeout;
 
     private final String uploadbaseUrl;
     private final String downloadBaseUrl;
-    private final AuthenticationStrategy authenticationStrategy;
+    private final AsyncAuthenticationStrategy authenticationStrategy;
     private final PathHandler pathHandler;
 
     private final Function<Request, Request> requestInterceptor;
+    private final HttpConfiguration httpConfiguration;
+    private final RetryHandler retryHandler;
+    private final SpoolingConfiguration spoolingConfiguration;
+    private final CircuitBreaker uploadCircuitBreaker;
+    private final CircuitBreaker downloadCircuitBreaker;
+    private final HedgedRequests hedgedRequests;
+    private final Map<Operation, ConcurrencyLimiter> concurrencyLimiters;
+    private final Map<Operation, Adgangskontroll> uploadAdgangskontroll;
+    private final Map<Operation, Adgangskontroll> downloadAdgangskontroll;
+    private final DokumentlagerMetrics metrics;
+    private final boolean tidsbruk;
 
     private DokumentlagerApiImpl(@NonNull String uploadBaseUrl,
                                  @NonNull String downloadBaseUrl,
-                                 @NonNull AuthenticationStrategy authenticationStrategy,
+                                 @NonNull AsyncAuthenticationStrategy authenticationStrategy,
                                  Function<Request, Request> requestInterceptor,
                                  @NonNull PathHandler pathHandler,
-                                 @NonNull HttpConfiguration httpConfiguration) {
+                                 @NonNull HttpConfiguration httpConfiguration,
+                                 @NonNull RetryPolicy retryPolicy,
+                                 SpoolingConfiguration spoolingConfiguration,
+                                 CircuitBreakerConfiguration circuitBreakerConfiguration,
+                                 HedgingPolicy hedgingPolicy,
+                                 @NonNull Map<Operation, ConcurrencyLimitConfiguration> concurrencyLimits,
+                                 DokumentlagerMetrics metrics,
+                                 boolean tidsbruk) {
         this.uploadbaseUrl = uploadBaseUrl;
         this.downloadBaseUrl = downloadBaseUrl;
         this.authenticationStrategy = authenticationStrategy;
         this.requestInterceptor = requestInterceptor;
         this.pathHandler = pathHandler;
-
-        ClientConnector clientConnector = new ClientConnector();
-        clientConnector.setSslContextFactory(new SslContextFactory.Client());
-        this.client = new HttpClient(new HttpClientTransportDynamic(clientConnector));
-        this.client.setIdleTimeout(httpConfiguration.getIdleTimeout().toMillis());
+        this.httpConfiguration = httpConfiguration;
+        this.retryHandler = new RetryHandler(retryPolicy);
+        this.spoolingConfiguration = spoolingConfiguration;
+        this.uploadCircuitBreaker = circuitBreakerConfiguration == null ? null : new CircuitBreaker("upload", circuitBreakerConfiguration);
+        this.downloadCircuitBreaker = circuitBreakerConfiguration == null ? null : new CircuitBreaker("download", circuitBreakerConfiguration);
+        this.concurrencyLimiters = new EnumMap<>(Operation.class);
+        concurrencyLimits.forEach((operation, configuration) ->
+                concurrencyLimiters.put(operation, new ConcurrencyLimiter(operation.name().toLowerCase(), configuration)));
+        this.uploadAdgangskontroll = createAdgangskontroll(uploadCircuitBreaker);
+        this.downloadAdgangskontroll = createAdgangskontroll(downloadCircuitBreaker);
+        this.metrics = metrics;
+        this.tidsbruk = tidsbruk;
+
+        this.uploadClient = createHttpClient(httpConfiguration, httpConfiguration.getUploadConnection());
+        // Med lik konfigurasjon deles klienten, slik at tilkoblinger og buffere gjenbrukes når base-url er den samme
+        this.downloadClient = httpConfiguration.getDownloadConnection().equals(httpConfiguration.getUploadConnection())
+                ? uploadClient
+                : createHttpClient(httpConfiguration, httpConfiguration.getDownloadConnection());
         this.uploadTimeout = httpConfiguration.getUploadTimeout();
         this.downloadTimeout = httpConfiguration.getDownloadTimeout();
 
         try {
-            this.client.start();
+            this.uploadClient.start();
+            if (downloadClient != uploadClient) {
+                this.downloadClient.start();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        // Hedgen startes på HTTP-klientens trådpool, som først finnes når klienten er startet, og ikke på ForkJoinPool.commonPool()
+        this.hedgedRequests = hedgingPolicy == null ? null : new HedgedRequests(hedgingPolicy, uploadClient.getExecutor());
+    }
+
+    /**
+     * Adgangskontroll per operasjonstype for én base-url. Operasjoner uten circuit breaker og begrensning får ingen kontroll.
+     */
+    private Map<Operation, Adgangskontroll> createAdgangskontroll(CircuitBreaker circuitBreaker) {
+        Map<Operation, Adgangskontroll> adgangskontroll = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            ConcurrencyLimiter limiter = concurrencyLimiters.get(operation);
+            if (circuitBreaker != null || limiter != null) {
+                adgangskontroll.put(operation, new Adgangskontroll(circuitBreaker, limiter));
+            }
+        }
+        return adgangskontroll;
+    }
+
+    private static HttpClient createHttpClient(HttpConfiguration httpConfiguration, ConnectionConfiguration connectionConfiguration) {
+        ClientConnector clientConnector = new ClientConnector();
+        clientConnector.setSslContextFactory(new SslContextFactory.Client());
+        clientConnector.setConnectTimeout(connectionConfiguration.getConnectTimeout());
+        clientConnector.setReceiveBufferSize(connectionConfiguration.getReceiveBufferSize());
+        clientConnector.setSendBufferSize(connectionConfiguration.getSendBufferSize());
+
+        ClientConnectionFactory.Info http11 = HttpClientConnectionFactory.HTTP11;
+        HttpClientTransportDynamic transport = connectionConfiguration.getHttpVersion() == ConnectionConfiguration.HttpVersion.HTTP_2
+                // HTTP/1.1 først, slik at http:// bruker HTTP/1.1 og HTTP/2 kun velges når det forhandles med ALPN over TLS
+                ? new HttpClientTransportDynamic(clientConnector, http11, new ClientConnectionFactoryOverHTTP2.HTTP2(new HTTP2Client(clientConnector)))
+                : new HttpClientTransportDynamic(clientConnector, http11);
+
+        int maxConnections = connectionConfiguration.getMaxConnectionsPerDestination();
+        if (connectionConfiguration.getEffectivePoolStrategy() == ConnectionConfiguration.PoolStrategy.MULTIPLEX) {
+            int maxMultiplex = connectionConfiguration.getMaxRequestsPerConnection();
+            transport.setConnectionPoolFactory(destination -> new MultiplexConnectionPool(destination, maxConnections, maxMultiplex));
+        } else {
+            transport.setConnectionPoolFactory(destination -> new DuplexConnectionPool(destination, maxConnections));
+        }
+
+        HttpClient client = new HttpClient(transport);
+        client.setIdleTimeout(httpConfiguration.getIdleTimeout().toMillis());
+        client.setConnectTimeout(connectionConfiguration.getConnectTimeout().toMillis());
+        client.setMaxConnectionsPerDestination(maxConnections);
+        client.setMaxRequestsQueuedPerDestination(connectionConfiguration.getMaxRequestsQueuedPerDestination());
+        return client;
     }
 
     public static DokumentlagerApiImplBuilder builder() {
@@ -84,24 +198,34 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
                                                                               @NonNull UUID fiksOrganisasjonId,
                                                                               @NonNull UUID kontoId,
                                                                               boolean kryptert) {
-        log.debug("Uploading {}dokument for organisasjon {} and konto {}: {}", kryptert ? "encrypted " : "", fiksOrganisasjonId, kontoId, metadata);
-        try {
-            ContentResponse response = newUploadRequest()
-                    .method(HttpMethod.POST)
-                    .path(pathHandler.getUploadPath(fiksOrganisasjonId, kontoId))
-                    .param(KRYPTERT_PARAM, String.valueOf(kryptert))
-                    .body(buildMultipartContent(metadata, dokumentStream))
-                    .timeout(uploadTimeout.toMillis(), TimeUnit.MILLISECONDS)
-                    .send();
+        return uploadDokument(createUploadContent(dokumentStream), metadata, fiksOrganisasjonId, kontoId, kryptert);
+    }
 
-            if (isError(response.getStatus())) {
-                log.info("Upload request failed with status {}", response.getStatus());
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(String.format("HTTP-error during upload (%d): %s", status, content), status, content);
+    @Override
+    public DokumentlagerResponse<DokumentMetadataUploadResult> uploadDokument(@NonNull Request.Content dokumentContent,
+                                                                              @NonNull DokumentMetadataUpload metadata,
+                                                                              @NonNull UUID fiksOrganisasjonId,
+                                                                              @NonNull UUID kontoId,
+                                                                              boolean kryptert) {
+        log.debug("Uploading {}dokument for organisasjon {} and konto {}: {}", kryptert ? "encrypted " : "", fiksOrganisasjonId, kontoId, metadata);
+        ForsokContent forsokContent = createForsokContent(dokumentContent);
+        if (forsokContent != null) {
+            try (forsokContent) {
+                return retryHandler.execute("Upload", retryHandler::kanProvesIgjenUtenDuplikat,
+                        () -> sendUploadDokument(forsokContent.neste(), metadata, fiksOrganisasjonId, kontoId, kryptert));
             }
+        }
+        return sendUploadDokument(dokumentContent, metadata, fiksOrganisasjonId, kontoId, kryptert);
+    }
 
-            return buildResponse(response, mapper.fromJson(response.getContent(), DokumentMetadataUploadResult.class));
+    private DokumentlagerResponse<DokumentMetadataUploadResult> sendUploadDokument(Request.Content dokumentContent,
+                                                                                   DokumentMetadataUpload metadata,
+                                                                                   UUID fiksOrganisasjonId,
+                                                                                   UUID kontoId,
+                                                                                   boolean kryptert) {
+        try {
+            return send(newUploadDokumentRequest(dokumentContent, metadata, fiksOrganisasjonId, kontoId, kryptert),
+                    UPLOAD_ERROR, content -> mapper.fromJson(content, DokumentMetadataUploadResult.class));
         } catch (ExecutionException e) {
             // Unngå innpakking av RuntimeException inne i ExecutionException som blir pakket i RuntimeException igjen
             if (e.getCause() instanceof RuntimeException ex) {
@@ -113,15 +237,206 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
         }
     }
 
-    private MultiPartRequestContent buildMultipartContent(DokumentMetadataUpload metadata, InputStream dokumentStream) {
-        MultiPartRequestContent multipart = new MultiPartRequestContent();
-        addMetadataPart(multipart, metadata);
-        addDokumentPart(multipart, metadata.getDokumentnavn(), dokumentStream);
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadDokumentAsync(@NonNull InputStream dokumentStream,
+                                                                                                     @NonNull DokumentMetadataUpload metadata,
+                                                                                                     @NonNull UUID fiksOrganisasjonId,
+                                                                                                     @NonNull UUID kontoId,
+                                                                                                     boolean kryptert) {
+        return uploadDokumentAsync(createUploadContent(dokumentStream), metadata, fiksOrganisasjonId, kontoId, kryptert);
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadDokumentAsync(@NonNull Request.Content dokumentContent,
+                                                                                                     @NonNull DokumentMetadataUpload metadata,
+                                                                                                     @NonNull UUID fiksOrganisasjonId,
+                                                                                                     @NonNull UUID kontoId,
+                                                                                                     boolean kryptert) {
+        log.debug("Uploading {}dokument async for organisasjon {} and konto {}: {}", kryptert ? "encrypted " : "", fiksOrganisasjonId, kontoId, metadata);
+        ForsokContent forsokContent = createForsokContent(dokumentContent);
+        if (forsokContent != null) {
+            return retryHandler.<DokumentMetadataUploadResult>executeAsync("Upload", retryHandler::kanProvesIgjenUtenDuplikat,
+                            () -> sendUploadDokumentAsync(forsokContent.neste(), metadata, fiksOrganisasjonId, kontoId, kryptert))
+                    .whenComplete((response, e) -> forsokContent.close());
+        }
+        return sendUploadDokumentAsync(dokumentContent, metadata, fiksOrganisasjonId, kontoId, kryptert);
+    }
+
+    private CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> sendUploadDokumentAsync(Request.Content dokumentContent,
+                                                                                                         DokumentMetadataUpload metadata,
+                                                                                                         UUID fiksOrganisasjonId,
+                                                                                                         UUID kontoId,
+                                                                                                         boolean kryptert) {
+        return sendAsync(newUploadDokumentRequest(dokumentContent, metadata, fiksOrganisasjonId, kontoId, kryptert),
+                UPLOAD_ERROR, content -> mapper.fromJson(content, DokumentMetadataUploadResult.class));
+    }
+
+    private Request.Content createUploadContent(InputStream dokumentStream) {
+        if (spoolingConfiguration != null && retryHandler.isEnabled()) {
+            return new SpoolingRequestContent(MIME_TYPE_OCTET_STREAM, dokumentStream::read, spoolingConfiguration, uploadClient.getByteBufferPool());
+        }
+        return new InputStreamRequestContent(dokumentStream);
+    }
+
+    /**
+     * Returnerer innhold som kan sendes på nytt slik at opplastingen kan prøves på nytt, eller null dersom spooling
+     * ikke er konfigurert eller innholdet ikke kan sendes på nytt.
+     */
+    private ForsokContent createForsokContent(Request.Content dokumentContent) {
+        if (spoolingConfiguration == null || !retryHandler.isEnabled()) {
+            return null;
+        }
+        if (dokumentContent instanceof PathRequestContent pathContent) {
+            // Filen leses på nytt for hvert forsøk, så den trenger ikke mellomlagres
+            return new ForsokContent(pathContent, () -> createPathContent(pathContent), () -> {});
+        }
+        SpoolingRequestContent spoolingContent = createSpoolingContent(dokumentContent);
+        if (spoolingContent == null) {
+            return null;
+        }
+        return new ForsokContent(spoolingContent, spoolingContent::replay, spoolingContent::close);
+    }
+
+    private SpoolingRequestContent createSpoolingContent(Request.Content dokumentContent) {
+        if (dokumentContent instanceof SpoolingRequestContent spoolingContent) {
+            return spoolingContent;
+        }
+        if (dokumentContent instanceof KrypteringRequestContent kryptertContent) {
+            // Det krypterte innholdet mellomlagres, slik at nye forsøk ikke krypterer dokumentet på nytt
+            return new SpoolingRequestContent(MIME_TYPE_OCTET_STREAM, kryptertContent::lesKryptert, spoolingConfiguration, uploadClient.getByteBufferPool());
+        }
+        return null;
+    }
+
+    private PathRequestContent createPathContent(PathRequestContent forrige) throws IOException {
+        PathRequestContent pathContent = new PathRequestContent(forrige.getContentType(), forrige.getPath(), uploadClient.getByteBufferPool());
+        pathContent.setBufferSize(forrige.getBufferSize());
+        pathContent.setUseDirectByteBuffers(forrige.isUseDirectByteBuffers());
+        return pathContent;
+    }
+
+    /**
+     * Første forsøk sender innholdet som ble gitt, nye forsøk sender innholdet på nytt fra mellomlageret eller filen.
+     */
+    private static class ForsokContent implements AutoCloseable {
+        private final Request.Content forsteContent;
+        private final NyttForsok nyttForsok;
+        private final Runnable lukk;
+        private boolean forsteForsok = true;
+
+        private ForsokContent(Request.Content forsteContent, NyttForsok nyttForsok, Runnable lukk) {
+            this.forsteContent = forsteContent;
+            this.nyttForsok = nyttForsok;
+            this.lukk = lukk;
+        }
+
+        private synchronized Request.Content neste() {
+            if (forsteForsok) {
+                forsteForsok = false;
+                return forsteContent;
+            }
+            try {
+                return nyttForsok.content();
+            } catch (IOException e) {
+                throw new DokumentlagerIOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            lukk.run();
+        }
+    }
+
+    private interface NyttForsok {
+        Request.Content content() throws IOException;
+    }
+
+    private Request newUploadDokumentRequest(Request.Content dokumentContent, DokumentMetadataUpload metadata, UUID fiksOrganisasjonId, UUID kontoId, boolean kryptert) {
+        return newUploadRequest(DokumentlagerMetrics.Operation.UPLOAD)
+                .method(HttpMethod.POST)
+                .path(pathHandler.getUploadPath(fiksOrganisasjonId, kontoId))
+                .param(KRYPTERT_PARAM, String.valueOf(kryptert))
+                .body(buildMultipartContent(metadata, dokumentContent))
+                .timeout(uploadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private Request.Content buildMultipartContent(DokumentMetadataUpload metadata, Request.Content dokumentContent) {
+        String metadataJson = mapper.toJson(metadata);
+        String boundary = MultiPart.generateBoundary(MULTIPART_BOUNDARY_PREFIX, MULTIPART_BOUNDARY_LENGTH);
+        MultiPartRequestContent multipart = buildMultipartContent(boundary, metadataJson, metadata.getDokumentnavn(), dokumentContent);
+        long dokumentLength = dokumentContent.getLength();
+        if (dokumentLength < 0) {
+            return multipart;
+        }
+
+        // MultiPartRequestContent oppgir ikke lengden sin, så den beregnes fra multiparten uten dokumentet, slik at
+        // requesten sendes med Content-Length i stedet for chunked
+        MultiPartRequestContent utenDokument = buildMultipartContent(boundary, metadataJson, metadata.getDokumentnavn(), new BytesRequestContent());
+        try {
+            return new KjentLengdeContent(multipart, Content.Source.asByteBuffer(utenDokument).remaining() + dokumentLength);
+        } catch (IOException e) {
+            throw new DokumentlagerIOException(e.getMessage(), e);
+        }
+    }
+
+    private MultiPartRequestContent buildMultipartContent(String boundary, String metadataJson, String fileName, Request.Content dokumentContent) {
+        MultiPartRequestContent multipart = new MultiPartRequestContent(boundary);
+        addMetadataPart(multipart, metadataJson);
+        addDokumentPart(multipart, fileName, dokumentContent);
         multipart.close();
         return multipart;
     }
 
-    private void addMetadataPart(MultiPartRequestContent multipart, DokumentMetadataUpload metadata) {
+    /**
+     * Content med kjent lengde, for content som ikke oppgir lengden selv.
+     */
+    private static class KjentLengdeContent implements Request.Content {
+        private final Request.Content content;
+        private final long length;
+
+        private KjentLengdeContent(Request.Content content, long length) {
+            this.content = content;
+            this.length = length;
+        }
+
+        @Override
+        public String getContentType() {
+            return content.getContentType();
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public Content.Chunk read() {
+            return content.read();
+        }
+
+        @Override
+        public void demand(Runnable demandCallback) {
+            content.demand(demandCallback);
+        }
+
+        @Override
+        public void fail(Throwable failure) {
+            content.fail(failure);
+        }
+
+        @Override
+        public void fail(Throwable failure, boolean last) {
+            content.fail(failure, last);
+        }
+
+        @Override
+        public boolean rewind() {
+            return content.rewind();
+        }
+    }
+
+    private void addMetadataPart(MultiPartRequestContent multipart, String metadataJson) {
         addPart(
                 multipart,
                 new MultiPart.ContentSourcePart(
@@ -130,12 +445,12 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
                         HttpFields.from(
                                 new HttpField(HttpHeader.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType())
                         ),
-                        new StringRequestContent(mapper.toJson(metadata))
+                        new StringRequestContent(metadataJson)
                 )
         );
     }
 
-    private void addDokumentPart(MultiPartRequestContent multipart, String fileName, InputStream dokumentStream) {
+    private void addDokumentPart(MultiPartRequestContent multipart, String fileName, Request.Content dokumentContent) {
         addPart(
                 multipart,
                 new MultiPart.ContentSourcePart(
@@ -144,7 +459,7 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
                         HttpFields.from(
                                 new HttpField(HttpHeader.CONTENT_TYPE, ContentType.APPLICATION_OCTET_STREAM.getMimeType())
                         ),
-                        new InputStreamRequestContent(dokumentStream)
+                        dokumentContent
                 )
         );
     }
@@ -158,71 +473,77 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
 
     @Override
     public DokumentlagerResponse<DokumentMetadataUpdateResult> updateDokumentMetadata(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId, DokumentMetadataUpdate update) {
+        return updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, update, mapper.toJsonBytes(update));
+    }
+
+    @Override
+    public DokumentlagerResponse<DokumentMetadataUpdateResult> updateDokumentMetadata(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId, DokumentMetadataUpdate update, byte[] updateJson) {
         log.debug("Updating metadata for dokument with id {} for organisasjon {} and konto {}", dokumentId, fiksOrganisasjonId, kontoId);
         try {
-            ContentResponse response = newUploadRequest()
-                    .method(HttpMethod.PATCH)
-                    .path(pathHandler.getUpdateMetadataPath(fiksOrganisasjonId, kontoId, dokumentId))
-                    .body(createJsonBody(update))
-                    .send();
-
-            if (isError(response.getStatus())) {
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(
-                        String.format("HTTP-error during metadata update (%d): %s", status, content), status, content);
-            }
-
-            return buildResponse(response, mapper.fromJson(response.getContent(), DokumentMetadataUpdateResult.class));
+            return send(newUpdateDokumentMetadataRequest(fiksOrganisasjonId, kontoId, dokumentId, updateJson),
+                    UPDATE_METADATA_ERROR, content -> mapper.fromJson(content, DokumentMetadataUpdateResult.class));
         } catch (InterruptedException | ExecutionException | TimeoutException e) {
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateDokumentMetadataAsync(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId, DokumentMetadataUpdate update) {
+        return updateDokumentMetadataAsync(fiksOrganisasjonId, kontoId, dokumentId, update, mapper.toJsonBytes(update));
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateDokumentMetadataAsync(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId, DokumentMetadataUpdate update, byte[] updateJson) {
+        log.debug("Updating metadata async for dokument with id {} for organisasjon {} and konto {}", dokumentId, fiksOrganisasjonId, kontoId);
+        return sendAsync(newUpdateDokumentMetadataRequest(fiksOrganisasjonId, kontoId, dokumentId, updateJson),
+                UPDATE_METADATA_ERROR, content -> mapper.fromJson(content, DokumentMetadataUpdateResult.class));
+    }
+
+    private Request newUpdateDokumentMetadataRequest(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId, byte[] updateJson) {
+        return newUploadRequest(DokumentlagerMetrics.Operation.UPDATE_METADATA)
+                .method(HttpMethod.PATCH)
+                .path(pathHandler.getUpdateMetadataPath(fiksOrganisasjonId, kontoId, dokumentId))
+                .body(new BytesRequestContent(MIME_TYPE_JSON, updateJson));
+    }
+
     @Override
     public DokumentlagerResponse<Void> deleteDokument(@NonNull UUID fiksOrganisasjonId,
                                                       @NonNull UUID kontoId,
                                                       @NonNull UUID dokumentId) {
         log.debug("Deleting dokument with id {} for organisasjon {} and konto {}", dokumentId, fiksOrganisasjonId, kontoId);
-        try {
-            ContentResponse response = newUploadRequest()
-                    .method(HttpMethod.DELETE)
-                    .path(pathHandler.getDeletePath(fiksOrganisasjonId, kontoId, dokumentId))
-                    .send();
+        return sendWithRetry("Delete", () -> newDeleteDokumentRequest(fiksOrganisasjonId, kontoId, dokumentId), DELETE_ERROR, content -> null);
+    }
 
-            if (isError(response.getStatus())) {
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(
-                        String.format("HTTP-error during delete (%d): %s", status, content), status, content);
-            }
+    @Override
+    public CompletableFuture<DokumentlagerResponse<Void>> deleteDokumentAsync(@NonNull UUID fiksOrganisasjonId,
+                                                                             @NonNull UUID kontoId,
+                                                                             @NonNull UUID dokumentId) {
+        log.debug("Deleting dokument async with id {} for organisasjon {} and konto {}", dokumentId, fiksOrganisasjonId, kontoId);
+        return sendAsyncWithRetry("Delete", () -> newDeleteDokumentRequest(fiksOrganisasjonId, kontoId, dokumentId), DELETE_ERROR, content -> null);
+    }
 
-            return buildResponse(response, null);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            throw new RuntimeException(e);
-        }
+    private Request newDeleteDokumentRequest(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId) {
+        return newUploadRequest(DokumentlagerMetrics.Operation.DELETE)
+                .method(HttpMethod.DELETE)
+                .path(pathHandler.getDeletePath(fiksOrganisasjonId, kontoId, dokumentId));
     }
 
     @Override
     public DokumentlagerResponse<Void> deleteDokumenterByKorrelasjonsid(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid) {
         log.debug("Deleting dokumenter with korrelasjonsid {} for organisasjon {} and konto {}", korrelasjonsid, fiksOrganisasjonId, kontoId);
-        try {
-            ContentResponse response = newUploadRequest()
-                    .method(HttpMethod.DELETE)
-                    .path(pathHandler.getDeleteByKorrelasjonsidPath(fiksOrganisasjonId, kontoId, korrelasjonsid))
-                    .send();
+        return sendWithRetry("Delete by korrelasjonsid", () -> newDeleteDokumenterByKorrelasjonsidRequest(fiksOrganisasjonId, kontoId, korrelasjonsid), DELETE_BY_KORRELASJONSID_ERROR, content -> null);
+    }
 
-            if (isError(response.getStatus())) {
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(
-                        String.format("HTTP-error during delete by korrelasjonsid (%d): %s", status, content), status, content);
-            }
+    @Override
+    public CompletableFuture<DokumentlagerResponse<Void>> deleteDokumenterByKorrelasjonsidAsync(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid) {
+        log.debug("Deleting dokumenter async with korrelasjonsid {} for organisasjon {} and konto {}", korrelasjonsid, fiksOrganisasjonId, kontoId);
+        return sendAsyncWithRetry("Delete by korrelasjonsid", () -> newDeleteDokumenterByKorrelasjonsidRequest(fiksOrganisasjonId, kontoId, korrelasjonsid), DELETE_BY_KORRELASJONSID_ERROR, content -> null);
+    }
 
-            return buildResponse(response, null);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            throw new RuntimeException(e);
-        }
+    private Request newDeleteDokumenterByKorrelasjonsidRequest(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid) {
+        return newUploadRequest(DokumentlagerMetrics.Operation.DELETE_BY_KORRELASJONSID)
+                .method(HttpMethod.DELETE)
+                .path(pathHandler.getDeleteByKorrelasjonsidPath(fiksOrganisasjonId, kontoId, korrelasjonsid));
     }
 
     @Override
@@ -237,78 +558,148 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
         return new LazyDokumentlagerResponse(downloadRequestSupplier::get);
     }
 
+    /**
+     * Retry gjelder frem til responsen er mottatt. Feil under lesing av innholdet må håndteres av den som leser.
+     */
     private Supplier<DokumentlagerResponse<InputStream>> createDownloadRequestSupplier(@NonNull UUID dokumentId) {
-        Request request = newDownloadRequest()
-                .method(HttpMethod.GET)
-                .path(pathHandler.getDownloadPath(dokumentId));
-
-        return () -> {
+        return () -> retryHandler.execute("Download", () -> {
             try {
                 log.debug("Downloading dokument {}", dokumentId);
 
+                Request request = newDownloadRequest(DokumentlagerMetrics.Operation.DOWNLOAD)
+                        .method(HttpMethod.GET)
+                        .path(pathHandler.getDownloadPath(dokumentId));
                 InputStreamResponseListener listener = new InputStreamResponseListener();
-                request.send(listener);
+                klargjor(request).send(listener);
 
                 Response response = listener.get(downloadTimeout.toMillis(), TimeUnit.MILLISECONDS);
                 if (isError(response.getStatus())) {
-                    int status = response.getStatus();
                     String content = IOUtils.toString(listener.getInputStream(), StandardCharsets.UTF_8);
-                    throw new DokumentlagerHttpException(
-                            String.format("HTTP-error during download (%d): %s", status, content), status, content);
+                    throw httpException(DOWNLOAD_ERROR, response, content);
                 }
 
                 return buildResponse(response, listener.getInputStream());
             } catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
                 throw new RuntimeException(e);
             }
-        };
+        });
     }
 
     @Override
-    public DokumentlagerResponse<DokumentMetadataDownloadResult> downloadDokumentMetadata(@NonNull UUID dokumentId) {
-        log.debug("Downloading metadata for dokument with id {}", dokumentId);
-        try {
-            ContentResponse response = newDownloadRequest()
-                    .method(HttpMethod.GET)
-                    .path(pathHandler.getDownloadMetadataPath(dokumentId))
-                    .send();
+    public DokumentlagerResponse<DokumentDownloadResult> downloadDokumentTo(@NonNull UUID dokumentId, @NonNull Path fil) {
+        return AtomicFileWriter.skriv(fil, channel -> {
+            DokumentlagerResponse<DokumentDownloadResult> response = downloadDokumentTo(dokumentId, channel, contentLength -> {
+                // Forhåndsallokerer filen ved å skrive siste byte, uten å flytte posisjonen i kanalen
+                channel.write(ByteBuffer.wrap(new byte[1]), contentLength - 1);
+            });
+            channel.truncate(response.getResult().getAntallBytes());
+            return response;
+        });
+    }
 
+    @Override
+    public DokumentlagerResponse<DokumentDownloadResult> downloadDokumentTo(@NonNull UUID dokumentId, @NonNull WritableByteChannel channel) {
+        return downloadDokumentTo(dokumentId, channel, contentLength -> {});
+    }
+
+    private DokumentlagerResponse<DokumentDownloadResult> downloadDokumentTo(UUID dokumentId, WritableByteChannel channel, ChannelResponseListener.ContentLengthHandler contentLengthHandler) {
+        log.debug("Downloading dokument {} to channel", dokumentId);
+        long start = System.nanoTime();
+        ChannelResponseListener listener = new ChannelResponseListener(channel, contentLengthHandler);
+        Request request = newDownloadRequest(DokumentlagerMetrics.Operation.DOWNLOAD)
+                .method(HttpMethod.GET)
+                .path(pathHandler.getDownloadPath(dokumentId))
+                .timeout(downloadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        klargjor(request).send(listener);
+
+        try {
+            Response response = listener.getFuture().get();
             if (isError(response.getStatus())) {
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(
-                        String.format("HTTP-error during download (%d): %s", status, content), status, content);
+                throw httpException(DOWNLOAD_ERROR, response, listener.getErrorContent());
             }
 
-            return buildResponse(response, mapper.fromJson(response.getContent(), DokumentMetadataDownloadResult.class));
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            Duration varighet = Duration.ofNanos(System.nanoTime() - start);
+            log.debug("Downloaded {} bytes for dokument {} in {} ms", listener.getAntallBytes(), dokumentId, varighet.toMillis());
+            return buildResponse(response, new DokumentDownloadResult(listener.getAntallBytes(), varighet));
+        } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public DokumentlagerResponse<DokumentMetadataDownloadResult> downloadDokumentMetadata(@NonNull UUID dokumentId) {
+        log.debug("Downloading metadata for dokument with id {}", dokumentId);
+        return sendHedgedWithRetry("Download metadata", () -> newDownloadDokumentMetadataRequest(dokumentId),
+                DOWNLOAD_ERROR, content -> mapper.fromJson(content, DokumentMetadataDownloadResult.class));
+    }
+
+    @Override
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> downloadDokumentMetadataAsync(@NonNull UUID dokumentId) {
+        log.debug("Downloading metadata async for dokument with id {}", dokumentId);
+        return sendHedgedAsyncWithRetry("Download metadata", () -> newDownloadDokumentMetadataRequest(dokumentId),
+                DOWNLOAD_ERROR, content -> mapper.fromJson(content, DokumentMetadataDownloadResult.class));
+    }
+
+    private Request newDownloadDokumentMetadataRequest(UUID dokumentId) {
+        return newDownloadRequest(DokumentlagerMetrics.Operation.DOWNLOAD_METADATA)
+                .method(HttpMethod.GET)
+                .path(pathHandler.getDownloadMetadataPath(dokumentId));
+    }
+
     @Override
     public DokumentlagerResponse<Sokeresultat> sokDokumenterMedKorrelasjonsid(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid, Integer fra, Integer til) {
         log.debug("Search documents with correlationid {}", korrelasjonsid);
-        try {
-            ContentResponse response = newUploadRequest()
-                    .method(HttpMethod.POST)
-                    .path(pathHandler.getQueryDocumentPath(fiksOrganisasjonId, kontoId))
-                    .param("fra", String.valueOf(fra))
-                    .param("til", String.valueOf(til))
-                    .body(createJsonBody(new Korrelasjonsid(korrelasjonsid)))
-                    .send();
+        return sendWithRetry("Search", () -> newSokDokumenterMedKorrelasjonsidRequest(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til),
+                SOK_ERROR, content -> mapper.fromJson(content, Sokeresultat.class));
+    }
 
-            if (isError(response.getStatus())) {
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(
-                        String.format("HTTP-error during document query (%d): %s", status, content), status, content);
+    @Override
+    public CompletableFuture<DokumentlagerResponse<Sokeresultat>> sokDokumenterMedKorrelasjonsidAsync(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid, Integer fra, Integer til) {
+        log.debug("Search documents async with correlationid {}", korrelasjonsid);
+        return sendAsyncWithRetry("Search", () -> newSokDokumenterMedKorrelasjonsidRequest(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til),
+                SOK_ERROR, content -> mapper.fromJson(content, Sokeresultat.class));
+    }
+
+    @Override
+    public DokumentlagerResponse<Integer> sokDokumenterMedKorrelasjonsid(UUID fiksOrganisasjonId,
+                                                                         UUID kontoId,
+                                                                         UUID korrelasjonsid,
+                                                                         Integer fra,
+                                                                         Integer til,
+                                                                         @NonNull Consumer<Soketreff> treffHandler) {
+        log.debug("Streaming search of documents with correlationid {}", korrelasjonsid);
+        AtomicBoolean treffLevert = new AtomicBoolean();
+        Consumer<Soketreff> handler = treff -> {
+            treffLevert.set(true);
+            treffHandler.accept(treff);
+        };
+        // Når et treff er levert kan ikke søket gjøres på nytt, da ville treffHandler fått de samme treffene igjen
+        return retryHandler.execute("Search", feil -> !treffLevert.get() && retryHandler.kanProvesIgjen(feil), () -> {
+            try {
+                InputStreamResponseListener listener = new InputStreamResponseListener();
+                Request request = newSokDokumenterMedKorrelasjonsidRequest(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til);
+                klargjor(request).send(listener);
+
+                Response response = listener.get(uploadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                try (InputStream content = listener.getInputStream()) {
+                    if (isError(response.getStatus())) {
+                        throw httpException(SOK_ERROR, response, IOUtils.toString(content, StandardCharsets.UTF_8));
+                    }
+                    return buildResponse(response, mapper.readSokeresultat(content, handler));
+                }
+            } catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+                throw new RuntimeException(e);
             }
+        });
+    }
 
-            return buildResponse(response, mapper.fromJson(response.getContent(), Sokeresultat.class));
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            throw new RuntimeException(e);
-        }
+    private Request newSokDokumenterMedKorrelasjonsidRequest(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid, Integer fra, Integer til) {
+        return newUploadRequest(DokumentlagerMetrics.Operation.SEARCH)
+                .method(HttpMethod.POST)
+                .path(pathHandler.getQueryDocumentPath(fiksOrganisasjonId, kontoId))
+                .param("fra", String.valueOf(fra))
+                .param("til", String.valueOf(til))
+                .body(createJsonBody(new Korrelasjonsid(korrelasjonsid)));
     }
 
     private record Korrelasjonsid(UUID korrelasjonsid) {}
@@ -316,23 +707,128 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
     @Override
     public DokumentlagerResponse<String> getPublicKey() {
         log.debug("Getting public key");
-        try {
-            ContentResponse response = newUploadRequest()
-                    .method(HttpMethod.GET)
-                    .path(pathHandler.getPublicKeyPath())
-                    .send();
+        return sendHedgedWithRetry("Get public key", this::newPublicKeyRequest, PUBLIC_KEY_ERROR, content -> new String(content, StandardCharsets.UTF_8));
+    }
 
-            if (isError(response.getStatus())) {
-                int status = response.getStatus();
-                String content = response.getContentAsString();
-                throw new DokumentlagerHttpException(
-                        String.format("HTTP-error getting public-key (%d): %s", status, content), status, content);
+    @Override
+    public CompletableFuture<DokumentlagerResponse<String>> getPublicKeyAsync() {
+        log.debug("Getting public key async");
+        return sendHedgedAsyncWithRetry("Get public key", this::newPublicKeyRequest, PUBLIC_KEY_ERROR, content -> new String(content, StandardCharsets.UTF_8));
+    }
+
+    private Request newPublicKeyRequest() {
+        return newUploadRequest(DokumentlagerMetrics.Operation.PUBLIC_KEY)
+                .method(HttpMethod.GET)
+                .path(pathHandler.getPublicKeyPath());
+    }
+
+    /**
+     * Requester kan ikke sendes på nytt i Jetty, så en ny request bygges for hvert forsøk.
+     */
+    private <T> DokumentlagerResponse<T> sendWithRetry(String operasjon, Supplier<Request> request, String errorFormat, Function<byte[], T> resultMapper) {
+        return retryHandler.execute(operasjon, () -> {
+            try {
+                return send(request.get(), errorFormat, resultMapper);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                throw new RuntimeException(e);
             }
+        });
+    }
 
-            return buildResponse(response, response.getContentAsString());
-        } catch (InterruptedException | TimeoutException | ExecutionException e) {
-            throw new RuntimeException(e);
+    private <T> CompletableFuture<DokumentlagerResponse<T>> sendAsyncWithRetry(String operasjon, Supplier<Request> request, String errorFormat, Function<byte[], T> resultMapper) {
+        return retryHandler.executeAsync(operasjon, () -> sendAsync(request.get(), errorFormat, resultMapper));
+    }
+
+    private <T> DokumentlagerResponse<T> sendHedgedWithRetry(String operasjon, Supplier<Request> request, String errorFormat, Function<byte[], T> resultMapper) {
+        if (hedgedRequests == null) {
+            return sendWithRetry(operasjon, request, errorFormat, resultMapper);
         }
+        return retryHandler.execute(operasjon, () -> join(sendHedged(request, errorFormat, resultMapper)));
+    }
+
+    private <T> CompletableFuture<DokumentlagerResponse<T>> sendHedgedAsyncWithRetry(String operasjon, Supplier<Request> request, String errorFormat, Function<byte[], T> resultMapper) {
+        if (hedgedRequests == null) {
+            return sendAsyncWithRetry(operasjon, request, errorFormat, resultMapper);
+        }
+        return retryHandler.executeAsync(operasjon, () -> sendHedged(request, errorFormat, resultMapper));
+    }
+
+    private <T> CompletableFuture<DokumentlagerResponse<T>> sendHedged(Supplier<Request> request, String errorFormat, Function<byte[], T> resultMapper) {
+        return hedgedRequests.utfor(() -> {
+            Request forsok = request.get();
+            return new HedgedRequests.Forsok<>(sendAsync(forsok, errorFormat, resultMapper), () -> forsok.abort(new HedgedRequests.TaptHedgeException()));
+        });
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private <T> DokumentlagerResponse<T> send(Request request, String errorFormat, Function<byte[], T> resultMapper)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        ContentResponse response = klargjor(request).send();
+
+        if (isError(response.getStatus())) {
+            throw httpException(errorFormat, response, response.getContentAsString());
+        }
+
+        return buildResponse(response, resultMapper.apply(response.getContent()));
+    }
+
+    private <T> CompletableFuture<DokumentlagerResponse<T>> sendAsync(Request request, String errorFormat, Function<byte[], T> resultMapper) {
+        CompletableFuture<DokumentlagerResponse<T>> future = new CompletableFuture<>();
+        // Venting på token og ledig kapasitet skal ikke holde på tråden, så requesten sendes fra tråden som fullfører
+        klargjorAsync(request).whenComplete((klar, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else if (future.isDone()) {
+                // Kallet ble avbrutt mens det ventet, så requesten sendes ikke og tillatelsen må frigis her
+                Adgangskontroll.frigiUsendt(klar);
+            } else {
+                try {
+                    sendAsyncKlargjort(klar, errorFormat, resultMapper, future);
+                } catch (RuntimeException ex) {
+                    Adgangskontroll.frigiUsendt(klar);
+                    future.completeExceptionally(ex);
+                }
+            }
+        });
+        return future;
+    }
+
+    private <T> void sendAsyncKlargjort(Request request, String errorFormat, Function<byte[], T> resultMapper, CompletableFuture<DokumentlagerResponse<T>> future) {
+        request.send(new BufferingResponseListener() {
+            @Override
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    future.completeExceptionally(result.getFailure());
+                    return;
+                }
+
+                Response response = result.getResponse();
+                try {
+                    if (isError(response.getStatus())) {
+                        throw httpException(errorFormat, response, getContentAsString());
+                    }
+                    future.complete(buildResponse(response, resultMapper.apply(getContent())));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private DokumentlagerHttpException httpException(String errorFormat, Response response, String content) {
+        int status = response.getStatus();
+        log.info("Request failed with status {}", status);
+        return new DokumentlagerHttpException(String.format(errorFormat, status, content), status, content, toHeaderMap(response));
     }
 
     private boolean isError(int httpStatus) {
@@ -340,40 +836,197 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
     }
 
     private <T> DokumentlagerResponse<T> buildResponse(Response response, T result) {
+        RequestMaling maling = (RequestMaling) response.getRequest().getAttributes().get(MALING_ATTRIBUTE);
         return DokumentlagerResponse.<T>builder()
                 .result(result)
                 .httpStatus(response.getStatus())
-                .httpHeaders(response.getHeaders().stream().collect(Collectors.toMap(HttpField::getName, HttpField::getValue, (prev, next) -> next, HashMap::new)))
+                .httpHeaders(toHeaderMap(response))
+                .tidsbruk(maling == null ? null : maling.tidsbruk())
                 .build();
     }
 
-    private Request newUploadRequest() {
-        return newRequest(uploadbaseUrl);
+    private static Map<String, String> toHeaderMap(Response response) {
+        return response.getHeaders().stream().collect(Collectors.toMap(HttpField::getName, HttpField::getValue, (prev, next) -> next, HashMap::new));
+    }
+
+    private Request newUploadRequest(DokumentlagerMetrics.Operation operation) {
+        return newRequest(uploadClient, uploadbaseUrl, uploadAdgangskontroll.get(begrensning(operation)), operation);
     }
 
-    private Request newDownloadRequest() {
-        return newRequest(downloadBaseUrl);
+    private Request newDownloadRequest(DokumentlagerMetrics.Operation operation) {
+        return newRequest(downloadClient, downloadBaseUrl, downloadAdgangskontroll.get(begrensning(operation)), operation);
     }
 
-    private Request newRequest(String baseUrl) {
+    /**
+     * Operasjonstypen som deler begrensning av samtidige kall med operasjonen.
+     */
+    private static Operation begrensning(DokumentlagerMetrics.Operation operation) {
+        return switch (operation) {
+            case UPLOAD -> Operation.UPLOAD;
+            case DOWNLOAD -> Operation.DOWNLOAD;
+            case SEARCH -> Operation.SEARCH;
+            case UPDATE_METADATA, DELETE, DELETE_BY_KORRELASJONSID, DOWNLOAD_METADATA, PUBLIC_KEY -> Operation.METADATA;
+        };
+    }
+
+    private Request newRequest(HttpClient client, String baseUrl, Adgangskontroll adgangskontroll, DokumentlagerMetrics.Operation operation) {
         Request request = client.newRequest(baseUrl);
 
-        authenticationStrategy.setAuthenticationHeaders(request);
+        if (adgangskontroll != null) {
+            request.attribute(ADGANGSKONTROLL_ATTRIBUTE, adgangskontroll);
+        }
+        if (metrics != null || tidsbruk) {
+            request.attribute(MALING_ATTRIBUTE, RequestMaling.registrer(request, metrics, operation));
+        }
+        CompletableFuture<Void> autentisering = authenticationStrategy.setAuthenticationHeadersAsync(request).toCompletableFuture();
+        if (autentisering.isDone()) {
+            join(autentisering);
+        } else {
+            request.attribute(AUTENTISERING_ATTRIBUTE, autentisering);
+        }
+        return request;
+    }
 
+    private Request intercept(Request request) {
         if (requestInterceptor != null) {
             return requestInterceptor.apply(request);
         }
         return request;
     }
 
+    /**
+     * Venter på autentisering som ikke var fullført da requesten ble bygget, kjører interceptoren og sjekker circuit
+     * breaker og begrensning av samtidige kall rett før requesten sendes. Requesten som returneres er den som skal sendes.
+     */
+    @SuppressWarnings("unchecked")
+    private Request klargjor(Request request) {
+        CompletableFuture<Void> autentisering = (CompletableFuture<Void>) request.getAttributes().get(AUTENTISERING_ATTRIBUTE);
+        long start = System.nanoTime();
+        if (autentisering != null) {
+            join(autentisering);
+        }
+        Request klar = intercept(request);
+        Adgangskontroll adgangskontroll = (Adgangskontroll) klar.getAttributes().get(ADGANGSKONTROLL_ATTRIBUTE);
+        if (adgangskontroll != null) {
+            adgangskontroll.slippInn(klar);
+        }
+        if (autentisering != null || adgangskontroll != null) {
+            registrerVentetid(klar, start);
+        }
+        return klar;
+    }
+
+    /**
+     * Som {@link #klargjor(Request)}, uten å blokkere tråden.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Request> klargjorAsync(Request request) {
+        CompletableFuture<Void> autentisering = (CompletableFuture<Void>) request.getAttributes().get(AUTENTISERING_ATTRIBUTE);
+        long start = System.nanoTime();
+        CompletableFuture<Void> autentisert = autentisering == null ? CompletableFuture.completedFuture(null) : autentisering;
+        return autentisert.thenCompose(ignored -> {
+            Request klar = intercept(request);
+            Adgangskontroll adgangskontroll = (Adgangskontroll) klar.getAttributes().get(ADGANGSKONTROLL_ATTRIBUTE);
+            if (adgangskontroll == null) {
+                if (autentisering != null) {
+                    registrerVentetid(klar, start);
+                }
+                return CompletableFuture.completedFuture(klar);
+            }
+            return adgangskontroll.slippInnAsync(klar).thenApply(sluppetInn -> {
+                registrerVentetid(klar, start);
+                return klar;
+            });
+        });
+    }
+
+    private static void registrerVentetid(Request request, long start) {
+        RequestMaling maling = (RequestMaling) request.getAttributes().get(MALING_ATTRIBUTE);
+        if (maling != null) {
+            maling.ventet(System.nanoTime() - start);
+        }
+    }
+
     private StringRequestContent createJsonBody(Object body) {
-        return new StringRequestContent("application/json", mapper.toJson(body), StandardCharsets.UTF_8);
+        return new StringRequestContent(MIME_TYPE_JSON, mapper.toJson(body), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Åpner {@link ConnectionConfiguration#getWarmUpConnections()} tilkoblinger mot upload- og download-url, inkludert
+     * DNS-oppslag og TLS-handshake, og initialiserer JSON-mapping for modellklassene.
+     */
+    @Override
+    public WarmUpResult warmUp() {
+        log.debug("Warming up connections to {} and {}", uploadbaseUrl, downloadBaseUrl);
+        WarmUp warmUp = new WarmUp()
+                .fase("upload-tilkoblinger", () -> preCreateConnections(uploadClient, uploadbaseUrl, httpConfiguration.getUploadConnection()));
+        // Med delt klient mot samme base-url er tilkoblingene allerede opprettet
+        if (downloadClient != uploadClient || !downloadBaseUrl.equals(uploadbaseUrl)) {
+            warmUp.fase("download-tilkoblinger", () -> preCreateConnections(downloadClient, downloadBaseUrl, httpConfiguration.getDownloadConnection()));
+        }
+        return warmUp
+                .fase("json", () -> mapper.warmUp(
+                        DokumentMetadataUpload.class,
+                        DokumentMetadataUpdate.class,
+                        Korrelasjonsid.class,
+                        DokumentMetadataUploadResult.class,
+                        DokumentMetadataUpdateResult.class,
+                        DokumentMetadataDownloadResult.class,
+                        Sokeresultat.class,
+                        Soketreff.class))
+                .resultat();
+    }
+
+    private static void preCreateConnections(HttpClient client, String baseUrl, ConnectionConfiguration connectionConfiguration) {
+        try {
+            client.resolveDestination(client.newRequest(baseUrl))
+                    .getConnectionPool()
+                    .preCreateConnections(connectionConfiguration.getWarmUpConnections())
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * State for circuit breakeren mot upload-url, som også brukes til sletting, oppdatering, søk og public key.
+     */
+    public Optional<CircuitBreakerConfiguration.State> getUploadCircuitBreakerState() {
+        return Optional.ofNullable(uploadCircuitBreaker).map(CircuitBreaker::getState);
+    }
+
+    /**
+     * State for circuit breakeren mot download-url, som brukes til nedlasting og henting av metadata.
+     */
+    public Optional<CircuitBreakerConfiguration.State> getDownloadCircuitBreakerState() {
+        return Optional.ofNullable(downloadCircuitBreaker).map(CircuitBreaker::getState);
+    }
+
+    /**
+     * Statistikk for hedging, dersom det er konfigurert med {@link DokumentlagerApiImplBuilder#hedging(HedgingPolicy)}.
+     */
+    public Optional<HedgingStatistikk> getHedgingStatistikk() {
+        return Optional.ofNullable(hedgedRequests).map(HedgedRequests::statistikk);
+    }
+
+    /**
+     * Gjeldende grense og antall aktive og ventende kall for operasjonstypen, dersom begrensning er konfigurert med
+     * {@link DokumentlagerApiImplBuilder#concurrencyLimit(Operation, ConcurrencyLimitConfiguration)}.
+     */
+    public Optional<ConcurrencyLimitStatus> getConcurrencyLimitStatus(@NonNull Operation operation) {
+        return Optional.ofNullable(concurrencyLimiters.get(operation)).map(ConcurrencyLimiter::status);
     }
 
     @Override
     public void close() {
         try {
-            client.stop();
+            uploadClient.stop();
+            if (downloadClient != uploadClient) {
+                downloadClient.stop();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -383,10 +1036,18 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
 
         private String uploadBaseUrl;
         private String downloadBaseUrl;
-        private AuthenticationStrategy authenticationStrategy;
+        private AsyncAuthenticationStrategy authenticationStrategy;
         private PathHandler pathHandler;
         private Function<Request, Request> requestInterceptor;
         private HttpConfiguration httpConfiguration;
+        private boolean warmUp;
+        private RetryPolicy retryPolicy;
+        private SpoolingConfiguration uploadSpooling;
+        private CircuitBreakerConfiguration circuitBreaker;
+        private HedgingPolicy hedging;
+        private final Map<Operation, ConcurrencyLimitConfiguration> concurrencyLimits = new EnumMap<>(Operation.class);
+        private DokumentlagerMetrics metrics;
+        private boolean tidsbruk;
 
         public DokumentlagerApiImplBuilder uploadBaseUrl(String uploadBaseUrl) {
             this.uploadBaseUrl = uploadBaseUrl;
@@ -403,11 +1064,24 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
             return this;
         }
 
+        /**
+         * Autentisering som kan hente token uten å blokkere tråden som bygger requesten. Synkrone kall venter på
+         * autentiseringen før requesten sendes, mens asynkrone kall sendes når den er fullført.
+         */
+        public DokumentlagerApiImplBuilder authenticationStrategy(AsyncAuthenticationStrategy authenticationStrategy) {
+            this.authenticationStrategy = authenticationStrategy;
+            return this;
+        }
+
         public DokumentlagerApiImplBuilder pathHandler(PathHandler pathHandler) {
             this.pathHandler = pathHandler;
             return this;
         }
 
+        /**
+         * Kjøres på hver request rett før den sendes, etter at autentiseringsheadere, metode, path og body er satt.
+         * Requesten som returneres er den som sendes.
+         */
         public DokumentlagerApiImplBuilder requestInterceptor(Function<Request, Request> requestInterceptor) {
             this.requestInterceptor = requestInterceptor;
             return this;
@@ -418,6 +1092,92 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
             return this;
         }
 
+        /**
+         * Retry av idempotente kall: henting av metadata, nedlasting, sletting, søk og henting av public key.
+         * Oppdatering av metadata prøves aldri på nytt, og opplasting kun med {@link #uploadSpooling(SpoolingConfiguration)}.
+         * Default er ingen retry.
+         */
+        public DokumentlagerApiImplBuilder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Mellomlagrer opplastinger fra InputStream, og krypterte opplastinger, slik at de kan prøves på nytt etter
+         * {@link #retryPolicy(RetryPolicy)}. Opplastinger fra fil leses på nytt fra filen. Opplastinger prøves kun på nytt når serveren har svart med en status som
+         * kan prøves igjen, eller tilkobling feilet, siden dokumentet ellers kan bli lagret to ganger.
+         */
+        public DokumentlagerApiImplBuilder uploadSpooling(SpoolingConfiguration uploadSpooling) {
+            this.uploadSpooling = uploadSpooling;
+            return this;
+        }
+
+        /**
+         * Circuit breaker for upload- og download-url hver for seg, slik at kall feiler umiddelbart med
+         * {@link no.ks.fiks.dokumentlager.klient.exception.CircuitBreakerOpenException} når Dokumentlager er utilgjengelig.
+         * Default er ingen circuit breaker.
+         */
+        public DokumentlagerApiImplBuilder circuitBreaker(CircuitBreakerConfiguration circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Hedging av henting av metadata og public key, der en ekstra request sendes dersom svaret er tregere enn
+         * vanlig. Default er ingen hedging.
+         */
+        public DokumentlagerApiImplBuilder hedging(HedgingPolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Adaptiv begrensning av antall samtidige kall, med egen grense for hver operasjonstype. Kall over grensen
+         * venter i kø, og feiler med {@link no.ks.fiks.dokumentlager.klient.exception.ConcurrencyLimitExceededException}
+         * når køen er full eller ventetiden er brukt opp. Default er ingen begrensning.
+         */
+        public DokumentlagerApiImplBuilder concurrencyLimit(ConcurrencyLimitConfiguration concurrencyLimit) {
+            for (Operation operation : Operation.values()) {
+                concurrencyLimit(operation, concurrencyLimit);
+            }
+            return this;
+        }
+
+        public DokumentlagerApiImplBuilder concurrencyLimit(@NonNull Operation operation, ConcurrencyLimitConfiguration concurrencyLimit) {
+            if (concurrencyLimit == null) {
+                concurrencyLimits.remove(operation);
+            } else {
+                concurrencyLimits.put(operation, concurrencyLimit);
+            }
+            return this;
+        }
+
+        /**
+         * Mottar målinger av responstid, statuskoder, antall bytes, ventetid og tidsbruk per fase for hver request.
+         * Default er ingen målinger.
+         */
+        public DokumentlagerApiImplBuilder metrics(DokumentlagerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Gjør tidsbruk per fase tilgjengelig på responsen uten {@link #metrics(DokumentlagerMetrics)}. Med metrics
+         * måles tidsbruken uansett. Default er av, slik at requester ikke får ekstra lyttere.
+         */
+        public DokumentlagerApiImplBuilder tidsbruk(boolean tidsbruk) {
+            this.tidsbruk = tidsbruk;
+            return this;
+        }
+
+        /**
+         * Kjør {@link DokumentlagerApiImpl#warmUp()} i {@link #build()}, slik at første requester slipper å vente på tilkobling.
+         */
+        public DokumentlagerApiImplBuilder warmUp(boolean warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
         public DokumentlagerApiImpl build() {
             if (pathHandler == null) {
                 pathHandler = new DefaultPathHandler();
@@ -425,7 +1185,14 @@ public class DokumentlagerApiImpl implements DokumentlagerApi {
             if (httpConfiguration == null) {
                 httpConfiguration = HttpConfiguration.builder().build();
             }
-            return new DokumentlagerApiImpl(uploadBaseUrl, downloadBaseUrl, authenticationStrategy, requestInterceptor, pathHandler, httpConfiguration);
+            if (retryPolicy == null) {
+                retryPolicy = RetryPolicy.none();
+            }
+            DokumentlagerApiImpl api = new DokumentlagerApiImpl(uploadBaseUrl, downloadBaseUrl, authenticationStrategy, requestInterceptor, pathHandler, httpConfiguration, retryPolicy, uploadSpooling, circuitBreaker, hedging, concurrencyLimits, metrics, tidsbruk);
+            if (warmUp) {
+                api.warmUp();
+            }
+            return api;
         }
 
     }
@@ -3,45 +3,93 @@ package no.ks.fiks.dokumentlager.klient;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import no.ks.fiks.dokumentlager.klient.exception.DokumentTooLargeException;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerHttpException;
 import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerIOException;
 import no.ks.fiks.dokumentlager.klient.exception.EmptyDokumentException;
+import no.ks.fiks.dokumentlager.klient.metrics.DokumentlagerMetrics;
 import no.ks.fiks.dokumentlager.klient.model.*;
 import no.ks.kryptering.CMSKrypteringImpl;
 import no.ks.kryptering.CMSStreamKryptering;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
-import org.jetbrains.annotations.NotNull;
-import org.slf4j.MDC;
+import org.eclipse.jetty.client.PathRequestContent;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
 
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.Security;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
 @SuppressWarnings("WeakerAccess")
 public class DokumentlagerKlient implements Closeable {
 
     private static final int END_OF_STREAM = -1;
+    private static final String MIME_TYPE_OCTET_STREAM = "application/octet-stream";
+    private static final int DEFAULT_PREFETCH_SIDER = 1;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int KORRELASJONSID_SOK_SIDE_STORRELSE = 100;
+    private static final JsonMapper JSON_MAPPER = new JsonMapper();
     private final Provider provider = Security.getProvider("BC");
-    private X509Certificate publicCertificate = null;
 
     private final DokumentlagerApi api;
+    private final AsyncDokumentlagerApi asyncApi;
     private final ExecutorService executor;
     private final CMSStreamKryptering kryptering;
+    private final PublicKeyCache publicKeyCache;
+    private final ByteBufferPool bufferPool = new ArrayByteBufferPool();
+    private final DokumentCache dokumentCache;
+    private final MetadataCache metadataCache;
+    private final DokumentlagerMetrics metrics;
 
     private DokumentlagerKlient(@NonNull DokumentlagerApi dokumentlagerApi,
                                 @NonNull ExecutorService executor,
-                                @NonNull CMSStreamKryptering kryptering) {
+                                @NonNull CMSStreamKryptering kryptering,
+                                @NonNull Duration publicKeyTtl,
+                                DokumentCache dokumentCache,
+                                Duration metadataCacheTtl,
+                                int metadataCacheMaksAntall,
+                                DokumentlagerMetrics metrics) {
         this.api = dokumentlagerApi;
+        this.asyncApi = dokumentlagerApi instanceof AsyncDokumentlagerApi async ? async : new AsyncDokumentlagerApiAdapter(dokumentlagerApi, executor);
         this.executor = executor;
         this.kryptering = kryptering;
+        this.publicKeyCache = new PublicKeyCache(this::hentPublicCertificate, publicKeyTtl);
+        this.dokumentCache = dokumentCache;
+        this.metadataCache = metadataCacheTtl == null ? null : new MetadataCache(this::hentMetadata, metadataCacheTtl, metadataCacheMaksAntall);
+        this.metrics = metrics;
     }
 
     public static DokumentlagerKlientBuilder builder() {
@@ -81,6 +129,133 @@ public class DokumentlagerKlient implements Closeable {
             boolean skalKrypteres,
             long maksStorrelse
     ) {
+        BoundedInputStream boundedStream = lagDokumentStream(dokumentStream, maksStorrelse);
+        if (skalKrypteres(metadata, skalKrypteres)) {
+            return uploadKryptert(boundedStream, metadata, fiksOrganisasjonId, kontoId);
+        } else {
+            return uploadUkryptert(boundedStream, metadata, fiksOrganisasjonId, kontoId);
+        }
+    }
+
+    public DokumentlagerResponse<DokumentMetadataUploadResult> upload(@NonNull Path dokument,
+                                                                      @NonNull DokumentMetadataUpload metadata,
+                                                                      @NonNull UUID fiksOrganisasjonId,
+                                                                      @NonNull UUID kontoId) {
+        return upload(dokument, metadata, fiksOrganisasjonId, kontoId, false, 0L);
+    }
+
+    /**
+     * Laster opp en fil fra disk. Ukrypterte filer leses fra filen mens de sendes, og requesten får kjent
+     * Content-Length. maksStorrelse sjekkes mot filstørrelsen før opplastingen starter.
+     */
+    public DokumentlagerResponse<DokumentMetadataUploadResult> upload(
+            @NonNull Path dokument,
+            @NonNull DokumentMetadataUpload metadata,
+            @NonNull UUID fiksOrganisasjonId,
+            @NonNull UUID kontoId,
+            boolean skalKrypteres,
+            long maksStorrelse
+    ) {
+        try {
+            long storrelse = Files.size(dokument);
+            if (storrelse == 0) {
+                throw new EmptyDokumentException();
+            }
+            if (maksStorrelse > 0 && storrelse > maksStorrelse) {
+                throw new DokumentTooLargeException("Exceeded configured input limit of " + maksStorrelse + " bytes");
+            }
+
+            if (skalKrypteres(metadata, skalKrypteres)) {
+                try (InputStream dokumentStream = Files.newInputStream(dokument)) {
+                    return uploadKryptert(dokumentStream, metadata, fiksOrganisasjonId, kontoId);
+                }
+            }
+
+            PathRequestContent dokumentContent = new PathRequestContent(MIME_TYPE_OCTET_STREAM, dokument, bufferPool);
+            dokumentContent.setBufferSize(KrypteringRequestContent.BUFFER_SIZE);
+            dokumentContent.setUseDirectByteBuffers(true);
+            DokumentlagerResponse<DokumentMetadataUploadResult> response = api.uploadDokument(dokumentContent, metadata, fiksOrganisasjonId, kontoId, false);
+            log.debug("Unencrypted upload from file completed");
+            return response;
+        } catch (IOException e) {
+            throw new DokumentlagerIOException(e.getMessage(), e);
+        }
+    }
+
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadAsync(@NonNull InputStream dokumentStream,
+                                                                                             @NonNull DokumentMetadataUpload metadata,
+                                                                                             @NonNull UUID fiksOrganisasjonId,
+                                                                                             @NonNull UUID kontoId,
+                                                                                             boolean skalKrypteres) {
+        return uploadAsync(dokumentStream, metadata, fiksOrganisasjonId, kontoId, skalKrypteres, 0L);
+    }
+
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadAsync(
+            @NonNull InputStream dokumentStream,
+            @NonNull DokumentMetadataUpload metadata,
+            @NonNull UUID fiksOrganisasjonId,
+            @NonNull UUID kontoId,
+            boolean skalKrypteres,
+            long maksStorrelse
+    ) {
+        BoundedInputStream boundedStream = lagDokumentStream(dokumentStream, maksStorrelse);
+        if (skalKrypteres(metadata, skalKrypteres)) {
+            return uploadKryptertAsync(boundedStream, metadata, fiksOrganisasjonId, kontoId);
+        } else {
+            return asyncApi.uploadDokumentAsync(boundedStream, metadata, fiksOrganisasjonId, kontoId, false);
+        }
+    }
+
+    /**
+     * Laster opp alle jobbene med maks {@link BulkOptions#getParallelism()} opplastinger i gang samtidig. Jobbene hentes
+     * fra {@code jobs} etter hvert som det blir ledig kapasitet, og resultatet for hver jobb sendes til
+     * {@link BulkOptions#getResultHandler()}. Metoden returnerer når alle opplastingene er ferdige.
+     */
+    public BulkUploadSummary uploadAll(@NonNull Iterable<UploadJob> jobs, @NonNull BulkOptions options) {
+        long start = System.nanoTime();
+        LongAdder antallOk = new LongAdder();
+        LongAdder antallFeilet = new LongAdder();
+        LongAdder ukryptertStorrelse = new LongAdder();
+
+        BulkRunner.run(jobs, options.getParallelism(), this::startUploadJob, (job, result) -> {
+            if (result.failure() == null) {
+                antallOk.increment();
+                Optional.ofNullable(result.value().getResult())
+                        .map(DokumentMetadataUploadResult::getUkryptertStorrelse)
+                        .ifPresent(ukryptertStorrelse::add);
+            } else {
+                log.debug("Upload of {} failed", job.getMetadata(), result.failure());
+                antallFeilet.increment();
+            }
+            options.getResultHandler().accept(new UploadJobResult(job, result.value(), result.failure()));
+        });
+
+        BulkUploadSummary summary = new BulkUploadSummary(antallOk.sum(), antallFeilet.sum(), ukryptertStorrelse.sum(), Duration.ofNanos(System.nanoTime() - start));
+        log.info("Bulk upload completed: {} ok, {} failed, {} bytes in {} ms ({} dokumenter/s, {} bytes/s)",
+                summary.getAntallOk(), summary.getAntallFeilet(), summary.getUkryptertStorrelse(), summary.getVarighet().toMillis(),
+                String.format("%.1f", summary.getDokumenterPerSekund()), String.format("%.0f", summary.getBytesPerSekund()));
+        return summary;
+    }
+
+    private CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> startUploadJob(UploadJob job) {
+        InputStream dokumentStream;
+        try {
+            dokumentStream = job.getDokumentStream().call();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new DokumentlagerIOException("Failed to open dokument for " + job.getMetadata(), e));
+        }
+
+        CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> upload;
+        if (api instanceof AsyncDokumentlagerApi) {
+            upload = CompletableFuture.completedFuture(null)
+                    .thenCompose(ignored -> uploadAsync(dokumentStream, job.getMetadata(), job.getFiksOrganisasjonId(), job.getKontoId(), job.isSkalKrypteres(), job.getMaksStorrelse()));
+        } else {
+            upload = CompletableFuture.supplyAsync(() -> upload(dokumentStream, job.getMetadata(), job.getFiksOrganisasjonId(), job.getKontoId(), job.isSkalKrypteres(), job.getMaksStorrelse()), executor);
+        }
+        return upload.whenComplete((response, e) -> IOUtils.closeQuietly(dokumentStream));
+    }
+
+    private BoundedInputStream lagDokumentStream(InputStream dokumentStream, long maksStorrelse) {
         try {
             // Not closing this, as closing the incoming stream might cause problems if it is reused, for example when reading a ZIP with multiple files using ZipArchiveInputStream
             PushbackInputStream pushbackInputStream = new PushbackInputStream(dokumentStream);
@@ -90,22 +265,20 @@ public class DokumentlagerKlient implements Closeable {
             }
             pushbackInputStream.unread(firstByte);
 
-            if (metadata.getSikkerhetsniva() != null && metadata.getSikkerhetsniva() > 3 && !skalKrypteres) {
-                log.info("Dokument will be encrypted as sikkerhetsnivå is greater than 3");
-                skalKrypteres = true;
-            }
-            BoundedInputStream boundedStream = lagBoundedInputStream(pushbackInputStream, maksStorrelse);
-
-            if (skalKrypteres) {
-                return uploadKryptert(boundedStream, metadata, fiksOrganisasjonId, kontoId);
-            } else {
-                return uploadUkryptert(boundedStream, metadata, fiksOrganisasjonId, kontoId);
-            }
+            return lagBoundedInputStream(pushbackInputStream, maksStorrelse);
         } catch (IOException e) {
             throw new DokumentlagerIOException(e.getMessage(), e);
         }
     }
 
+    private static boolean skalKrypteres(DokumentMetadataUpload metadata, boolean skalKrypteres) {
+        if (metadata.getSikkerhetsniva() != null && metadata.getSikkerhetsniva() > 3 && !skalKrypteres) {
+            log.info("Dokument will be encrypted as sikkerhetsnivå is greater than 3");
+            return true;
+        }
+        return skalKrypteres;
+    }
+
     private DokumentlagerResponse<DokumentMetadataUploadResult> uploadUkryptert(
             InputStream inputStream,
             DokumentMetadataUpload metadata,
@@ -124,72 +297,132 @@ public class DokumentlagerKlient implements Closeable {
             UUID fiksOrganisasjonId,
             UUID kontoId
     ) {
-        Future<?> krypteringFuture = null;
-        try (DokumentlagerPipedInputStream kryptertInputStream = new DokumentlagerPipedInputStream();
-             PipedOutputStream kryptertOutputStream = new PipedOutputStream(kryptertInputStream)) {
-
-            if (publicCertificate == null) {
-                publicCertificate = getPublicKeyAsX509Certificate().getResult();
-            }
-
-            krypteringFuture = executor.submit(() -> krypter(inputStream, kryptertInputStream, kryptertOutputStream, MDC.getCopyOfContextMap()));
-
-            DokumentlagerResponse<DokumentMetadataUploadResult> response = api.uploadDokument(kryptertInputStream, metadata, fiksOrganisasjonId, kontoId, true);
+        try (KrypteringRequestContent kryptertContent = lagKrypteringContent(inputStream, publicKeyCache.get().getResult())) {
+            DokumentlagerResponse<DokumentMetadataUploadResult> response = api.uploadDokument(kryptertContent, metadata, fiksOrganisasjonId, kontoId, true);
             log.debug("Encrypted upload completed");
-
-            log.debug("Waiting for encryption thread to terminate...");
-            krypteringFuture.get(10, TimeUnit.SECONDS);
-            log.debug("Encryption thread terminated");
-
             return response;
         } catch (IOException e) {
             throw new DokumentlagerIOException(e.getMessage(), e);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            log.warn("Upload failed", e);
-            throw new RuntimeException(e);
-        } finally {
-            avbrytKrypteringFuture(krypteringFuture);
         }
     }
 
-    private static void avbrytKrypteringFuture(Future<?> krypteringFuture) {
-        if (krypteringFuture != null && !krypteringFuture.isDone()) {
-            log.debug("Cancelling encryption future");
-            boolean cancelled = krypteringFuture.cancel(true);
-            log.info("Encryption future cancelled, result: {}", cancelled);
-        }
+    private CompletableFuture<DokumentlagerResponse<DokumentMetadataUploadResult>> uploadKryptertAsync(
+            InputStream inputStream,
+            DokumentMetadataUpload metadata,
+            UUID fiksOrganisasjonId,
+            UUID kontoId
+    ) {
+        return publicKeyCache.getAsync().thenCompose(publicKey -> {
+            KrypteringRequestContent kryptertContent = lagKrypteringContent(inputStream, publicKey.getResult());
+            return asyncApi.uploadDokumentAsync(kryptertContent, metadata, fiksOrganisasjonId, kontoId, true)
+                    .whenComplete((response, e) -> {
+                        log.debug("Encrypted async upload completed");
+                        IOUtils.closeQuietly(kryptertContent);
+                    });
+        });
     }
 
-    private void krypter(@NotNull InputStream dokumentStream, DokumentlagerPipedInputStream pipedInputStream, PipedOutputStream pipedOutputStream, Map<String, String> contextMap) {
-        Optional.ofNullable(contextMap).ifPresent(MDC::setContextMap);
+    private KrypteringRequestContent lagKrypteringContent(InputStream inputStream, X509Certificate sertifikat) {
+        return new KrypteringRequestContent(inputStream, kryptering, sertifikat, provider, bufferPool, metrics);
+    }
+
+    public DokumentlagerResponse<DokumentMetadataUpdateResult> updateMetadata(
+            @NonNull UUID fiksOrganisasjonId,
+            @NonNull UUID kontoId,
+            @NonNull UUID dokumentId,
+            @NonNull DokumentMetadataUpdate metadata
+    ) {
         try {
-            log.debug("Starting encryption...");
-            kryptering.krypterData(pipedOutputStream, dokumentStream, publicCertificate, provider);
-            log.info("Encryption completed...");
-        } catch (Exception e) {
-            log.warn("Encryption failed, setting exception on encrypted InputStream", e);
-            pipedInputStream.setException(e);
+            return api.updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, metadata);
         } finally {
-            try {
-                log.debug("Closing encryption OutputStream");
-                pipedOutputStream.close();
-                log.debug("Encryption OutputStream closed");
-            } catch (IOException e) {
-                log.warn("Failed closing encryption OutputStream", e);
-                throw new RuntimeException(e);
-            } finally {
-                MDC.clear();
-            }
+            invaliderMetadata(dokumentId);
         }
     }
 
-    public DokumentlagerResponse<DokumentMetadataUpdateResult> updateMetadata(
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> updateMetadataAsync(
             @NonNull UUID fiksOrganisasjonId,
             @NonNull UUID kontoId,
             @NonNull UUID dokumentId,
             @NonNull DokumentMetadataUpdate metadata
     ) {
-        return api.updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, metadata);
+        return asyncApi.updateDokumentMetadataAsync(fiksOrganisasjonId, kontoId, dokumentId, metadata)
+                .whenComplete((response, e) -> invaliderMetadata(dokumentId));
+    }
+
+    /**
+     * Oppdaterer metadata for alle dokumentene med samme oppdatering, med maks parallelism oppdateringer i gang
+     * samtidig. Oppdateringen serialiseres kun én gang, og resultatet for hvert dokument sendes til resultHandler
+     * etter hvert som det er ferdig.
+     */
+    public BulkMetadataUpdateSummary updateMetadataAll(@NonNull UUID fiksOrganisasjonId,
+                                                       @NonNull UUID kontoId,
+                                                       @NonNull Collection<UUID> dokumentIder,
+                                                       @NonNull DokumentMetadataUpdate metadata,
+                                                       int parallelism,
+                                                       @NonNull Consumer<MetadataUpdateJobResult> resultHandler) {
+        byte[] metadataJson = JSON_MAPPER.toJsonBytes(metadata);
+        return updateMetadataAll(fiksOrganisasjonId, kontoId, () -> dokumentIder.stream().map(id -> Map.entry(id, metadata)).iterator(), metadataJson, parallelism, resultHandler);
+    }
+
+    /**
+     * Oppdaterer metadata for alle dokumentene i oppdateringer, med maks parallelism oppdateringer i gang samtidig.
+     * Resultatet for hvert dokument sendes til resultHandler etter hvert som det er ferdig.
+     */
+    public BulkMetadataUpdateSummary updateMetadataAll(@NonNull UUID fiksOrganisasjonId,
+                                                       @NonNull UUID kontoId,
+                                                       @NonNull Map<UUID, DokumentMetadataUpdate> oppdateringer,
+                                                       int parallelism,
+                                                       @NonNull Consumer<MetadataUpdateJobResult> resultHandler) {
+        return updateMetadataAll(fiksOrganisasjonId, kontoId, oppdateringer.entrySet(), null, parallelism, resultHandler);
+    }
+
+    private BulkMetadataUpdateSummary updateMetadataAll(UUID fiksOrganisasjonId,
+                                                        UUID kontoId,
+                                                        Iterable<Map.Entry<UUID, DokumentMetadataUpdate>> oppdateringer,
+                                                        byte[] fellesMetadataJson,
+                                                        int parallelism,
+                                                        Consumer<MetadataUpdateJobResult> resultHandler) {
+        long start = System.nanoTime();
+        LongAdder antallOk = new LongAdder();
+        LongAdder antallFeilet = new LongAdder();
+
+        BulkRunner.run(oppdateringer, parallelism, oppdatering -> startUpdateMetadata(fiksOrganisasjonId, kontoId, oppdatering.getKey(), oppdatering.getValue(), fellesMetadataJson), (oppdatering, result) -> {
+            if (result.failure() == null) {
+                antallOk.increment();
+            } else {
+                log.debug("Metadata update of dokument {} failed", oppdatering.getKey(), result.failure());
+                antallFeilet.increment();
+            }
+            resultHandler.accept(new MetadataUpdateJobResult(oppdatering.getKey(), result.value(), result.failure()));
+        });
+
+        BulkMetadataUpdateSummary summary = new BulkMetadataUpdateSummary(antallOk.sum(), antallFeilet.sum(), Duration.ofNanos(System.nanoTime() - start));
+        log.info("Bulk metadata update completed: {} ok, {} failed in {} ms", summary.getAntallOk(), summary.getAntallFeilet(), summary.getVarighet().toMillis());
+        return summary;
+    }
+
+    private CompletableFuture<DokumentlagerResponse<DokumentMetadataUpdateResult>> startUpdateMetadata(UUID fiksOrganisasjonId,
+                                                                                                      UUID kontoId,
+                                                                                                      UUID dokumentId,
+                                                                                                      DokumentMetadataUpdate metadata,
+                                                                                                      byte[] metadataJson) {
+        if (metadataJson == null) {
+            if (api instanceof AsyncDokumentlagerApi) {
+                return updateMetadataAsync(fiksOrganisasjonId, kontoId, dokumentId, metadata);
+            }
+            return CompletableFuture.supplyAsync(() -> updateMetadata(fiksOrganisasjonId, kontoId, dokumentId, metadata), executor);
+        }
+        if (api instanceof AsyncDokumentlagerApi) {
+            return asyncApi.updateDokumentMetadataAsync(fiksOrganisasjonId, kontoId, dokumentId, metadata, metadataJson)
+                    .whenComplete((response, e) -> invaliderMetadata(dokumentId));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return api.updateDokumentMetadata(fiksOrganisasjonId, kontoId, dokumentId, metadata, metadataJson);
+            } finally {
+                invaliderMetadata(dokumentId);
+            }
+        }, executor);
     }
 
     public DokumentlagerResponse<Void> delete(
@@ -197,7 +430,20 @@ public class DokumentlagerKlient implements Closeable {
             @NonNull UUID kontoId,
             @NonNull UUID dokumentId
     ) {
-        return api.deleteDokument(fiksOrganisasjonId, kontoId, dokumentId);
+        try {
+            return api.deleteDokument(fiksOrganisasjonId, kontoId, dokumentId);
+        } finally {
+            invaliderCache(dokumentId);
+        }
+    }
+
+    public CompletableFuture<DokumentlagerResponse<Void>> deleteAsync(
+            @NonNull UUID fiksOrganisasjonId,
+            @NonNull UUID kontoId,
+            @NonNull UUID dokumentId
+    ) {
+        return asyncApi.deleteDokumentAsync(fiksOrganisasjonId, kontoId, dokumentId)
+                .whenComplete((response, e) -> invaliderCache(dokumentId));
     }
 
     public DokumentlagerResponse<Void> deleteDokumenterByKorrelasjonsid(
@@ -205,17 +451,150 @@ public class DokumentlagerKlient implements Closeable {
             @NonNull UUID kontoId,
             @NonNull UUID korrelasjonsid
     ) {
-        return api.deleteDokumenterByKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid);
+        Set<UUID> dokumentIder = finnDokumenterForInvalidering(fiksOrganisasjonId, kontoId, korrelasjonsid).join();
+        try {
+            return api.deleteDokumenterByKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid);
+        } finally {
+            invaliderKorrelasjonsid(korrelasjonsid, dokumentIder);
+        }
+    }
+
+    public CompletableFuture<DokumentlagerResponse<Void>> deleteDokumenterByKorrelasjonsidAsync(
+            @NonNull UUID fiksOrganisasjonId,
+            @NonNull UUID kontoId,
+            @NonNull UUID korrelasjonsid
+    ) {
+        return finnDokumenterForInvalidering(fiksOrganisasjonId, kontoId, korrelasjonsid)
+                .thenCompose(dokumentIder -> asyncApi.deleteDokumenterByKorrelasjonsidAsync(fiksOrganisasjonId, kontoId, korrelasjonsid)
+                        .whenComplete((response, e) -> invaliderKorrelasjonsid(korrelasjonsid, dokumentIder)));
+    }
+
+    /**
+     * Sletter alle dokumentene med maks parallelism slettinger i gang samtidig. Dokumenter som ikke finnes telles for
+     * seg, og kun id-ene til dokumenter som ikke kunne slettes tas vare på i resultatet.
+     */
+    public BulkDeleteResult deleteAll(@NonNull UUID fiksOrganisasjonId,
+                                      @NonNull UUID kontoId,
+                                      @NonNull Collection<UUID> dokumentIder,
+                                      int parallelism) {
+        long start = System.nanoTime();
+        LongAdder antallSlettet = new LongAdder();
+        LongAdder antallIkkeFunnet = new LongAdder();
+        Queue<UUID> feiledeDokumentIder = new ConcurrentLinkedQueue<>();
+
+        BulkRunner.run(dokumentIder, parallelism, dokumentId -> startDelete(fiksOrganisasjonId, kontoId, dokumentId), (dokumentId, result) -> {
+            if (result.failure() == null) {
+                antallSlettet.increment();
+            } else if (result.failure() instanceof DokumentlagerHttpException e && e.getStatus() == HTTP_NOT_FOUND) {
+                antallIkkeFunnet.increment();
+            } else {
+                log.debug("Delete of dokument {} failed", dokumentId, result.failure());
+                feiledeDokumentIder.add(dokumentId);
+            }
+        });
+
+        BulkDeleteResult resultat = new BulkDeleteResult(antallSlettet.sum(), antallIkkeFunnet.sum(), new ArrayList<>(feiledeDokumentIder), Duration.ofNanos(System.nanoTime() - start));
+        log.info("Bulk delete completed: {} deleted, {} not found, {} failed in {} ms",
+                resultat.getAntallSlettet(), resultat.getAntallIkkeFunnet(), resultat.getAntallFeilet(), resultat.getVarighet().toMillis());
+        return resultat;
+    }
+
+    private CompletableFuture<DokumentlagerResponse<Void>> startDelete(UUID fiksOrganisasjonId, UUID kontoId, UUID dokumentId) {
+        if (api instanceof AsyncDokumentlagerApi) {
+            return deleteAsync(fiksOrganisasjonId, kontoId, dokumentId);
+        }
+        return CompletableFuture.supplyAsync(() -> delete(fiksOrganisasjonId, kontoId, dokumentId), executor);
+    }
+
+    private void invaliderCache(UUID dokumentId) {
+        if (dokumentCache != null) {
+            dokumentCache.invalider(dokumentId);
+        }
+        invaliderMetadata(dokumentId);
+    }
+
+    private void invaliderMetadata(UUID dokumentId) {
+        if (metadataCache != null) {
+            metadataCache.invalider(dokumentId);
+        }
+    }
+
+    /**
+     * Diskcachen vet ikke hvilke dokumenter som har en korrelasjonsid, så dokumentene søkes opp før de slettes slik at
+     * kun de invalideres. Feiler søket returneres null, og da invalideres hele diskcachen.
+     */
+    private CompletableFuture<Set<UUID>> finnDokumenterForInvalidering(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid) {
+        if (dokumentCache == null) {
+            return CompletableFuture.completedFuture(Set.of());
+        }
+        Set<UUID> dokumentIder = ConcurrentHashMap.newKeySet();
+        return finnDokumenter(fiksOrganisasjonId, kontoId, korrelasjonsid, 0, dokumentIder).handle((ignored, e) -> {
+            if (e != null) {
+                log.warn("Could not find dokumenter with korrelasjonsid {} before delete, invalidating the whole document cache", korrelasjonsid, e);
+                return null;
+            }
+            return dokumentIder;
+        });
+    }
+
+    private CompletableFuture<Void> finnDokumenter(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid, int fra, Set<UUID> dokumentIder) {
+        return hentSokeside(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, fra + KORRELASJONSID_SOK_SIDE_STORRELSE).thenCompose(side -> {
+            List<Soketreff> treff = dokumenter(side);
+            treff.forEach(dokument -> dokumentIder.add(dokument.getId()));
+            return treff.size() < KORRELASJONSID_SOK_SIDE_STORRELSE
+                    ? CompletableFuture.completedFuture(null)
+                    : finnDokumenter(fiksOrganisasjonId, kontoId, korrelasjonsid, fra + KORRELASJONSID_SOK_SIDE_STORRELSE, dokumentIder);
+        });
+    }
+
+    private void invaliderKorrelasjonsid(UUID korrelasjonsid, Set<UUID> dokumentIder) {
+        if (dokumentCache != null) {
+            if (dokumentIder == null) {
+                dokumentCache.invaliderAlle();
+            } else {
+                dokumentIder.forEach(dokumentCache::invalider);
+            }
+        }
+        if (metadataCache != null) {
+            metadataCache.invaliderKorrelasjonsid(korrelasjonsid);
+        }
     }
 
     public DokumentlagerResponse<String> getPublicKey() {
         return api.getPublicKey();
     }
 
+    public CompletableFuture<DokumentlagerResponse<String>> getPublicKeyAsync() {
+        return asyncApi.getPublicKeyAsync();
+    }
+
+    /**
+     * Sertifikatet hentes fra samme cache som brukes ved kryptering, se {@link DokumentlagerKlientBuilder#publicKeyTtl(Duration)}.
+     * Status og headere i responsen er de fra requesten som hentet sertifikatet til cachen.
+     */
     public DokumentlagerResponse<X509Certificate> getPublicKeyAsX509Certificate() {
-        DokumentlagerResponse<String> publicKeyResponse = getPublicKey();
-        String publicKey = publicKeyResponse.getResult();
+        return publicKeyCache.get();
+    }
+
+    private CompletableFuture<DokumentlagerResponse<X509Certificate>> hentPublicCertificate() {
+        if (api instanceof AsyncDokumentlagerApi) {
+            return asyncApi.getPublicKeyAsync().thenApply(DokumentlagerKlient::tilX509Response);
+        }
+        // Et synkront API hentes på kallende tråd. Via executoren kan hentingen bli stående i kø bak oppgaver som selv venter på sertifikatet.
+        return CompletableFuture.completedFuture(tilX509Response(api.getPublicKey()));
+    }
 
+    private static DokumentlagerResponse<X509Certificate> tilX509Response(DokumentlagerResponse<String> response) {
+        return DokumentlagerResponse.<X509Certificate>builder()
+                .result(tilX509Certificate(response.getResult()))
+                .httpStatus(response.getHttpStatus())
+                .httpHeaders(response.getHttpHeaders())
+                .antallForsok(response.getAntallForsok())
+                .tidsbruk(response.getTidsbruk().orElse(null))
+                .build();
+    }
+
+    private static X509Certificate tilX509Certificate(String publicKey) {
         try {
             CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
             Base64.Decoder base64 = Base64.getMimeDecoder();
@@ -224,29 +603,94 @@ public class DokumentlagerKlient implements Closeable {
                     publicKey.replace("-----BEGIN CERTIFICATE-----", "")
                             .replace("-----END CERTIFICATE-----", ""));
 
-            return DokumentlagerResponse.<X509Certificate>builder()
-                    .httpStatus(publicKeyResponse.getHttpStatus())
-                    .result((X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(buffer)))
-                    .build();
-
+            return (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(buffer));
         } catch (CertificateException e) {
             throw new RuntimeException(e);
         }
-
     }
 
     public DokumentlagerResponse<InputStream> download(@NonNull UUID dokumentId) {
+        if (dokumentCache != null) {
+            return dokumentCache.hent(dokumentId, fil -> api.downloadDokumentTo(dokumentId, fil));
+        }
         return api.downloadDokument(dokumentId);
     }
 
     public DokumentlagerResponse<InputStream> downloadLazy(@NonNull UUID dokumentId) {
+        if (dokumentCache != null) {
+            return new LazyDokumentlagerResponse(() -> download(dokumentId));
+        }
         return api.downloadDokumentLazy(dokumentId);
     }
 
+    /**
+     * Statistikk for diskcachen, dersom den er konfigurert med {@link DokumentlagerKlientBuilder#dokumentCache(Path, long)}.
+     */
+    public Optional<DokumentCacheStatistikk> getDokumentCacheStatistikk() {
+        return Optional.ofNullable(dokumentCache).map(DokumentCache::statistikk);
+    }
+
+    /**
+     * Laster ned og dekrypterer et dokument som er kryptert ved opplasting. Dekrypteringen skjer etter hvert som
+     * strømmen leses, så minnebruken er uavhengig av dokumentets størrelse. HTTP- og krypteringsfeil som oppstår
+     * underveis kastes ved lesing fra strømmen.
+     */
+    public DokumentlagerResponse<InputStream> downloadDekryptert(@NonNull UUID dokumentId, @NonNull PrivateKey privateKey) {
+        DokumentlagerResponse<InputStream> response = download(dokumentId);
+        InputStream kryptertStream = response.getResult();
+        try {
+            return response.toBuilder()
+                    .result(kryptering.dekrypterData(kryptertStream, privateKey, provider))
+                    .build();
+        } catch (RuntimeException e) {
+            IOUtils.closeQuietly(kryptertStream);
+            throw e;
+        }
+    }
+
+    /**
+     * Laster ned dokumentet direkte til en fil. Filen forhåndsallokeres når størrelsen er kjent, og slettes dersom nedlastingen feiler.
+     */
+    public DokumentlagerResponse<DokumentDownloadResult> downloadTo(@NonNull UUID dokumentId, @NonNull Path fil) {
+        return api.downloadDokumentTo(dokumentId, fil);
+    }
+
+    public DokumentlagerResponse<DokumentDownloadResult> downloadTo(@NonNull UUID dokumentId, @NonNull WritableByteChannel channel) {
+        return api.downloadDokumentTo(dokumentId, channel);
+    }
+
     public DokumentlagerResponse<DokumentMetadataDownloadResult> downloadMetadata(@NonNull UUID dokumentId) {
+        if (metadataCache != null) {
+            return metadataCache.get(dokumentId);
+        }
         return api.downloadDokumentMetadata(dokumentId);
     }
 
+    public CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> downloadMetadataAsync(@NonNull UUID dokumentId) {
+        if (metadataCache != null) {
+            return metadataCache.getAsync(dokumentId);
+        }
+        return asyncApi.downloadDokumentMetadataAsync(dokumentId);
+    }
+
+    /**
+     * Statistikk for metadatacachen, dersom den er konfigurert med {@link DokumentlagerKlientBuilder#metadataCache(Duration, int)}.
+     */
+    public Optional<MetadataCacheStatistikk> getMetadataCacheStatistikk() {
+        return Optional.ofNullable(metadataCache).map(MetadataCache::statistikk);
+    }
+
+    private CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> hentMetadata(UUID dokumentId) {
+        if (api instanceof AsyncDokumentlagerApi) {
+            return asyncApi.downloadDokumentMetadataAsync(dokumentId);
+        }
+        try {
+            return CompletableFuture.completedFuture(api.downloadDokumentMetadata(dokumentId));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     public DokumentlagerResponse<Sokeresultat> sokDokumenterMedKorrelasjonsid(UUID fiksOrganisasjonId,
                                                                               UUID kontoId,
                                                                               UUID korrelasjonsid,
@@ -255,6 +699,123 @@ public class DokumentlagerKlient implements Closeable {
         return api.sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til);
     }
 
+    /**
+     * Søk der treffene sendes til treffHandler etter hvert som de leses fra responsen, slik at minnebruken er
+     * uavhengig av sidestørrelsen. Returnerer totalt antall treff.
+     */
+    public DokumentlagerResponse<Integer> sokDokumenterMedKorrelasjonsid(@NonNull UUID fiksOrganisasjonId,
+                                                                         @NonNull UUID kontoId,
+                                                                         @NonNull UUID korrelasjonsid,
+                                                                         Integer fra,
+                                                                         Integer til,
+                                                                         @NonNull Consumer<Soketreff> treffHandler) {
+        return api.sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til, treffHandler);
+    }
+
+    public CompletableFuture<DokumentlagerResponse<Sokeresultat>> sokDokumenterMedKorrelasjonsidAsync(UUID fiksOrganisasjonId,
+                                                                                                     UUID kontoId,
+                                                                                                     UUID korrelasjonsid,
+                                                                                                     Integer fra,
+                                                                                                     Integer til) {
+        return asyncApi.sokDokumenterMedKorrelasjonsidAsync(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til);
+    }
+
+    public Stream<Soketreff> sokAlle(@NonNull UUID fiksOrganisasjonId,
+                                     @NonNull UUID kontoId,
+                                     @NonNull UUID korrelasjonsid,
+                                     int sideStorrelse) {
+        return sokAlle(fiksOrganisasjonId, kontoId, korrelasjonsid, sideStorrelse, DEFAULT_PREFETCH_SIDER);
+    }
+
+    /**
+     * Søker opp alle dokumenter med gitt korrelasjonsid, side for side med sideStorrelse treff per side. Neste sider
+     * hentes mens gjeldende side leses, med maksimalt prefetchSider sider i minnet i tillegg til siden som leses.
+     * Strømmen bør lukkes dersom den ikke leses helt, slik at pågående hentinger avbrytes.
+     */
+    public Stream<Soketreff> sokAlle(@NonNull UUID fiksOrganisasjonId,
+                                     @NonNull UUID kontoId,
+                                     @NonNull UUID korrelasjonsid,
+                                     int sideStorrelse,
+                                     int prefetchSider) {
+        SokIterator iterator = new SokIterator(
+                fra -> hentSokeside(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, fra + sideStorrelse),
+                sideStorrelse,
+                prefetchSider);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Søker opp alle dokumenter med gitt korrelasjonsid ved å hente første side for å finne totalt antall treff, og
+     * deretter hente resten av sidene parallelt med maksimalt parallelism samtidige kall. Treffene returneres i
+     * rekkefølge. Dersom antall treff endres underveis returneres det som ble hentet, markert som ikke komplett.
+     */
+    public SokAlleResultat sokAlleParallelt(@NonNull UUID fiksOrganisasjonId,
+                                           @NonNull UUID kontoId,
+                                           @NonNull UUID korrelasjonsid,
+                                           int sideStorrelse,
+                                           int parallelism) {
+        if (sideStorrelse <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        Sokeresultat forsteSide = api.sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, 0, sideStorrelse).getResult();
+        int totaltAntallTreff = antallTreff(forsteSide);
+        int antallSider = Math.max(1, (int) Math.ceil((double) totaltAntallTreff / sideStorrelse));
+
+        List<List<Soketreff>> sider = new ArrayList<>(Collections.nCopies(antallSider, null));
+        sider.set(0, dokumenter(forsteSide));
+        AtomicBoolean totaltEndret = new AtomicBoolean(false);
+        AtomicReference<Throwable> feil = new AtomicReference<>();
+        BulkRunner.run(() -> IntStream.range(1, antallSider).iterator(), parallelism,
+                side -> hentSokeside(fiksOrganisasjonId, kontoId, korrelasjonsid, side * sideStorrelse, (side + 1) * sideStorrelse),
+                (side, result) -> {
+                    if (result.failure() != null) {
+                        feil.compareAndSet(null, result.failure());
+                        return;
+                    }
+                    if (antallTreff(result.value()) != totaltAntallTreff) {
+                        totaltEndret.set(true);
+                    }
+                    sider.set(side, dokumenter(result.value()));
+                });
+        if (feil.get() != null) {
+            if (feil.get() instanceof RuntimeException e) {
+                throw e;
+            }
+            throw new RuntimeException(feil.get());
+        }
+
+        List<Soketreff> dokumenter = new ArrayList<>(totaltAntallTreff);
+        sider.forEach(dokumenter::addAll);
+        boolean komplett = !totaltEndret.get() && dokumenter.size() == totaltAntallTreff;
+        if (!komplett) {
+            log.warn("Number of documents with korrelasjonsid {} changed during search, returning partial result of {} of {} documents",
+                    korrelasjonsid, dokumenter.size(), totaltAntallTreff);
+        }
+        return new SokAlleResultat(dokumenter, totaltAntallTreff, komplett);
+    }
+
+    private static int antallTreff(Sokeresultat side) {
+        return side.getTotaltAntallTreff() == null ? 0 : side.getTotaltAntallTreff();
+    }
+
+    private static List<Soketreff> dokumenter(Sokeresultat side) {
+        return side.getDokumenter() == null ? Collections.emptyList() : side.getDokumenter();
+    }
+
+    private CompletableFuture<Sokeresultat> hentSokeside(UUID fiksOrganisasjonId, UUID kontoId, UUID korrelasjonsid, int fra, int til) {
+        return asyncApi.sokDokumenterMedKorrelasjonsidAsync(fiksOrganisasjonId, kontoId, korrelasjonsid, fra, til).thenApply(DokumentlagerResponse::getResult);
+    }
+
+    /**
+     * Varmer opp api-et, se {@link DokumentlagerApi#warmUp()}, og henter public key-sertifikatet til cachen.
+     */
+    public WarmUpResult warmUp() {
+        return new WarmUp(api.warmUp())
+                .fase("public-key", () -> publicKeyCache.get())
+                .resultat();
+    }
+
     @Override
     public void close() throws IOException {
         api.close();
@@ -274,10 +835,18 @@ public class DokumentlagerKlient implements Closeable {
     public static class DokumentlagerKlientBuilder {
 
         private static final int DEFAULT_THREAD_POOL_SIZE = 4;
+        private static final Duration DEFAULT_PUBLIC_KEY_TTL = Duration.ofHours(1);
 
         private DokumentlagerApi api;
         private CMSStreamKryptering kryptering;
         private ExecutorService executor;
+        private Duration publicKeyTtl;
+        private boolean prefetchPublicKey;
+        private Path dokumentCacheKatalog;
+        private long dokumentCacheMaksStorrelse;
+        private Duration metadataCacheTtl;
+        private int metadataCacheMaksAntall;
+        private DokumentlagerMetrics metrics;
 
         private DokumentlagerKlientBuilder() {
         }
@@ -297,6 +866,51 @@ public class DokumentlagerKlient implements Closeable {
             return this;
         }
 
+        /**
+         * Hvor lenge Dokumentlager sitt public key-sertifikat caches. Et nytt sertifikat hentes i bakgrunnen før det utløper.
+         */
+        public DokumentlagerKlientBuilder publicKeyTtl(Duration publicKeyTtl) {
+            this.publicKeyTtl = publicKeyTtl;
+            return this;
+        }
+
+        /**
+         * Start henting av public key-sertifikatet allerede i {@link #build()}, slik at første krypterte opplasting slipper å vente på det.
+         */
+        public DokumentlagerKlientBuilder prefetchPublicKey(boolean prefetchPublicKey) {
+            this.prefetchPublicKey = prefetchPublicKey;
+            return this;
+        }
+
+        /**
+         * Cache nedlastede dokumenter på disk i angitt katalog, begrenset til maksStorrelse bytes totalt.
+         * Katalogen bør være dedikert til cachen, da tidligere cachede filer slettes ved oppstart.
+         */
+        public DokumentlagerKlientBuilder dokumentCache(Path katalog, long maksStorrelse) {
+            this.dokumentCacheKatalog = katalog;
+            this.dokumentCacheMaksStorrelse = maksStorrelse;
+            return this;
+        }
+
+        /**
+         * Cache dokumentmetadata i minnet i ttl, for maksimalt maksAntall dokumenter. Cachen invalideres ved
+         * sletting og oppdatering av metadata gjennom klienten.
+         */
+        public DokumentlagerKlientBuilder metadataCache(Duration ttl, int maksAntall) {
+            this.metadataCacheTtl = ttl;
+            this.metadataCacheMaksAntall = maksAntall;
+            return this;
+        }
+
+        /**
+         * Mottar tiden brukt på kryptering ved opplasting. Målinger av requestene registreres på api-et, se
+         * {@link DokumentlagerApiImpl.DokumentlagerApiImplBuilder#metrics(DokumentlagerMetrics)}.
+         */
+        public DokumentlagerKlientBuilder metrics(DokumentlagerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public DokumentlagerKlient build() {
             if (kryptering == null) {
                 kryptering = new CMSKrypteringImpl();
@@ -304,7 +918,20 @@ public class DokumentlagerKlient implements Closeable {
             if (executor == null) {
                 executor = Executors.newFixedThreadPool(DEFAULT_THREAD_POOL_SIZE);
             }
-            return new DokumentlagerKlient(api, executor, kryptering);
+            if (publicKeyTtl == null) {
+                publicKeyTtl = DEFAULT_PUBLIC_KEY_TTL;
+            }
+            DokumentCache dokumentCache = dokumentCacheKatalog == null ? null : new DokumentCache(dokumentCacheKatalog, dokumentCacheMaksStorrelse);
+            DokumentlagerKlient klient = new DokumentlagerKlient(api, executor, kryptering, publicKeyTtl, dokumentCache, metadataCacheTtl, metadataCacheMaksAntall, metrics);
+            if (prefetchPublicKey) {
+                CompletableFuture.supplyAsync(() -> null, executor)
+                        .thenCompose(ignored -> klient.publicKeyCache.refresh())
+                        .exceptionally(e -> {
+                            log.warn("Prefetch of public key failed", e);
+                            return null;
+                        });
+            }
+            return klient;
         }
     }
 }
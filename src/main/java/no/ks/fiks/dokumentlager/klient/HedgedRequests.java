@@ -0,0 +1,151 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.model.HedgingStatistikk;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Utfører kall etter en {@link HedgingPolicy}. Forsinkelsen før en ekstra request sendes beregnes fra de siste
+ * responstidene, og oppdateres for hver hundrede responstid. Requesten som taper avbrytes.
+ */
+@Slf4j
+class HedgedRequests {
+
+    private static final int ANTALL_RESPONSTIDER = 1000;
+    private static final int OPPDATER_FORSINKELSE = 100;
+
+    /**
+     * Et startet forsøk, med resultatet og hvordan det avbrytes.
+     */
+    record Forsok<T>(CompletableFuture<T> resultat, Runnable avbryt) {}
+
+    /**
+     * Brukes til å avbryte requesten som tapte. Feilen skal ikke regnes som en feil i Dokumentlager.
+     */
+    static final class TaptHedgeException extends RuntimeException {
+        TaptHedgeException() {
+            super("Hedged request lost", null, false, false);
+        }
+    }
+
+    private final HedgingPolicy policy;
+    private final Executor executor;
+    private final long[] responstider = new long[ANTALL_RESPONSTIDER];
+    private int posisjon;
+    private int antallResponstider;
+    private volatile long forsinkelseNanos;
+
+    private final LongAdder antallKall = new LongAdder();
+    private final LongAdder antallHedget = new LongAdder();
+    private final LongAdder antallHedgeVant = new LongAdder();
+
+    /**
+     * @param executor starter den ekstra requesten, inkludert autentisering, når forsinkelsen er ute
+     */
+    HedgedRequests(HedgingPolicy policy, Executor executor) {
+        if (policy.getPercentile() <= 0 || policy.getPercentile() >= 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        this.policy = policy;
+        this.executor = executor;
+        this.forsinkelseNanos = policy.getInitialDelay().toNanos();
+    }
+
+    <T> CompletableFuture<T> utfor(Supplier<Forsok<T>> startForsok) {
+        antallKall.increment();
+        Kall<T> kall = new Kall<>();
+        kall.start(startForsok.get(), false);
+        CompletableFuture.delayedExecutor(forsinkelseNanos, TimeUnit.NANOSECONDS, executor).execute(() -> {
+            synchronized (kall) {
+                if (kall.resultat.isDone() || !tillatHedge()) {
+                    return;
+                }
+                Forsok<T> hedge;
+                try {
+                    hedge = startForsok.get();
+                } catch (RuntimeException e) {
+                    log.debug("Failed to start hedged request", e);
+                    return;
+                }
+                antallHedget.increment();
+                kall.start(hedge, true);
+            }
+        });
+        return kall.resultat;
+    }
+
+    /**
+     * Ett kall med opptil to forsøk. Første vellykkede svar brukes, og kallet feiler først når alle startede forsøk
+     * har feilet. En hedge startes ikke etter at første forsøk har feilet, det er retry sin oppgave.
+     */
+    private class Kall<T> {
+        private final CompletableFuture<T> resultat = new CompletableFuture<>();
+        private final List<Forsok<T>> forsok = new ArrayList<>(2);
+        private int antallAktive;
+
+        private synchronized void start(Forsok<T> nyttForsok, boolean hedge) {
+            forsok.add(nyttForsok);
+            antallAktive++;
+            long start = System.nanoTime();
+            nyttForsok.resultat().whenComplete((response, e) -> {
+                if (e == null) {
+                    registrerResponstid(System.nanoTime() - start);
+                    vellykket(nyttForsok, response, hedge);
+                } else {
+                    feilet(e);
+                }
+            });
+        }
+
+        private void vellykket(Forsok<T> vinner, T response, boolean hedge) {
+            List<Forsok<T>> tapere;
+            synchronized (this) {
+                if (!resultat.complete(response)) {
+                    return;
+                }
+                tapere = forsok.stream().filter(f -> f != vinner).toList();
+            }
+            if (hedge) {
+                antallHedgeVant.increment();
+            }
+            tapere.forEach(taper -> taper.avbryt().run());
+        }
+
+        private synchronized void feilet(Throwable e) {
+            if (--antallAktive == 0) {
+                resultat.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        }
+    }
+
+    private boolean tillatHedge() {
+        return antallHedget.sum() < policy.getMaxHedgeRate() * antallKall.sum();
+    }
+
+    private synchronized void registrerResponstid(long nanos) {
+        responstider[posisjon] = nanos;
+        posisjon = (posisjon + 1) % responstider.length;
+        antallResponstider++;
+        if (antallResponstider == policy.getMinSamples()
+                || antallResponstider > policy.getMinSamples() && antallResponstider % OPPDATER_FORSINKELSE == 0) {
+            long[] sortert = Arrays.copyOf(responstider, Math.min(antallResponstider, responstider.length));
+            Arrays.sort(sortert);
+            long persentil = sortert[(int) Math.min(sortert.length - 1, Math.floor(policy.getPercentile() * sortert.length))];
+            forsinkelseNanos = Math.max(policy.getMinDelay().toNanos(), persentil);
+        }
+    }
+
+    HedgingStatistikk statistikk() {
+        return new HedgingStatistikk(antallKall.sum(), antallHedget.sum(), antallHedgeVant.sum(), Duration.ofNanos(forsinkelseNanos));
+    }
+}
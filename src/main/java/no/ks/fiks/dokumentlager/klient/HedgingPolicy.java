@@ -0,0 +1,36 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Policy for hedging av små lesekall, dvs. henting av metadata og public key. Har et kall ikke fått svar etter
+ * en forsinkelse lik gitt persentil av observert responstid, sendes en identisk request til, og første svar brukes.
+ */
+@Value
+@Builder(toBuilder = true)
+public class HedgingPolicy {
+
+    @Builder.Default
+    double percentile = 0.95;
+
+    /**
+     * Forsinkelse som brukes frem til det er observert minSamples responstider.
+     */
+    @Builder.Default
+    Duration initialDelay = Duration.ofMillis(100);
+
+    @Builder.Default
+    Duration minDelay = Duration.ofMillis(5);
+
+    @Builder.Default
+    int minSamples = 50;
+
+    /**
+     * Maks andel av kallene som hedges, slik at hedging ikke dobler lasten når serveren er treg for alle.
+     */
+    @Builder.Default
+    double maxHedgeRate = 0.1;
+}
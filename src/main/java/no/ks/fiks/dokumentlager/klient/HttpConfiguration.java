@@ -16,4 +16,10 @@ public class HttpConfiguration {
 
     @Builder.Default
     Duration idleTimeout = Duration.ofMinutes(1);
+
+    @Builder.Default
+    ConnectionConfiguration uploadConnection = ConnectionConfiguration.builder().build();
+
+    @Builder.Default
+    ConnectionConfiguration downloadConnection = ConnectionConfiguration.builder().build();
 }
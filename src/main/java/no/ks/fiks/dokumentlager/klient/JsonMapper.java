@@ -1,13 +1,20 @@
 package no.ks.fiks.dokumentlager.klient;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUpdate;
 import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUpload;
+import no.ks.fiks.dokumentlager.klient.model.Soketreff;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
 
 class JsonMapper {
 
@@ -16,6 +23,7 @@ class JsonMapper {
             .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
             .disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE);
+    private final ObjectWriter updateWriter = mapper.writerFor(DokumentMetadataUpdate.class);
 
     String toJson(Object metadata) {
         try {
@@ -25,6 +33,17 @@ class JsonMapper {
         }
     }
 
+    /**
+     * Serialiserer direkte til bytes med en ferdig bygget writer, siden oppdateringer sendes for mange dokumenter ved bulk-oppdatering.
+     */
+    byte[] toJsonBytes(DokumentMetadataUpdate update) {
+        try {
+            return updateWriter.writeValueAsBytes(update);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize metadata", e);
+        }
+    }
+
     <T> T fromJson(byte[] json, Class<T> clazz) {
         try {
             return mapper.readValue(json, clazz);
@@ -32,4 +51,43 @@ class JsonMapper {
             throw new RuntimeException("Deserialization failed", e);
         }
     }
+
+    /**
+     * Leser et søkeresultat fra strømmen uten å bygge opp hele listen med treff. Hvert treff sendes til treffHandler
+     * etter hvert som det er lest, og totalt antall treff returneres.
+     */
+    Integer readSokeresultat(InputStream json, Consumer<Soketreff> treffHandler) {
+        try (JsonParser parser = mapper.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RuntimeException("Deserialization failed, expected search result object");
+            }
+            Integer totaltAntallTreff = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String felt = parser.currentName();
+                JsonToken verdi = parser.nextToken();
+                if ("totaltAntallTreff".equals(felt) && verdi != JsonToken.VALUE_NULL) {
+                    totaltAntallTreff = parser.getIntValue();
+                } else if ("dokumenter".equals(felt) && verdi == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        treffHandler.accept(mapper.readValue(parser, Soketreff.class));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return totaltAntallTreff;
+        } catch (IOException e) {
+            throw new RuntimeException("Deserialization failed", e);
+        }
+    }
+
+    /**
+     * Bygger serializere og deserializere for typene på forhånd, slik at første request slipper å gjøre det.
+     */
+    void warmUp(Class<?>... typer) {
+        for (Class<?> type : typer) {
+            mapper.writerFor(type);
+            mapper.readerFor(type);
+        }
+    }
 }
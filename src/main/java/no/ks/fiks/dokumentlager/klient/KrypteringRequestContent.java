@@ -0,0 +1,140 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.metrics.DokumentlagerMetrics;
+import no.ks.kryptering.CMSStreamKryptering;
+import org.eclipse.jetty.client.InputStreamRequestContent;
+import org.eclipse.jetty.io.ByteBufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Provider;
+import java.security.cert.X509Certificate;
+
+/**
+ * Request content som krypterer dokumentet etter hvert som Jetty ber om mer data. Krypteringen kjører på tråden
+ * som leser innholdet, slik at man ikke trenger en egen krypteringstråd og pipe per opplasting.
+ * Feil under kryptering propageres til Jetty som en feilet chunk, og avbryter requesten.
+ */
+public class KrypteringRequestContent extends InputStreamRequestContent implements Closeable {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream dokumentStream;
+    private final CMSStreamKryptering kryptering;
+    private final X509Certificate sertifikat;
+    private final Provider provider;
+    private final DokumentlagerMetrics metrics;
+
+    private final KryptertBuffer kryptertBuffer = new KryptertBuffer();
+    private final byte[] lesebuffer = new byte[BUFFER_SIZE];
+    private OutputStream krypteringStream;
+    private boolean ferdigLest;
+    private long krypteringstid;
+    private long antallBytes;
+    private boolean rapportert;
+
+    public KrypteringRequestContent(InputStream dokumentStream,
+                                    CMSStreamKryptering kryptering,
+                                    X509Certificate sertifikat,
+                                    Provider provider,
+                                    ByteBufferPool bufferPool) {
+        this(dokumentStream, kryptering, sertifikat, provider, bufferPool, null);
+    }
+
+    /**
+     * @param metrics mottar tiden brukt på kryptering når hele dokumentet er lest, eller null
+     */
+    public KrypteringRequestContent(InputStream dokumentStream,
+                                    CMSStreamKryptering kryptering,
+                                    X509Certificate sertifikat,
+                                    Provider provider,
+                                    ByteBufferPool bufferPool,
+                                    DokumentlagerMetrics metrics) {
+        super("application/octet-stream", dokumentStream, bufferPool);
+        this.dokumentStream = dokumentStream;
+        this.kryptering = kryptering;
+        this.sertifikat = sertifikat;
+        this.provider = provider;
+        this.metrics = metrics;
+        setBufferSize(BUFFER_SIZE);
+    }
+
+    @Override
+    protected int fillBufferFromInputStream(InputStream inputStream, byte[] buffer) throws IOException {
+        return lesKryptert(buffer);
+    }
+
+    /**
+     * Leser neste del av det krypterte dokumentet, eller -1 når hele dokumentet er kryptert og lest.
+     */
+    int lesKryptert(byte[] buffer) throws IOException {
+        if (metrics == null) {
+            return krypterNeste(buffer);
+        }
+        long start = System.nanoTime();
+        int lest = krypterNeste(buffer);
+        krypteringstid += System.nanoTime() - start;
+        if (lest == -1 && !rapportert) {
+            rapportert = true;
+            metrics.encrypted(krypteringstid, antallBytes);
+        }
+        return lest;
+    }
+
+    private int krypterNeste(byte[] buffer) throws IOException {
+        if (krypteringStream == null) {
+            krypteringStream = kryptering.getKrypteringOutputStream(kryptertBuffer, sertifikat, provider);
+        }
+        while (kryptertBuffer.isEmpty() && !ferdigLest) {
+            int read = dokumentStream.read(lesebuffer);
+            if (read == -1) {
+                ferdigLest = true;
+                krypteringStream.close();
+            } else {
+                krypteringStream.write(lesebuffer, 0, read);
+                antallBytes += read;
+            }
+        }
+        if (kryptertBuffer.isEmpty()) {
+            return -1;
+        }
+        return kryptertBuffer.drainTo(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!ferdigLest) {
+            fail(new IOException("Encrypted content closed before it was fully read"));
+        }
+    }
+
+    /**
+     * Mellomlager for kryptert data som ennå ikke er hentet av Jetty. Bufferet gjenbrukes når det er tømt.
+     */
+    private static class KryptertBuffer extends ByteArrayOutputStream {
+
+        private int position = 0;
+
+        private KryptertBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        boolean isEmpty() {
+            return position == count;
+        }
+
+        int drainTo(byte[] target) {
+            int length = Math.min(count - position, target.length);
+            System.arraycopy(buf, position, target, 0, length);
+            position += length;
+            if (position == count) {
+                position = 0;
+                reset();
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataDownloadResult;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+import no.ks.fiks.dokumentlager.klient.model.MetadataCacheStatistikk;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache for dokumentmetadata med TTL per dokument og begrenset antall dokumenter. Samtidige oppslag på et dokument
+ * som ikke er cachet deler én request, og feilede oppslag caches ikke.
+ */
+@Slf4j
+class MetadataCache {
+
+    private final Function<UUID, CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>>> loader;
+    private final long ttlNanos;
+    private final LinkedHashMap<UUID, Entry> entries;
+
+    private final LongAdder treff = new LongAdder();
+    private final LongAdder bom = new LongAdder();
+
+    MetadataCache(Function<UUID, CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>>> loader,
+                  Duration ttl,
+                  int maksAntall) {
+        if (maksAntall <= 0) {
+            throw new IllegalArgumentException("Maximum number of cached metadata entries must be positive");
+        }
+        this.loader = loader;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > maksAntall;
+            }
+        };
+    }
+
+    DokumentlagerResponse<DokumentMetadataDownloadResult> get(UUID dokumentId) {
+        try {
+            return getAsync(dokumentId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> getAsync(UUID dokumentId) {
+        Entry entry;
+        synchronized (this) {
+            Entry eksisterende = entries.get(dokumentId);
+            if (eksisterende != null && !eksisterende.erUtlopt(System.nanoTime())) {
+                treff.increment();
+                return eksisterende.future;
+            }
+            bom.increment();
+            entry = new Entry(new CompletableFuture<>());
+            entries.put(dokumentId, entry);
+        }
+
+        log.debug("Metadata cache miss for dokument {}", dokumentId);
+        CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> loaded;
+        try {
+            loaded = loader.apply(dokumentId);
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((response, e) -> {
+            if (e == null) {
+                entry.expiresAt = System.nanoTime() + ttlNanos;
+                entry.future.complete(response);
+            } else {
+                synchronized (this) {
+                    entries.remove(dokumentId, entry);
+                }
+                entry.future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return entry.future;
+    }
+
+    synchronized void invalider(UUID dokumentId) {
+        entries.remove(dokumentId);
+    }
+
+    /**
+     * Invaliderer alle dokumenter med gitt korrelasjonsid, og alle oppslag som fortsatt pågår siden man ikke vet
+     * hvilken korrelasjonsid de har.
+     */
+    synchronized void invaliderKorrelasjonsid(UUID korrelasjonsid) {
+        entries.values().removeIf(entry -> !entry.future.isDone() || entry.future.isCompletedExceptionally()
+                || Objects.equals(korrelasjonsid, entry.future.join().getResult().getKorrelasjonsid()));
+    }
+
+    synchronized MetadataCacheStatistikk statistikk() {
+        return new MetadataCacheStatistikk(treff.sum(), bom.sum(), entries.size());
+    }
+
+    private static class Entry {
+        private final CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> future;
+        private volatile long expiresAt;
+
+        private Entry(CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> future) {
+            this.future = future;
+        }
+
+        private boolean erUtlopt(long now) {
+            return future.isDone() && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Cache for Dokumentlager sitt public key-sertifikat. Hele responsen caches, slik at status og headere er de fra requesten
+ * som hentet sertifikatet. Samtidige oppslag som må hente sertifikatet deler én request,
+ * og når sertifikatet nærmer seg utløp hentes et nytt i bakgrunnen mens det gamle fortsatt brukes.
+ */
+@Slf4j
+class PublicKeyCache {
+
+    private static final double REFRESH_AHEAD_ANDEL = 0.8;
+
+    private final Supplier<CompletableFuture<DokumentlagerResponse<X509Certificate>>> loader;
+    private final long ttlNanos;
+
+    private volatile Entry current;
+    private CompletableFuture<DokumentlagerResponse<X509Certificate>> inFlight;
+
+    PublicKeyCache(Supplier<CompletableFuture<DokumentlagerResponse<X509Certificate>>> loader, Duration ttl) {
+        this.loader = loader;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    DokumentlagerResponse<X509Certificate> get() {
+        try {
+            return getAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    CompletableFuture<DokumentlagerResponse<X509Certificate>> getAsync() {
+        Entry entry = current;
+        long now = System.nanoTime();
+        if (entry != null && now - entry.expiresAt < 0) {
+            if (now - entry.refreshAt >= 0) {
+                refresh().exceptionally(e -> {
+                    log.warn("Background refresh of public key failed, keeping current certificate until it expires", e);
+                    return null;
+                });
+            }
+            return CompletableFuture.completedFuture(entry.response);
+        }
+        return refresh();
+    }
+
+    CompletableFuture<DokumentlagerResponse<X509Certificate>> refresh() {
+        CompletableFuture<DokumentlagerResponse<X509Certificate>> future;
+        synchronized (this) {
+            if (inFlight != null) {
+                return inFlight;
+            }
+            future = new CompletableFuture<>();
+            inFlight = future;
+        }
+
+        log.debug("Refreshing public key");
+        CompletableFuture<DokumentlagerResponse<X509Certificate>> loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((response, e) -> {
+            if (e == null) {
+                long now = System.nanoTime();
+                current = new Entry(response, now + (long) (ttlNanos * REFRESH_AHEAD_ANDEL), now + ttlNanos);
+            }
+            synchronized (this) {
+                inFlight = null;
+            }
+            if (e == null) {
+                future.complete(response);
+            } else {
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return future;
+    }
+
+    private record Entry(DokumentlagerResponse<X509Certificate> response, long refreshAt, long expiresAt) {
+    }
+}
@@ -0,0 +1,130 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.metrics.DokumentlagerMetrics;
+import no.ks.fiks.dokumentlager.klient.model.Tidsbruk;
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.client.Response;
+import org.eclipse.jetty.client.Result;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Måler tiden i hver fase av én request, og rapporterer til {@link DokumentlagerMetrics} dersom det er konfigurert.
+ * Objektet registreres selv som lytter, slik at målingen kun koster denne ene allokeringen og {@link Tidsbruk}.
+ * Registreres kun når metrics eller tidsbruk er slått på.
+ */
+class RequestMaling implements Request.QueuedListener, Request.BeginListener, Request.ContentListener, Request.SuccessListener,
+        Response.BeginListener, Response.ContentListener, Response.CompleteListener {
+
+    private static final long IKKE_MALT = -1;
+
+    private final DokumentlagerMetrics metrics;
+    private final DokumentlagerMetrics.Operation operation;
+
+    // Lytterne kalles fra Jetty sine tråder, mens tidsbruk() kan leses fra tråden som fikk responsen
+    private volatile long ventetid;
+    private volatile long sendt;
+    private volatile long startet;
+    private volatile long requestSendt;
+    private volatile long svarStartet;
+    private volatile long ferdig;
+    private volatile long requestBytes;
+    private volatile long responseBytes;
+    private volatile Tidsbruk tidsbruk;
+
+    private RequestMaling(DokumentlagerMetrics metrics, DokumentlagerMetrics.Operation operation) {
+        this.metrics = metrics;
+        this.operation = operation;
+    }
+
+    /**
+     * @param metrics null dersom målingene kun skal være tilgjengelige på responsen
+     */
+    static RequestMaling registrer(Request request, DokumentlagerMetrics metrics, DokumentlagerMetrics.Operation operation) {
+        RequestMaling maling = new RequestMaling(metrics, operation);
+        request.onRequestQueued(maling)
+                .onRequestBegin(maling)
+                .onRequestSuccess(maling)
+                .onResponseBegin(maling)
+                .onComplete(maling);
+        if (metrics != null) {
+            request.onRequestContent(maling)
+                    .onResponseContent(maling);
+        }
+        return maling;
+    }
+
+    void ventet(long nanos) {
+        ventetid = nanos;
+        if (metrics != null) {
+            metrics.queued(operation, nanos);
+        }
+    }
+
+    @Override
+    public void onQueued(Request request) {
+        sendt = System.nanoTime();
+        if (metrics != null) {
+            metrics.requestStarted(operation);
+        }
+    }
+
+    @Override
+    public void onBegin(Request request) {
+        startet = System.nanoTime();
+    }
+
+    @Override
+    public void onContent(Request request, ByteBuffer content) {
+        requestBytes += content.remaining();
+    }
+
+    @Override
+    public void onSuccess(Request request) {
+        requestSendt = System.nanoTime();
+    }
+
+    @Override
+    public void onBegin(Response response) {
+        svarStartet = System.nanoTime();
+    }
+
+    @Override
+    public void onContent(Response response, ByteBuffer content) {
+        // Telles fra innholdet, siden Content-Length mangler for chunked og komprimerte svar
+        responseBytes += content.remaining();
+    }
+
+    @Override
+    public void onComplete(Result result) {
+        if (sendt == 0) {
+            return;
+        }
+        ferdig = System.nanoTime();
+        tidsbruk = lagTidsbruk();
+        if (metrics != null) {
+            Response response = result.getResponse();
+            metrics.requestCompleted(operation, response.getStatus(), ferdig - sendt, requestBytes, responseBytes);
+            metrics.requestTimed(operation, tidsbruk);
+        }
+    }
+
+    /**
+     * Tidsbruk så langt. Faser som ikke er ferdige ennå er -1.
+     */
+    Tidsbruk tidsbruk() {
+        Tidsbruk ferdigMalt = tidsbruk;
+        return ferdigMalt != null ? ferdigMalt : lagTidsbruk();
+    }
+
+    private Tidsbruk lagTidsbruk() {
+        return new Tidsbruk(ventetid, fase(sendt, startet), fase(startet, requestSendt), fase(requestSendt, svarStartet), fase(svarStartet, ferdig));
+    }
+
+    /**
+     * Svaret kan starte før requesten er ferdig sendt, f.eks. ved feil, og da regnes ikke fasen som målt.
+     */
+    private static long fase(long fra, long til) {
+        return fra == 0 || til == 0 || til < fra ? IKKE_MALT : til - fra;
+    }
+}
@@ -0,0 +1,219 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerHttpException;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Utfører idempotente kall med retry etter en {@link RetryPolicy}. Ventetiden før forsøk n er tilfeldig mellom 0 og
+ * initialBackoff * backoffMultiplier^(n-2), begrenset av maxBackoff, med mindre serveren har sendt Retry-After.
+ * Retries trekkes fra et budsjett som deles av alle kall, og som fylles på med retryBudgetRatio for hvert kall.
+ */
+@Slf4j
+class RetryHandler {
+
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final long TOKEN = 1000;
+
+    private final RetryPolicy policy;
+    private final AtomicLong budsjett;
+    private final long maksBudsjett;
+    private final long paafyll;
+
+    RetryHandler(RetryPolicy policy) {
+        if (policy.getMaxAttempts() < 1) {
+            throw new IllegalArgumentException("Maximum number of attempts must be at least 1");
+        }
+        this.policy = policy;
+        this.maksBudsjett = policy.getRetryBudget() * TOKEN;
+        this.paafyll = Math.round(policy.getRetryBudgetRatio() * TOKEN);
+        this.budsjett = new AtomicLong(maksBudsjett);
+    }
+
+    <T> DokumentlagerResponse<T> execute(String operasjon, Supplier<DokumentlagerResponse<T>> kall) {
+        return execute(operasjon, this::kanProvesIgjen, kall);
+    }
+
+    <T> DokumentlagerResponse<T> execute(String operasjon, Predicate<Throwable> kanProvesIgjen, Supplier<DokumentlagerResponse<T>> kall) {
+        fyllBudsjett();
+        for (int forsok = 1; ; forsok++) {
+            try {
+                return medAntallForsok(kall.get(), forsok);
+            } catch (RuntimeException e) {
+                Optional<Duration> ventetid = ventetidForNesteForsok(operasjon, kanProvesIgjen, e, forsok);
+                if (ventetid.isEmpty()) {
+                    throw e;
+                }
+                vent(ventetid.get());
+            }
+        }
+    }
+
+    <T> CompletableFuture<DokumentlagerResponse<T>> executeAsync(String operasjon, Supplier<CompletableFuture<DokumentlagerResponse<T>>> kall) {
+        return executeAsync(operasjon, this::kanProvesIgjen, kall);
+    }
+
+    <T> CompletableFuture<DokumentlagerResponse<T>> executeAsync(String operasjon,
+                                                                 Predicate<Throwable> kanProvesIgjen,
+                                                                 Supplier<CompletableFuture<DokumentlagerResponse<T>>> kall) {
+        fyllBudsjett();
+        CompletableFuture<DokumentlagerResponse<T>> resultat = new CompletableFuture<>();
+        forsokAsync(operasjon, kanProvesIgjen, kall, 1, resultat);
+        return resultat;
+    }
+
+    private <T> void forsokAsync(String operasjon,
+                                 Predicate<Throwable> kanProvesIgjen,
+                                 Supplier<CompletableFuture<DokumentlagerResponse<T>>> kall,
+                                 int forsok,
+                                 CompletableFuture<DokumentlagerResponse<T>> resultat) {
+        CompletableFuture<DokumentlagerResponse<T>> future;
+        try {
+            future = kall.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((response, e) -> {
+            if (e == null) {
+                resultat.complete(medAntallForsok(response, forsok));
+                return;
+            }
+            Throwable feil = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            Optional<Duration> ventetid = ventetidForNesteForsok(operasjon, kanProvesIgjen, feil, forsok);
+            if (ventetid.isEmpty()) {
+                resultat.completeExceptionally(feil);
+                return;
+            }
+            CompletableFuture.delayedExecutor(ventetid.get().toNanos(), TimeUnit.NANOSECONDS)
+                    .execute(() -> forsokAsync(operasjon, kanProvesIgjen, kall, forsok + 1, resultat));
+        });
+    }
+
+    private Optional<Duration> ventetidForNesteForsok(String operasjon, Predicate<Throwable> kanProvesIgjen, Throwable feil, int forsok) {
+        if (forsok >= policy.getMaxAttempts() || !kanProvesIgjen.test(feil)) {
+            return Optional.empty();
+        }
+        Optional<Duration> retryAfter = retryAfter(feil);
+        if (retryAfter.isPresent() && retryAfter.get().compareTo(policy.getMaxRetryAfter()) > 0) {
+            log.info("{} failed, not retrying since server asked to wait {} ms", operasjon, retryAfter.get().toMillis());
+            return Optional.empty();
+        }
+        if (!tilgangTilRetry()) {
+            log.info("{} failed, not retrying since the retry budget is exhausted", operasjon);
+            return Optional.empty();
+        }
+        Duration ventetid = retryAfter.orElseGet(() -> backoff(forsok));
+        log.info("{} failed on attempt {} of {}, retrying in {} ms: {}", operasjon, forsok, policy.getMaxAttempts(), ventetid.toMillis(), feil.toString());
+        return Optional.of(ventetid);
+    }
+
+    boolean isEnabled() {
+        return policy.getMaxAttempts() > 1;
+    }
+
+    boolean kanProvesIgjen(Throwable feil) {
+        if (feil instanceof DokumentlagerHttpException e) {
+            return policy.getRetryableStatuses().contains(e.getStatus());
+        }
+        return harAarsak(feil, aarsak -> aarsak instanceof TimeoutException || aarsak instanceof IOException);
+    }
+
+    /**
+     * For kall som ikke er idempotente prøves det kun igjen når serveren har avvist requesten, eller tilkobling feilet.
+     * Ved timeout kan requesten allerede være utført.
+     */
+    boolean kanProvesIgjenUtenDuplikat(Throwable feil) {
+        if (feil instanceof DokumentlagerHttpException e) {
+            return policy.getRetryableStatuses().contains(e.getStatus());
+        }
+        return harAarsak(feil, aarsak -> aarsak instanceof ConnectException);
+    }
+
+    private static boolean harAarsak(Throwable feil, Predicate<Throwable> predicate) {
+        // De synkrone kallene pakker feil fra Jetty inn i RuntimeException
+        Throwable aarsak = feil;
+        while (aarsak != null) {
+            if (predicate.test(aarsak)) {
+                return true;
+            }
+            aarsak = aarsak instanceof ExecutionException || aarsak.getClass() == RuntimeException.class ? aarsak.getCause() : null;
+        }
+        return false;
+    }
+
+    private Duration backoff(int forsok) {
+        double maks = Math.min(policy.getMaxBackoff().toNanos(),
+                policy.getInitialBackoff().toNanos() * Math.pow(policy.getBackoffMultiplier(), forsok - 1));
+        return Duration.ofNanos((long) (ThreadLocalRandom.current().nextDouble() * maks));
+    }
+
+    private static Optional<Duration> retryAfter(Throwable feil) {
+        if (!(feil instanceof DokumentlagerHttpException e)) {
+            return Optional.empty();
+        }
+        return e.getHeader(RETRY_AFTER).flatMap(RetryHandler::parseRetryAfter);
+    }
+
+    static Optional<Duration> parseRetryAfter(String verdi) {
+        String trimmet = verdi.trim();
+        try {
+            return Optional.of(Duration.ofSeconds(Math.max(0, Long.parseLong(trimmet))));
+        } catch (NumberFormatException e) {
+            try {
+                Duration ventetid = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(trimmet, DateTimeFormatter.RFC_1123_DATE_TIME));
+                return Optional.of(ventetid.isNegative() ? Duration.ZERO : ventetid);
+            } catch (DateTimeParseException ex) {
+                log.debug("Ignoring invalid Retry-After header: {}", verdi);
+                return Optional.empty();
+            }
+        }
+    }
+
+    private void fyllBudsjett() {
+        if (paafyll > 0) {
+            budsjett.getAndUpdate(verdi -> Math.min(maksBudsjett, verdi + paafyll));
+        }
+    }
+
+    private boolean tilgangTilRetry() {
+        while (true) {
+            long verdi = budsjett.get();
+            if (verdi < TOKEN) {
+                return false;
+            }
+            if (budsjett.compareAndSet(verdi, verdi - TOKEN)) {
+                return true;
+            }
+        }
+    }
+
+    private static <T> DokumentlagerResponse<T> medAntallForsok(DokumentlagerResponse<T> response, int forsok) {
+        return forsok == 1 || response == null ? response : response.toBuilder().antallForsok(forsok).build();
+    }
+
+    private static void vent(Duration ventetid) {
+        try {
+            Thread.sleep(ventetid.toMillis(), (int) (ventetid.toNanos() % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
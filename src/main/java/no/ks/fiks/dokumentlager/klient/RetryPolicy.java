@@ -0,0 +1,57 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Policy for automatisk retry av idempotente kall. Ventetiden mellom forsøk øker eksponentielt med tilfeldig jitter,
+ * og Retry-After fra serveren respekteres. Et felles retry-budsjett begrenser antall retries i forhold til antall
+ * kall, slik at retries ikke forsterker et utfall.
+ */
+@Value
+@Builder(toBuilder = true)
+public class RetryPolicy {
+
+    /**
+     * Totalt antall forsøk, inkludert første. 1 betyr ingen retry.
+     */
+    @Builder.Default
+    int maxAttempts = 3;
+
+    @Builder.Default
+    Duration initialBackoff = Duration.ofMillis(100);
+
+    @Builder.Default
+    Duration maxBackoff = Duration.ofSeconds(10);
+
+    @Builder.Default
+    double backoffMultiplier = 2.0;
+
+    @Builder.Default
+    Set<Integer> retryableStatuses = Set.of(502, 503, 504);
+
+    /**
+     * Lengste Retry-After som respekteres. Ber serveren om å vente lenger gis det opp.
+     */
+    @Builder.Default
+    Duration maxRetryAfter = Duration.ofSeconds(30);
+
+    /**
+     * Maks antall retries som kan tas fra budsjettet samtidig, og budsjettet ved oppstart.
+     */
+    @Builder.Default
+    int retryBudget = 10;
+
+    /**
+     * Hvor mye hvert kall fyller på budsjettet. 0.2 betyr at retries over tid er begrenset til 20% av kallene.
+     */
+    @Builder.Default
+    double retryBudgetRatio = 0.2;
+
+    public static RetryPolicy none() {
+        return RetryPolicy.builder().maxAttempts(1).build();
+    }
+}
@@ -0,0 +1,110 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.Sokeresultat;
+import no.ks.fiks.dokumentlager.klient.model.Soketreff;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+/**
+ * Itererer over alle treff i et søk, side for side. Første side gir totalt antall treff, og de neste sidene hentes
+ * i forkant mens gjeldende side leses. Maksimalt prefetchSider sider hentes eller ligger i minnet i tillegg til
+ * siden som leses.
+ */
+class SokIterator implements Iterator<Soketreff> {
+
+    private final IntFunction<CompletableFuture<Sokeresultat>> sideHenter;
+    private final int sideStorrelse;
+    private final int prefetchSider;
+
+    private final ArrayDeque<CompletableFuture<Sokeresultat>> hentinger = new ArrayDeque<>();
+    private Iterator<Soketreff> gjeldendeSide = Collections.emptyIterator();
+    private int totaltAntallTreff = -1;
+    private int nesteFra;
+    private boolean ferdig;
+
+    /**
+     * @param sideHenter henter siden som starter på gitt indeks, med sideStorrelse treff
+     */
+    SokIterator(IntFunction<CompletableFuture<Sokeresultat>> sideHenter, int sideStorrelse, int prefetchSider) {
+        if (sideStorrelse <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        if (prefetchSider < 0) {
+            throw new IllegalArgumentException("Number of prefetched pages cannot be negative");
+        }
+        this.sideHenter = sideHenter;
+        this.sideStorrelse = sideStorrelse;
+        this.prefetchSider = prefetchSider;
+        hentinger.add(hentNesteSide());
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!gjeldendeSide.hasNext()) {
+            if (hentinger.isEmpty()) {
+                if (ferdig || nesteFra >= totaltAntallTreff) {
+                    return false;
+                }
+                hentinger.add(hentNesteSide());
+            }
+            Sokeresultat side = vent(hentinger.poll());
+            if (totaltAntallTreff < 0) {
+                totaltAntallTreff = side.getTotaltAntallTreff() == null ? 0 : side.getTotaltAntallTreff();
+            }
+            List<Soketreff> dokumenter = side.getDokumenter();
+            if (dokumenter == null || dokumenter.isEmpty()) {
+                // Færre treff enn planlagt, f.eks. fordi dokumenter er slettet underveis
+                close();
+                return false;
+            }
+            while (hentinger.size() < prefetchSider && nesteFra < totaltAntallTreff) {
+                hentinger.add(hentNesteSide());
+            }
+            gjeldendeSide = dokumenter.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Soketreff next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return gjeldendeSide.next();
+    }
+
+    void close() {
+        ferdig = true;
+        hentinger.forEach(henting -> henting.cancel(false));
+        hentinger.clear();
+    }
+
+    private CompletableFuture<Sokeresultat> hentNesteSide() {
+        int fra = nesteFra;
+        nesteFra += sideStorrelse;
+        try {
+            return sideHenter.apply(fra);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Sokeresultat vent(CompletableFuture<Sokeresultat> henting) {
+        try {
+            return henting.join();
+        } catch (CompletionException e) {
+            close();
+            if (e.getCause() instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
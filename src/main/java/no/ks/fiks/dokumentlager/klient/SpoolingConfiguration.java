@@ -0,0 +1,23 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.nio.file.Path;
+
+/**
+ * Mellomlagring av opplastinger slik at de kan prøves på nytt etter {@link RetryPolicy}. Dokumenter opp til
+ * memoryThreshold bytes holdes i minnet, større dokumenter skrives til en midlertidig fil i directory.
+ */
+@Value
+@Builder
+public class SpoolingConfiguration {
+
+    @Builder.Default
+    long memoryThreshold = 1024 * 1024;
+
+    /**
+     * Katalog for midlertidige filer. Default er java.io.tmpdir.
+     */
+    Path directory;
+}
@@ -0,0 +1,141 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.client.ByteBufferRequestContent;
+import org.eclipse.jetty.client.InputStreamRequestContent;
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.io.ByteBufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Request content som mellomlagrer alt som leses fra kilden mens første forsøk sendes, slik at en feilet opplasting
+ * kan sendes på nytt uten å lese kilden eller kryptere dokumentet på nytt. Innholdet holdes i minnet opp til en
+ * terskel, og skrives ellers til en midlertidig fil som leses med memory mapping ved nye forsøk. Filen åpnes med
+ * DELETE_ON_CLOSE, som på Unix fjerner den fra katalogen med en gang, slik at den ikke blir liggende igjen selv om
+ * prosessen avsluttes uten close.
+ */
+@Slf4j
+class SpoolingRequestContent extends InputStreamRequestContent implements Closeable {
+
+    interface Kilde {
+        /**
+         * Leser neste del av innholdet inn i buffer, og returnerer antall bytes eller -1 når alt er lest.
+         */
+        int les(byte[] buffer) throws IOException;
+    }
+
+    private final Kilde kilde;
+    private final long minneTerskel;
+    private final Path katalog;
+
+    private ByteArrayOutputStream minne = new ByteArrayOutputStream();
+    private FileChannel fil;
+    private long antallBytes;
+    private boolean ferdigLest;
+    private boolean lukket;
+    private List<ByteBuffer> replayBuffere;
+
+    SpoolingRequestContent(String contentType, Kilde kilde, SpoolingConfiguration configuration, ByteBufferPool bufferPool) {
+        // Kilden gis ikke til Jetty, slik at den ikke lukkes når et forsøk feiler
+        super(contentType, InputStream.nullInputStream(), bufferPool);
+        this.kilde = kilde;
+        this.minneTerskel = configuration.getMemoryThreshold();
+        this.katalog = configuration.getDirectory() == null ? Path.of(System.getProperty("java.io.tmpdir")) : configuration.getDirectory();
+        setBufferSize(KrypteringRequestContent.BUFFER_SIZE);
+    }
+
+    @Override
+    protected int fillBufferFromInputStream(InputStream inputStream, byte[] buffer) throws IOException {
+        return lesOgMellomlagre(buffer);
+    }
+
+    /**
+     * Content for et nytt forsøk. Det som ikke ble lest fra kilden i forrige forsøk leses og mellomlagres først.
+     */
+    synchronized Request.Content replay() throws IOException {
+        if (replayBuffere == null) {
+            byte[] buffer = new byte[KrypteringRequestContent.BUFFER_SIZE];
+            while (lesOgMellomlagre(buffer) != -1) {
+                // Leser resten av kilden
+            }
+            replayBuffere = fil == null ? List.of(ByteBuffer.wrap(minne.toByteArray())) : map(fil, antallBytes);
+            minne = null;
+            log.debug("Replaying {} spooled bytes from {}", antallBytes, fil == null ? "memory" : "disk");
+        }
+        return new ByteBufferRequestContent(getContentType(), replayBuffere.stream().map(ByteBuffer::asReadOnlyBuffer).toList());
+    }
+
+    private synchronized int lesOgMellomlagre(byte[] buffer) throws IOException {
+        if (lukket) {
+            throw new IOException("Spooled content has been closed");
+        }
+        if (ferdigLest) {
+            return -1;
+        }
+        int read = kilde.les(buffer);
+        if (read == -1) {
+            ferdigLest = true;
+        } else if (read > 0) {
+            mellomlagre(buffer, read);
+        }
+        return read;
+    }
+
+    private void mellomlagre(byte[] buffer, int length) throws IOException {
+        if (fil == null && antallBytes + length > minneTerskel) {
+            Path path = Files.createTempFile(katalog, "dokumentlager-upload-", ".spool");
+            fil = FileChannel.open(path, READ, WRITE, DELETE_ON_CLOSE);
+            log.debug("Spooling upload to {} after {} bytes", path, antallBytes);
+            skriv(ByteBuffer.wrap(minne.toByteArray()));
+            minne = null;
+        }
+        if (fil == null) {
+            minne.write(buffer, 0, length);
+        } else {
+            skriv(ByteBuffer.wrap(buffer, 0, length));
+        }
+        antallBytes += length;
+    }
+
+    private void skriv(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            fil.write(buffer);
+        }
+    }
+
+    private static List<ByteBuffer> map(FileChannel fil, long storrelse) throws IOException {
+        List<ByteBuffer> buffere = new ArrayList<>();
+        for (long posisjon = 0; posisjon < storrelse; posisjon += Integer.MAX_VALUE) {
+            buffere.add(fil.map(FileChannel.MapMode.READ_ONLY, posisjon, Math.min(Integer.MAX_VALUE, storrelse - posisjon)));
+        }
+        return buffere;
+    }
+
+    @Override
+    public synchronized void close() {
+        lukket = true;
+        minne = null;
+        replayBuffere = null;
+        if (fil != null) {
+            try {
+                fil.close();
+            } catch (IOException e) {
+                log.warn("Failed to delete spooled upload", e);
+            }
+        }
+    }
+}
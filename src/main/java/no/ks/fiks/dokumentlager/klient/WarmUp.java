@@ -0,0 +1,47 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ks.fiks.dokumentlager.klient.model.WarmUpResult;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Kjører og tar tiden på fasene i en warm-up. En fase som feiler logges og registreres, uten å stoppe de neste fasene.
+ */
+@Slf4j
+class WarmUp {
+
+    private final Map<String, Duration> faser = new LinkedHashMap<>();
+    private final Set<String> feiledeFaser = new LinkedHashSet<>();
+
+    WarmUp() {
+    }
+
+    WarmUp(WarmUpResult tidligere) {
+        faser.putAll(tidligere.getFaser());
+        feiledeFaser.addAll(tidligere.getFeiledeFaser());
+    }
+
+    WarmUp fase(String navn, Runnable fase) {
+        long start = System.nanoTime();
+        try {
+            fase.run();
+        } catch (RuntimeException e) {
+            log.warn("Warm-up phase {} failed", navn, e);
+            feiledeFaser.add(navn);
+        }
+        faser.put(navn, Duration.ofNanos(System.nanoTime() - start));
+        return this;
+    }
+
+    WarmUpResult resultat() {
+        WarmUpResult resultat = new WarmUpResult(Collections.unmodifiableMap(new LinkedHashMap<>(faser)), Collections.unmodifiableSet(new LinkedHashSet<>(feiledeFaser)));
+        log.debug("Warm-up completed in {} ms: {}", resultat.getVarighet().toMillis(), faser);
+        return resultat;
+    }
+}
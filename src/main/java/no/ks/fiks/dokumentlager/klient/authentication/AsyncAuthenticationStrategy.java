@@ -0,0 +1,13 @@
+package no.ks.fiks.dokumentlager.klient.authentication;
+
+import org.eclipse.jetty.client.Request;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Setter autentiseringsheadere uten å blokkere tråden, f.eks. mens et token hentes. Klienten sender requesten når
+ * CompletionStage er fullført, og lar requesten feile dersom den fullføres med en feil.
+ */
+public interface AsyncAuthenticationStrategy {
+    CompletionStage<Void> setAuthenticationHeadersAsync(Request request);
+}
@@ -3,6 +3,23 @@ package no.ks.fiks.dokumentlager.klient.authentication;
 
 import org.eclipse.jetty.client.Request;
 
-public interface AuthenticationStrategy {
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+public interface AuthenticationStrategy extends AsyncAuthenticationStrategy {
     void setAuthenticationHeaders(Request request);
+
+    /**
+     * Setter headerne synkront på tråden som bygger requesten. Overstyres av strategier som kan vente på
+     * autentisering uten å blokkere.
+     */
+    @Override
+    default CompletionStage<Void> setAuthenticationHeadersAsync(Request request) {
+        try {
+            setAuthenticationHeaders(request);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
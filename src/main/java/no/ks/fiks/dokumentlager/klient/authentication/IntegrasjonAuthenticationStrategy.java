@@ -1,32 +1,174 @@
 package no.ks.fiks.dokumentlager.klient.authentication;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import no.ks.fiks.maskinporten.AccessTokenRequest;
 import no.ks.fiks.maskinporten.Maskinportenklient;
 import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
 
+import java.time.Duration;
+import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Autentisering med Maskinporten-token og integrasjon. Tokenet og headerne gjenbrukes mellom requester, og tokenet
+ * fornyes i bakgrunnen når det meste av levetiden er brukt opp, slik at requester kun venter på Maskinporten når
+ * det ikke finnes et gyldig token.
+ */
+@Slf4j
 public class IntegrasjonAuthenticationStrategy implements AuthenticationStrategy {
 
+    private static final AccessTokenRequest ACCESS_TOKEN_REQUEST = AccessTokenRequest.builder().scope("ks:fiks").build();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Brukes når utløpstidspunktet ikke kan leses fra tokenet.
+     */
+    private static final Duration DEFAULT_LEVETID = Duration.ofSeconds(30);
+    /**
+     * Tokenet regnes som utløpt litt før det faktisk utløper, slik at det ikke utløper underveis i requesten.
+     */
+    private static final Duration UTLOPSMARGIN = Duration.ofSeconds(5);
+    private static final double FORNY_ETTER_ANDEL_AV_LEVETID = 0.75;
+    private static final Duration VENT_ETTER_FEILET_FORNYELSE = Duration.ofSeconds(1);
+
+    private static final ExecutorService FORNYELSE_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "dokumentlager-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final Maskinportenklient maskinportenklient;
-    private final UUID integrasjonId;
-    private final String integrasjonPassord;
+    private final HttpField integrasjonIdHeader;
+    private final HttpField integrasjonPassordHeader;
+
+    private volatile Token token;
+    private final AtomicReference<CompletableFuture<Token>> fornyelse = new AtomicReference<>();
 
     public IntegrasjonAuthenticationStrategy(Maskinportenklient maskinportenklient, UUID integrasjonId, String integrasjonPassord) {
         this.maskinportenklient = maskinportenklient;
-        this.integrasjonId = integrasjonId;
-        this.integrasjonPassord = integrasjonPassord;
+        this.integrasjonIdHeader = new HttpField("IntegrasjonId", integrasjonId.toString());
+        this.integrasjonPassordHeader = new HttpField("IntegrasjonPassord", integrasjonPassord);
     }
 
+    private record Token(HttpField authorizationHeader, long fornyesNanos, long utloperNanos) {}
+
     @Override
     public void setAuthenticationHeaders(Request request) {
+        Token gjeldende = gyldigToken();
+        if (gjeldende == null) {
+            try {
+                gjeldende = forny().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException ex) {
+                    throw ex;
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        setHeaders(request, gjeldende);
+    }
+
+    /**
+     * Fullføres med en gang når det finnes et gyldig token, og ellers når nytt token er hentet.
+     */
+    @Override
+    public CompletionStage<Void> setAuthenticationHeadersAsync(Request request) {
+        Token gjeldende = gyldigToken();
+        if (gjeldende != null) {
+            setHeaders(request, gjeldende);
+            return CompletableFuture.completedFuture(null);
+        }
+        return forny().thenAccept(nytt -> setHeaders(request, nytt));
+    }
+
+    private void setHeaders(Request request, Token gjeldende) {
         request.headers(headers -> headers
-                .add("Authorization", "Bearer " + getAccessToken())
-                .add("IntegrasjonId", integrasjonId.toString())
-                .add("IntegrasjonPassord", integrasjonPassord));
+                .add(gjeldende.authorizationHeader())
+                .add(integrasjonIdHeader)
+                .add(integrasjonPassordHeader));
+    }
+
+    /**
+     * Gjeldende token dersom det ikke er utløpt, og starter fornyelse i bakgrunnen når det snart utløper.
+     */
+    private Token gyldigToken() {
+        Token gjeldende = token;
+        long naa = System.nanoTime();
+        if (gjeldende == null || naa - gjeldende.utloperNanos() >= 0) {
+            return null;
+        }
+        if (naa - gjeldende.fornyesNanos() >= 0) {
+            forny();
+        }
+        return gjeldende;
+    }
+
+    /**
+     * Starter fornyelse av tokenet, eller returnerer fornyelsen som allerede pågår.
+     */
+    private CompletableFuture<Token> forny() {
+        CompletableFuture<Token> pagaende = fornyelse.get();
+        if (pagaende != null) {
+            return pagaende;
+        }
+        CompletableFuture<Token> ny = new CompletableFuture<>();
+        if (!fornyelse.compareAndSet(null, ny)) {
+            return fornyelse.get();
+        }
+        FORNYELSE_EXECUTOR.execute(() -> {
+            try {
+                Token nytt = hentToken();
+                token = nytt;
+                fornyelse.set(null);
+                ny.complete(nytt);
+            } catch (RuntimeException e) {
+                log.warn("Failed to refresh Maskinporten access token", e);
+                Token gjeldende = token;
+                if (gjeldende != null) {
+                    // Gjeldende token brukes videre, men ny fornyelse venter slik at ikke hver request prøver på nytt
+                    token = new Token(gjeldende.authorizationHeader(), System.nanoTime() + VENT_ETTER_FEILET_FORNYELSE.toNanos(), gjeldende.utloperNanos());
+                }
+                fornyelse.set(null);
+                ny.completeExceptionally(e);
+            }
+        });
+        return ny;
+    }
+
+    private Token hentToken() {
+        long hentet = System.nanoTime();
+        String accessToken = maskinportenklient.getAccessToken(ACCESS_TOKEN_REQUEST);
+        long levetidNanos = Math.max(0, levetid(accessToken).minus(UTLOPSMARGIN).toNanos());
+        return new Token(
+                new HttpField(HttpHeader.AUTHORIZATION, "Bearer " + accessToken),
+                hentet + (long) (levetidNanos * FORNY_ETTER_ANDEL_AV_LEVETID),
+                hentet + levetidNanos);
     }
 
-    private String getAccessToken() {
-        return maskinportenklient.getAccessToken(AccessTokenRequest.builder().scope("ks:fiks").build());
+    /**
+     * Gjenstående levetid fra exp i tokenet.
+     */
+    private static Duration levetid(String accessToken) {
+        try {
+            String[] deler = accessToken.split("\\.");
+            JsonNode payload = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(deler[1]));
+            long exp = payload.path("exp").asLong(0);
+            if (exp > 0) {
+                return Duration.ofSeconds(exp).minusMillis(System.currentTimeMillis());
+            }
+        } catch (Exception e) {
+            log.debug("Could not read expiry from Maskinporten access token", e);
+        }
+        return DEFAULT_LEVETID;
     }
 }
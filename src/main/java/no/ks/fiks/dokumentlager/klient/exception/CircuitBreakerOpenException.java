@@ -0,0 +1,18 @@
+package no.ks.fiks.dokumentlager.klient.exception;
+
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private final String navn;
+
+    public CircuitBreakerOpenException(String message, String navn) {
+        super(message);
+        this.navn = navn;
+    }
+
+    /**
+     * "upload" eller "download"
+     */
+    public String getNavn() {
+        return navn;
+    }
+}
@@ -0,0 +1,8 @@
+package no.ks.fiks.dokumentlager.klient.exception;
+
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
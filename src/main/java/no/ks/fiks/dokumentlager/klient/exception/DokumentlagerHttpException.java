@@ -1,14 +1,24 @@
 package no.ks.fiks.dokumentlager.klient.exception;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
 public class DokumentlagerHttpException extends RuntimeException {
 
     private final int status;
     private final String response;
+    private final Map<String, String> httpHeaders;
 
     public DokumentlagerHttpException(String message, int status, String response) {
+        this(message, status, response, Collections.emptyMap());
+    }
+
+    public DokumentlagerHttpException(String message, int status, String response, Map<String, String> httpHeaders) {
         super(message);
         this.status = status;
         this.response = response;
+        this.httpHeaders = httpHeaders;
     }
 
     public int getStatus() {
@@ -18,4 +28,8 @@ public class DokumentlagerHttpException extends RuntimeException {
     public String getResponse() {
         return response;
     }
+
+    public Optional<String> getHeader(String header) {
+        return Optional.ofNullable(httpHeaders.get(header));
+    }
 }
@@ -0,0 +1,108 @@
+package no.ks.fiks.dokumentlager.klient.metrics;
+
+import no.ks.fiks.dokumentlager.klient.model.KrypteringStatistikk;
+import no.ks.fiks.dokumentlager.klient.model.OperasjonStatistikk;
+import no.ks.fiks.dokumentlager.klient.model.Tidsbruk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samler målinger per operasjon i låsefrie tellere og histogrammer, slik at registrering ikke blokkerer kallene.
+ * Statistikken hentes med {@link #statistikk(Operation)} og {@link #krypteringStatistikk()}, f.eks. for eksport til
+ * et eget overvåkingssystem.
+ */
+public class DefaultDokumentlagerMetrics implements DokumentlagerMetrics {
+
+    private final Map<Operation, OperasjonMalinger> malinger = new EnumMap<>(Operation.class);
+    private final Histogram krypteringstid = new Histogram();
+    private final LongAdder krypterteBytes = new LongAdder();
+
+    public DefaultDokumentlagerMetrics() {
+        for (Operation operation : Operation.values()) {
+            malinger.put(operation, new OperasjonMalinger());
+        }
+    }
+
+    private static class OperasjonMalinger {
+        private final LongAdder antallKall = new LongAdder();
+        private final LongAdder antallFeilet = new LongAdder();
+        private final LongAdder antallAktive = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final Map<Integer, LongAdder> statuskoder = new ConcurrentHashMap<>();
+        private final Histogram responstid = new Histogram();
+        private final Histogram ventetid = new Histogram();
+        private final Histogram tilkoblingstid = new Histogram();
+        private final Histogram tidTilForsteByte = new Histogram();
+    }
+
+    @Override
+    public void requestStarted(Operation operation) {
+        malinger.get(operation).antallAktive.increment();
+    }
+
+    @Override
+    public void requestCompleted(Operation operation, int httpStatus, long latencyNanos, long requestBytes, long responseBytes) {
+        OperasjonMalinger operasjon = malinger.get(operation);
+        operasjon.antallAktive.decrement();
+        operasjon.antallKall.increment();
+        if (httpStatus == 0 || httpStatus >= 400) {
+            operasjon.antallFeilet.increment();
+        }
+        if (httpStatus != 0) {
+            operasjon.statuskoder.computeIfAbsent(httpStatus, status -> new LongAdder()).increment();
+        }
+        operasjon.requestBytes.add(requestBytes);
+        if (responseBytes > 0) {
+            operasjon.responseBytes.add(responseBytes);
+        }
+        operasjon.responstid.registrer(latencyNanos);
+    }
+
+    @Override
+    public void requestTimed(Operation operation, Tidsbruk tidsbruk) {
+        OperasjonMalinger operasjon = malinger.get(operation);
+        if (tidsbruk.getTilkoblingNanos() >= 0) {
+            operasjon.tilkoblingstid.registrer(tidsbruk.getTilkoblingNanos());
+        }
+        if (tidsbruk.getVentetPaSvarNanos() >= 0) {
+            operasjon.tidTilForsteByte.registrer(tidsbruk.getVentetPaSvarNanos());
+        }
+    }
+
+    @Override
+    public void queued(Operation operation, long nanos) {
+        malinger.get(operation).ventetid.registrer(nanos);
+    }
+
+    @Override
+    public void encrypted(long nanos, long bytes) {
+        krypteringstid.registrer(nanos);
+        krypterteBytes.add(bytes);
+    }
+
+    public OperasjonStatistikk statistikk(Operation operation) {
+        OperasjonMalinger operasjon = malinger.get(operation);
+        Map<Integer, Long> statuskoder = new TreeMap<>();
+        operasjon.statuskoder.forEach((status, antall) -> statuskoder.put(status, antall.sum()));
+        return new OperasjonStatistikk(
+                operasjon.antallKall.sum(),
+                operasjon.antallFeilet.sum(),
+                operasjon.antallAktive.sum(),
+                operasjon.requestBytes.sum(),
+                operasjon.responseBytes.sum(),
+                statuskoder,
+                operasjon.responstid.tidsfordeling(),
+                operasjon.ventetid.tidsfordeling(),
+                operasjon.tilkoblingstid.tidsfordeling(),
+                operasjon.tidTilForsteByte.tidsfordeling());
+    }
+
+    public KrypteringStatistikk krypteringStatistikk() {
+        return new KrypteringStatistikk(krypterteBytes.sum(), krypteringstid.tidsfordeling());
+    }
+}
@@ -0,0 +1,61 @@
+package no.ks.fiks.dokumentlager.klient.metrics;
+
+import no.ks.fiks.dokumentlager.klient.model.Tidsbruk;
+
+/**
+ * Mottar målinger fra klienten. Metodene kalles på trådene som utfører kallene, ofte Jetty sine, så implementasjoner
+ * må være trådsikre og raske. Alle metoder har en tom default-implementasjon, slik at man kun trenger å implementere
+ * målingene man er interessert i. {@link DefaultDokumentlagerMetrics} samler målingene i histogrammer.
+ */
+public interface DokumentlagerMetrics {
+
+    enum Operation {
+        UPLOAD,
+        UPDATE_METADATA,
+        DELETE,
+        DELETE_BY_KORRELASJONSID,
+        DOWNLOAD,
+        DOWNLOAD_METADATA,
+        SEARCH,
+        PUBLIC_KEY
+    }
+
+    /**
+     * En request er sendt til Jetty. Hvert forsøk ved retry og hedging regnes som egen request.
+     */
+    default void requestStarted(Operation operation) {
+    }
+
+    /**
+     * En request er ferdig, enten med svar eller feil.
+     *
+     * @param httpStatus    0 dersom det ikke ble mottatt noe svar
+     * @param latencyNanos  tid fra requesten ble sendt til Jetty til responsen er ferdig lest
+     * @param requestBytes  antall bytes i request body
+     * @param responseBytes antall bytes i response body som er mottatt
+     */
+    default void requestCompleted(Operation operation, int httpStatus, long latencyNanos, long requestBytes, long responseBytes) {
+    }
+
+    /**
+     * Tidsbruk per fase for en request som er ferdig. Kalles etter {@link #requestCompleted}.
+     */
+    default void requestTimed(Operation operation, Tidsbruk tidsbruk) {
+    }
+
+    /**
+     * Tid en request ventet på autentisering, circuit breaker og begrensning av samtidige kall før den ble sendt.
+     * Registreres kun når requesten faktisk måtte kontrolleres.
+     */
+    default void queued(Operation operation, long nanos) {
+    }
+
+    /**
+     * Et dokument er kryptert under opplasting.
+     *
+     * @param nanos tid brukt på å lese og kryptere dokumentet, uten tid brukt på å sende det
+     * @param bytes antall ukrypterte bytes
+     */
+    default void encrypted(long nanos, long bytes) {
+    }
+}
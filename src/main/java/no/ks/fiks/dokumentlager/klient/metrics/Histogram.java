@@ -0,0 +1,91 @@
+package no.ks.fiks.dokumentlager.klient.metrics;
+
+import no.ks.fiks.dokumentlager.klient.model.Tidsfordeling;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Låsefritt histogram over varigheter i mikrosekunder, etter samme prinsipp som HdrHistogram. Hver toerpotens er delt
+ * i 32 like store bøtter, slik at verdiene gjengis med høyst 1/32 (~3%) avvik. Varigheter over ~12 dager
+ * legges i siste bøtte.
+ */
+class Histogram {
+
+    private static final int UNDERBOTTE_BITS = 5;
+    private static final int UNDERBOTTER = 1 << UNDERBOTTE_BITS;
+    private static final int MAKS_EKSPONENT = 39;
+    private static final long MAKS_VERDI = (1L << (MAKS_EKSPONENT + 1)) - 1;
+    private static final int ANTALL_BOTTER = indeks(MAKS_VERDI) + 1;
+
+    private final AtomicLongArray botter = new AtomicLongArray(ANTALL_BOTTER);
+    private final LongAdder antall = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong maks = new AtomicLong();
+
+    void registrer(long nanos) {
+        long mikros = Math.min(MAKS_VERDI, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        botter.incrementAndGet(indeks(mikros));
+        antall.increment();
+        sum.add(mikros);
+        if (mikros > maks.get()) {
+            maks.accumulateAndGet(mikros, Math::max);
+        }
+    }
+
+    Tidsfordeling tidsfordeling() {
+        long[] kopi = new long[ANTALL_BOTTER];
+        long totalt = 0;
+        for (int i = 0; i < kopi.length; i++) {
+            kopi[i] = botter.get(i);
+            totalt += kopi[i];
+        }
+        long gjennomsnitt = totalt == 0 ? 0 : sum.sum() / totalt;
+        return new Tidsfordeling(
+                totalt,
+                Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(gjennomsnitt)),
+                persentil(kopi, totalt, 0.5),
+                persentil(kopi, totalt, 0.9),
+                persentil(kopi, totalt, 0.99),
+                Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(maks.get())));
+    }
+
+    private static Duration persentil(long[] botter, long totalt, double persentil) {
+        if (totalt == 0) {
+            return Duration.ZERO;
+        }
+        long grense = Math.max(1, (long) Math.ceil(persentil * totalt));
+        long akkumulert = 0;
+        for (int i = 0; i < botter.length; i++) {
+            akkumulert += botter[i];
+            if (akkumulert >= grense) {
+                return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(hoyesteVerdi(i)));
+            }
+        }
+        return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(MAKS_VERDI));
+    }
+
+    static int indeks(long verdi) {
+        if (verdi < UNDERBOTTER) {
+            return (int) verdi;
+        }
+        int eksponent = 63 - Long.numberOfLeadingZeros(verdi);
+        int skift = eksponent - UNDERBOTTE_BITS;
+        return (skift << UNDERBOTTE_BITS) + (int) (verdi >>> skift);
+    }
+
+    /**
+     * Høyeste verdi som havner i bøtten.
+     */
+    static long hoyesteVerdi(int indeks) {
+        if (indeks < 2 * UNDERBOTTER) {
+            return indeks;
+        }
+        int skift = (indeks >>> UNDERBOTTE_BITS) - 1;
+        long topp = UNDERBOTTER + (indeks & (UNDERBOTTER - 1));
+        return ((topp + 1) << skift) - 1;
+    }
+}
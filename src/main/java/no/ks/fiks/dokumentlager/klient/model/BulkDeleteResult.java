@@ -0,0 +1,22 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+@Value
+public class BulkDeleteResult {
+    long antallSlettet;
+    long antallIkkeFunnet;
+    /**
+     * Id-er for dokumenter som ikke kunne slettes av andre årsaker enn at de ikke finnes.
+     */
+    List<UUID> feiledeDokumentIder;
+    Duration varighet;
+
+    public long getAntallFeilet() {
+        return feiledeDokumentIder.size();
+    }
+}
@@ -0,0 +1,12 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+public class BulkMetadataUpdateSummary {
+    long antallOk;
+    long antallFeilet;
+    Duration varighet;
+}
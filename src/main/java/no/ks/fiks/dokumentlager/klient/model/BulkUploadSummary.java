@@ -0,0 +1,26 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+public class BulkUploadSummary {
+    long antallOk;
+    long antallFeilet;
+    long ukryptertStorrelse;
+    Duration varighet;
+
+    public double getDokumenterPerSekund() {
+        return perSekund(antallOk + antallFeilet);
+    }
+
+    public double getBytesPerSekund() {
+        return perSekund(ukryptertStorrelse);
+    }
+
+    private double perSekund(long antall) {
+        long millis = Math.max(varighet.toMillis(), 1);
+        return antall * 1000.0 / millis;
+    }
+}
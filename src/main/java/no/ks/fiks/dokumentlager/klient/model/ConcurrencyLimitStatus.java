@@ -0,0 +1,10 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+@Value
+public class ConcurrencyLimitStatus {
+    int limit;
+    int antallAktive;
+    int antallIKo;
+}
@@ -0,0 +1,17 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+@Value
+public class DokumentCacheStatistikk {
+    long antallTreff;
+    long antallBom;
+    long antallUtkastet;
+    long antallDokumenter;
+    long antallBytes;
+
+    public double getTreffrate() {
+        long totalt = antallTreff + antallBom;
+        return totalt == 0 ? 0.0 : (double) antallTreff / totalt;
+    }
+}
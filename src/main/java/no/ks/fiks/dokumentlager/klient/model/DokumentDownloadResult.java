@@ -0,0 +1,11 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+public class DokumentDownloadResult {
+    long antallBytes;
+    Duration varighet;
+}
@@ -2,14 +2,18 @@ package no.ks.fiks.dokumentlager.klient.model;
 
 import lombok.Builder;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
 
-@Builder
+@Builder(toBuilder = true)
 public class DokumentlagerResponse<T> {
     private final T result;
     private final int httpStatus;
     private final Map<String, String> httpHeaders;
+    @Builder.Default
+    private final int antallForsok = 1;
+    private final Tidsbruk tidsbruk;
 
     public T getResult() {
         return result;
@@ -22,4 +26,23 @@ public class DokumentlagerResponse<T> {
     public Optional<String> getHeader(String header) {
         return Optional.ofNullable(httpHeaders.get(header));
     }
+
+    public Map<String, String> getHttpHeaders() {
+        return httpHeaders == null ? Collections.emptyMap() : Collections.unmodifiableMap(httpHeaders);
+    }
+
+    /**
+     * Antall forsøk som ble brukt for å få responsen, inkludert retries.
+     */
+    public int getAntallForsok() {
+        return antallForsok;
+    }
+
+    /**
+     * Tidsbruk per fase for requesten som ga responsen, når den er sendt med {@link no.ks.fiks.dokumentlager.klient.DokumentlagerApiImpl}
+     * med metrics eller tidsbruk slått på.
+     */
+    public Optional<Tidsbruk> getTidsbruk() {
+        return Optional.ofNullable(tidsbruk);
+    }
 }
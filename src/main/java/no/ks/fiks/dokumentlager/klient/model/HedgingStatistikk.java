@@ -0,0 +1,20 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+public class HedgingStatistikk {
+    long antallKall;
+    long antallHedget;
+    /**
+     * Antall kall der den ekstra requesten svarte først.
+     */
+    long antallHedgeVant;
+    Duration forsinkelse;
+
+    public double getHedgerate() {
+        return antallKall == 0 ? 0.0 : (double) antallHedget / antallKall;
+    }
+}
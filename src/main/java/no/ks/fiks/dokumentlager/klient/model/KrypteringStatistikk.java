@@ -0,0 +1,15 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+@Value
+public class KrypteringStatistikk {
+    /**
+     * Antall ukrypterte bytes.
+     */
+    long antallBytes;
+    /**
+     * Tid brukt på å kryptere hvert dokument.
+     */
+    Tidsfordeling tid;
+}
@@ -1,6 +1,7 @@
 package no.ks.fiks.dokumentlager.klient.model;
 
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -10,7 +11,7 @@ public class LazyDokumentlagerResponse extends DokumentlagerResponse<InputStream
     private DokumentlagerResponseRunner dokumentlagerResponseRunner;
 
     public LazyDokumentlagerResponse(DokumentlagerResponseRunner dokumentlagerResponseRunner) {
-        super(null, 0, null);
+        super(null, 0, null, 1, null);
         this.dokumentlagerResponseRunner = dokumentlagerResponseRunner;
     }
 
@@ -38,4 +39,28 @@ public class LazyDokumentlagerResponse extends DokumentlagerResponse<InputStream
         return dokumentlagerResponse.get().getHeader(header);
     }
 
+    @Override
+    public Map<String, String> getHttpHeaders() {
+        if (dokumentlagerResponse.get() == null) {
+            dokumentlagerResponse.set(dokumentlagerResponseRunner.run());
+        }
+        return dokumentlagerResponse.get().getHttpHeaders();
+    }
+
+    @Override
+    public int getAntallForsok() {
+        if (dokumentlagerResponse.get() == null) {
+            dokumentlagerResponse.set(dokumentlagerResponseRunner.run());
+        }
+        return dokumentlagerResponse.get().getAntallForsok();
+    }
+
+    @Override
+    public Optional<Tidsbruk> getTidsbruk() {
+        if (dokumentlagerResponse.get() == null) {
+            dokumentlagerResponse.set(dokumentlagerResponseRunner.run());
+        }
+        return dokumentlagerResponse.get().getTidsbruk();
+    }
+
 }
@@ -0,0 +1,15 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+@Value
+public class MetadataCacheStatistikk {
+    long antallTreff;
+    long antallBom;
+    long antallDokumenter;
+
+    public double getTreffrate() {
+        long totalt = antallTreff + antallBom;
+        return totalt == 0 ? 0.0 : (double) antallTreff / totalt;
+    }
+}
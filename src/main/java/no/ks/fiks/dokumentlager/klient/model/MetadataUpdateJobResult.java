@@ -0,0 +1,16 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.util.UUID;
+
+@Value
+public class MetadataUpdateJobResult {
+    UUID dokumentId;
+    DokumentlagerResponse<DokumentMetadataUpdateResult> response;
+    Throwable failure;
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+}
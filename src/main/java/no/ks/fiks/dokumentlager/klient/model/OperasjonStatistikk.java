@@ -0,0 +1,38 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.util.Map;
+
+@Value
+public class OperasjonStatistikk {
+    long antallKall;
+    /**
+     * Kall som feilet uten svar, eller fikk en 4xx- eller 5xx-status.
+     */
+    long antallFeilet;
+    long antallAktive;
+    long requestBytes;
+    /**
+     * Summen av Content-Length for responser der den var kjent.
+     */
+    long responseBytes;
+    Map<Integer, Long> statuskoder;
+    Tidsfordeling responstid;
+    /**
+     * Tid kall ventet på autentisering og ledig kapasitet før de ble sendt.
+     */
+    Tidsfordeling ventetid;
+    /**
+     * Tid fra requesten ble sendt til Jetty til den fikk en tilkobling, inkludert oppretting av nye tilkoblinger.
+     */
+    Tidsfordeling tilkoblingstid;
+    /**
+     * Tid fra requesten var sendt til første byte av svaret.
+     */
+    Tidsfordeling tidTilForsteByte;
+
+    public double getFeilrate() {
+        return antallKall == 0 ? 0.0 : (double) antallFeilet / antallKall;
+    }
+}
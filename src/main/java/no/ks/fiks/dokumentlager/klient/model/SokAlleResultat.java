@@ -0,0 +1,15 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class SokAlleResultat {
+    List<Soketreff> dokumenter;
+    int totaltAntallTreff;
+    /**
+     * False dersom antall treff endret seg mens søket pågikk, og dokumenter derfor kan mangle eller være med flere ganger.
+     */
+    boolean komplett;
+}
@@ -0,0 +1,42 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Tid brukt i hver fase av én request, i nanosekunder. Faser som ikke ble nådd, eller ikke var ferdige da responsen
+ * ble returnert, f.eks. lesing ved nedlasting som strøm, er -1. Jetty måler ikke DNS-oppslag, tilkobling og
+ * TLS-handshake per request, så når requesten må vente på en ny tilkobling inngår dette i tilkoblingstiden.
+ */
+@Value
+public class Tidsbruk {
+    /**
+     * Venting på autentisering, circuit breaker og begrensning av samtidige kall før requesten ble sendt til Jetty.
+     */
+    long ventetidNanos;
+    /**
+     * Fra requesten ble sendt til Jetty til den fikk en tilkobling fra poolen.
+     */
+    long tilkoblingNanos;
+    /**
+     * Sending av headere og body.
+     */
+    long sendingNanos;
+    /**
+     * Fra requesten var sendt til første byte av svaret, det vil si tiden Dokumentlager brukte på å behandle requesten.
+     */
+    long ventetPaSvarNanos;
+    /**
+     * Fra svaret startet til det var ferdig lest.
+     */
+    long lesingNanos;
+
+    /**
+     * Summen av fasene som ble målt.
+     */
+    public Duration getTotal() {
+        return Duration.ofNanos(Math.max(0, ventetidNanos) + Math.max(0, tilkoblingNanos) + Math.max(0, sendingNanos)
+                + Math.max(0, ventetPaSvarNanos) + Math.max(0, lesingNanos));
+    }
+}
@@ -0,0 +1,18 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Fordeling av målte varigheter. Persentilene er øvre grense for bøtten verdien havnet i, med høyst ~3% avvik.
+ */
+@Value
+public class Tidsfordeling {
+    long antall;
+    Duration gjennomsnitt;
+    Duration p50;
+    Duration p90;
+    Duration p99;
+    Duration maks;
+}
@@ -0,0 +1,27 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+@Value
+@Builder
+public class UploadJob {
+    /**
+     * Åpnes først når opplastingen starter, og lukkes når den er ferdig.
+     */
+    @NonNull
+    Callable<InputStream> dokumentStream;
+    @NonNull
+    DokumentMetadataUpload metadata;
+    @NonNull
+    UUID fiksOrganisasjonId;
+    @NonNull
+    UUID kontoId;
+    boolean skalKrypteres;
+    long maksStorrelse;
+}
@@ -0,0 +1,14 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+@Value
+public class UploadJobResult {
+    UploadJob job;
+    DokumentlagerResponse<DokumentMetadataUploadResult> response;
+    Throwable failure;
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+}
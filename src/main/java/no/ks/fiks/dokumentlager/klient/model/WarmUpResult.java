@@ -0,0 +1,24 @@
+package no.ks.fiks.dokumentlager.klient.model;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+@Value
+public class WarmUpResult {
+    /**
+     * Tidsbruk per fase, i rekkefølgen fasene ble kjørt.
+     */
+    Map<String, Duration> faser;
+    Set<String> feiledeFaser;
+
+    public Duration getVarighet() {
+        return faser.values().stream().reduce(Duration.ZERO, Duration::plus);
+    }
+
+    public boolean isOk() {
+        return feiledeFaser.isEmpty();
+    }
+}
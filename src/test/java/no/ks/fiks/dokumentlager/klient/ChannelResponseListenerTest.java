@@ -0,0 +1,67 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import org.eclipse.jetty.client.Response;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.io.content.ByteBufferContentSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChannelResponseListenerTest {
+
+    @Test
+    @DisplayName("Innholdet skal skrives direkte til kanalen, og Content-Length sendes videre")
+    void skriverTilKanal() {
+        byte[] data = new byte[100_000];
+        new Random().nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicLong contentLength = new AtomicLong();
+        Response response = response(200, data.length);
+
+        ChannelResponseListener listener = new ChannelResponseListener(Channels.newChannel(out), contentLength::set);
+        listener.onHeaders(response);
+        listener.onContentSource(response, new ByteBufferContentSource(ByteBuffer.wrap(data)));
+
+        assertThat(contentLength.get(), is((long) data.length));
+        assertThat(listener.getAntallBytes(), is((long) data.length));
+        assertThat(out.toByteArray(), is(data));
+        assertThat(listener.getErrorContent(), is(nullValue()));
+    }
+
+    @Test
+    @DisplayName("Ved feilstatus skal innholdet samles opp som feilmelding og ikke skrives til kanalen")
+    void feilstatus() {
+        byte[] feilmelding = "Ikke funnet".getBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Response response = response(404, feilmelding.length);
+
+        ChannelResponseListener listener = new ChannelResponseListener(Channels.newChannel(out), contentLength -> {
+            throw new AssertionError("Content-Length skal ikke håndteres ved feilstatus");
+        });
+        listener.onHeaders(response);
+        listener.onContentSource(response, new ByteBufferContentSource(ByteBuffer.wrap(feilmelding)));
+
+        assertThat(listener.getAntallBytes(), is(0L));
+        assertThat(out.size(), is(0));
+        assertThat(listener.getErrorContent(), is("Ikke funnet"));
+    }
+
+    private static Response response(int status, long contentLength) {
+        Response response = mock(Response.class);
+        when(response.getStatus()).thenReturn(status);
+        when(response.getHeaders()).thenReturn(HttpFields.build().put(HttpHeader.CONTENT_LENGTH, contentLength));
+        return response;
+    }
+}
@@ -0,0 +1,121 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.CircuitBreakerConfiguration.State;
+import no.ks.fiks.dokumentlager.klient.exception.CircuitBreakerOpenException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+
+    private final List<String> overganger = new ArrayList<>();
+
+    private final CircuitBreakerConfiguration configuration = CircuitBreakerConfiguration.builder()
+            .failureRateThreshold(0.5)
+            .slowCallRateThreshold(0.5)
+            .slowCallDuration(Duration.ofSeconds(1))
+            .slidingWindowSize(10)
+            .minimumNumberOfCalls(4)
+            .waitDurationInOpenState(Duration.ofMillis(50))
+            .permittedCallsInHalfOpenState(2)
+            .stateListener((navn, fra, til) -> overganger.add(navn + ":" + fra + "->" + til))
+            .build();
+
+    @Test
+    @DisplayName("Circuit breakeren skal åpnes når andelen feilede kall når terskelen, og avvise kall mens den er åpen")
+    void apnesVedFeil() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("download", configuration);
+
+        kall(circuitBreaker, false, 0);
+        kall(circuitBreaker, true, 0);
+        kall(circuitBreaker, false, 0);
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        kall(circuitBreaker, true, 0);
+
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+        CircuitBreakerOpenException e = assertThrows(CircuitBreakerOpenException.class, circuitBreaker::tillatKall);
+        assertThat(e.getNavn(), is("download"));
+        assertThat(overganger, is(List.of("download:CLOSED->OPEN")));
+    }
+
+    @Test
+    @DisplayName("Circuit breakeren skal åpnes når andelen trege kall når terskelen")
+    void apnesVedTregeKall() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("upload", configuration);
+
+        for (int i = 0; i < 4; i++) {
+            kall(circuitBreaker, false, Duration.ofSeconds(2).toNanos());
+        }
+
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+    }
+
+    @Test
+    @DisplayName("Etter ventetiden skal prøvekall slippes gjennom, og circuit breakeren lukkes når de lykkes")
+    void halvapenTilLukket() throws InterruptedException {
+        CircuitBreaker circuitBreaker = apnet();
+        Thread.sleep(100);
+
+        long forste = circuitBreaker.tillatKall();
+        long andre = circuitBreaker.tillatKall();
+        assertThat(circuitBreaker.getState(), is(State.HALF_OPEN));
+        assertThrows(CircuitBreakerOpenException.class, circuitBreaker::tillatKall);
+
+        circuitBreaker.registrerUtfall(forste, false, 0);
+        circuitBreaker.registrerUtfall(andre, false, 0);
+
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        assertThat(overganger, is(List.of("upload:CLOSED->OPEN", "upload:OPEN->HALF_OPEN", "upload:HALF_OPEN->CLOSED")));
+    }
+
+    @Test
+    @DisplayName("Et feilet prøvekall skal åpne circuit breakeren igjen")
+    void halvapenTilApen() throws InterruptedException {
+        CircuitBreaker circuitBreaker = apnet();
+        Thread.sleep(100);
+
+        circuitBreaker.registrerUtfall(circuitBreaker.tillatKall(), true, 0);
+
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+        assertThrows(CircuitBreakerOpenException.class, circuitBreaker::tillatKall);
+    }
+
+    @Test
+    @DisplayName("Utfall av kall startet før circuit breakeren ble åpnet skal ikke påvirke prøvekallene")
+    void gamleKallIgnoreres() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("upload", configuration);
+        long gammeltKall = circuitBreaker.tillatKall();
+        for (int i = 0; i < 4; i++) {
+            kall(circuitBreaker, true, 0);
+        }
+        Thread.sleep(100);
+        long provekall = circuitBreaker.tillatKall();
+
+        circuitBreaker.registrerUtfall(gammeltKall, true, 0);
+        assertThat(circuitBreaker.getState(), is(State.HALF_OPEN));
+
+        circuitBreaker.registrerUtfall(provekall, false, 0);
+        circuitBreaker.registrerUtfall(circuitBreaker.tillatKall(), false, 0);
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+    }
+
+    private CircuitBreaker apnet() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("upload", configuration);
+        for (int i = 0; i < 4; i++) {
+            kall(circuitBreaker, true, 0);
+        }
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+        return circuitBreaker;
+    }
+
+    private static void kall(CircuitBreaker circuitBreaker, boolean feilet, long varighetNanos) {
+        circuitBreaker.registrerUtfall(circuitBreaker.tillatKall(), feilet, varighetNanos);
+    }
+}
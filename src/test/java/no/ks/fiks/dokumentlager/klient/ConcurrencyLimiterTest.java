@@ -0,0 +1,110 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.exception.ConcurrencyLimitExceededException;
+import no.ks.fiks.dokumentlager.klient.model.ConcurrencyLimitStatus;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConcurrencyLimiterTest {
+
+    private final ConcurrencyLimitConfiguration configuration = ConcurrencyLimitConfiguration.builder()
+            .initialLimit(2)
+            .minLimit(1)
+            .maxLimit(4)
+            .backoffRatio(0.5)
+            .maxLatency(Duration.ofSeconds(1))
+            .maxQueueSize(1)
+            .maxQueueWait(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    @DisplayName("Kall over grensen skal vente i kø, og slippes inn når et aktivt kall er ferdig")
+    void koVedFullKapasitet() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("upload", configuration);
+        ConcurrencyLimiter.Tillatelse forste = limiter.acquire().join();
+        limiter.acquire().join();
+
+        CompletableFuture<ConcurrencyLimiter.Tillatelse> tredje = limiter.acquire();
+        assertThat(tredje.isDone(), is(false));
+        assertThat(limiter.status(), is(new ConcurrencyLimitStatus(2, 2, 1)));
+
+        forste.frigiUtenMaling();
+
+        assertThat(tredje.isDone(), is(true));
+        assertThat(limiter.status(), is(new ConcurrencyLimitStatus(2, 2, 0)));
+    }
+
+    @Test
+    @DisplayName("Kall skal avvises når køen er full")
+    void fullKo() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("upload", configuration);
+        limiter.acquire().join();
+        limiter.acquire().join();
+        limiter.acquire();
+
+        CompletionException e = assertThrows(CompletionException.class, () -> limiter.acquire().join());
+        assertThat(e.getCause(), instanceOf(ConcurrencyLimitExceededException.class));
+    }
+
+    @Test
+    @DisplayName("Kall skal avvises når ventetiden i køen er brukt opp, eller umiddelbart uten kø")
+    void ventetidBruktOpp() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("download", configuration.toBuilder().maxQueueWait(Duration.ofMillis(20)).build());
+        limiter.acquire().join();
+        limiter.acquire().join();
+
+        CompletionException e = assertThrows(CompletionException.class, () -> limiter.acquire().join());
+        assertThat(e.getCause(), instanceOf(ConcurrencyLimitExceededException.class));
+        assertThat(limiter.status().getAntallIKo(), is(0));
+
+        ConcurrencyLimiter utenKo = new ConcurrencyLimiter("download", configuration.toBuilder().maxQueueWait(Duration.ZERO).build());
+        utenKo.acquire().join();
+        utenKo.acquire().join();
+        assertThat(utenKo.acquire().isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    @DisplayName("Grensen skal økes med én per grensens antall vellykkede kall, og reduseres ved overbelastning og treg respons")
+    void aimd() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("metadata", configuration);
+        ConcurrencyLimiter.Tillatelse aktiv = limiter.acquire().join();
+
+        limiter.acquire().join().frigi(false, 0);
+        assertThat(limiter.status().getLimit(), is(2));
+        limiter.acquire().join().frigi(false, 0);
+        assertThat(limiter.status().getLimit(), is(3));
+        aktiv.frigiUtenMaling();
+        limiter.acquire().join().frigi(true, 0);
+        assertThat(limiter.status().getLimit(), is(1));
+        limiter.acquire().join().frigi(false, Duration.ofSeconds(2).toNanos());
+        assertThat(limiter.status().getLimit(), is(1));
+        limiter.acquire().join().frigiUtenMaling();
+        assertThat(limiter.status().getLimit(), is(1));
+    }
+
+    @Test
+    @DisplayName("Grensen skal kun økes når minst halvparten av den er i bruk")
+    void ingenOkningVedLavLast() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("search", configuration.toBuilder().initialLimit(4).maxLimit(10).build());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire().join().frigi(false, 0);
+        }
+
+        assertThat(limiter.status().getLimit(), is(4));
+        limiter.acquire().join();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire().join().frigi(false, 0);
+        }
+        assertThat(limiter.status().getLimit(), is(5));
+    }
+}
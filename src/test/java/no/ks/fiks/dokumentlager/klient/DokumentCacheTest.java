@@ -0,0 +1,200 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.DokumentCacheStatistikk;
+import no.ks.fiks.dokumentlager.klient.model.DokumentDownloadResult;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class DokumentCacheTest {
+
+    @TempDir
+    Path katalog;
+
+    @Test
+    @DisplayName("Et dokument som er cachet skal leses fra disk uten ny nedlasting")
+    void treffEtterBom() throws IOException {
+        DokumentCache cache = new DokumentCache(katalog, 1000);
+        byte[] data = tilfeldigeBytes(100);
+        AtomicInteger antallNedlastinger = new AtomicInteger();
+        UUID dokumentId = UUID.randomUUID();
+
+        assertArrayEquals(data, les(cache.hent(dokumentId, nedlaster(data, antallNedlastinger))));
+        DokumentlagerResponse<InputStream> response = cache.hent(dokumentId, nedlaster(data, antallNedlastinger));
+        assertArrayEquals(data, les(response));
+
+        assertThat(antallNedlastinger.get(), is(1));
+        assertThat(response.getHeader("header").get(), is("value"));
+        DokumentCacheStatistikk statistikk = cache.statistikk();
+        assertThat(statistikk.getAntallTreff(), is(1L));
+        assertThat(statistikk.getAntallBom(), is(1L));
+        assertThat(statistikk.getAntallBytes(), is(100L));
+    }
+
+    @Test
+    @DisplayName("Når cachen er full skal minst nylig brukte dokument kastes ut")
+    void kastUtMinstNyligBrukte() throws IOException {
+        DokumentCache cache = new DokumentCache(katalog, 250);
+        AtomicInteger antallNedlastinger = new AtomicInteger();
+        UUID forste = UUID.randomUUID();
+        UUID andre = UUID.randomUUID();
+        UUID tredje = UUID.randomUUID();
+
+        les(cache.hent(forste, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+        les(cache.hent(andre, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+        les(cache.hent(forste, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+        les(cache.hent(tredje, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+        les(cache.hent(forste, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+        les(cache.hent(andre, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+
+        assertThat(antallNedlastinger.get(), is(4));
+        assertThat(cache.statistikk().getAntallUtkastet(), is(2L));
+        assertThat(cache.statistikk().getAntallBytes(), is(200L));
+        try (var filer = Files.list(katalog)) {
+            assertThat(filer.count(), is(2L));
+        }
+    }
+
+    @Test
+    @DisplayName("Invalidering skal slette dokumentet fra cachen")
+    void invalider() throws IOException {
+        DokumentCache cache = new DokumentCache(katalog, 1000);
+        AtomicInteger antallNedlastinger = new AtomicInteger();
+        UUID dokumentId = UUID.randomUUID();
+
+        les(cache.hent(dokumentId, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+        cache.invalider(dokumentId);
+        les(cache.hent(dokumentId, nedlaster(tilfeldigeBytes(100), antallNedlastinger)));
+
+        assertThat(antallNedlastinger.get(), is(2));
+    }
+
+    @Test
+    @DisplayName("Et dokument som invalideres mens det lastes ned skal ikke legges i cachen")
+    void invaliderUnderNedlasting() throws Exception {
+        DokumentCache cache = new DokumentCache(katalog, 1000);
+        byte[] data = tilfeldigeBytes(100);
+        AtomicInteger antallNedlastinger = new AtomicInteger();
+        CountDownLatch startet = new CountDownLatch(1);
+        CountDownLatch slipp = new CountDownLatch(1);
+        UUID dokumentId = UUID.randomUUID();
+
+        FutureTask<byte[]> nedlasting = new FutureTask<>(() -> les(cache.hent(dokumentId, ventendeNedlaster(data, antallNedlastinger, startet, slipp))));
+        new Thread(nedlasting).start();
+        startet.await();
+        cache.invalider(dokumentId);
+        slipp.countDown();
+
+        assertArrayEquals(data, nedlasting.get(5, TimeUnit.SECONDS));
+        assertThat(cache.statistikk().getAntallDokumenter(), is(0L));
+        les(cache.hent(dokumentId, nedlaster(data, antallNedlastinger)));
+        assertThat(antallNedlastinger.get(), is(2));
+    }
+
+    @Test
+    @DisplayName("Samtidige oppslag på et dokument som lastes ned skal dele nedlastingen")
+    void samtidigeBomDelerNedlasting() throws Exception {
+        DokumentCache cache = new DokumentCache(katalog, 1000);
+        byte[] data = tilfeldigeBytes(100);
+        AtomicInteger antallNedlastinger = new AtomicInteger();
+        CountDownLatch startet = new CountDownLatch(1);
+        CountDownLatch slipp = new CountDownLatch(1);
+        UUID dokumentId = UUID.randomUUID();
+
+        FutureTask<byte[]> forste = new FutureTask<>(() -> les(cache.hent(dokumentId, ventendeNedlaster(data, antallNedlastinger, startet, slipp))));
+        new Thread(forste).start();
+        startet.await();
+        FutureTask<byte[]> andre = new FutureTask<>(() -> les(cache.hent(dokumentId, nedlaster(data, antallNedlastinger))));
+        Thread andreTrad = new Thread(andre);
+        andreTrad.start();
+        while (andreTrad.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        slipp.countDown();
+
+        assertArrayEquals(data, forste.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(data, andre.get(5, TimeUnit.SECONDS));
+        assertThat(antallNedlastinger.get(), is(1));
+        assertThat(cache.statistikk().getAntallBom(), is(2L));
+        assertThat(cache.statistikk().getAntallDokumenter(), is(1L));
+    }
+
+    @Test
+    @DisplayName("Dokumenter større enn cachen skal returneres uten å caches")
+    void forStortForCachen() throws IOException {
+        DokumentCache cache = new DokumentCache(katalog, 10);
+        byte[] data = tilfeldigeBytes(100);
+
+        assertArrayEquals(data, les(cache.hent(UUID.randomUUID(), nedlaster(data, new AtomicInteger()))));
+
+        assertThat(cache.statistikk().getAntallDokumenter(), is(0L));
+        try (var filer = Files.list(katalog)) {
+            assertThat(filer.count(), is(0L));
+        }
+    }
+
+    private static Function<Path, DokumentlagerResponse<DokumentDownloadResult>> nedlaster(byte[] data, AtomicInteger antallNedlastinger) {
+        return fil -> {
+            antallNedlastinger.incrementAndGet();
+            try {
+                Files.write(fil, data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return DokumentlagerResponse.<DokumentDownloadResult>builder()
+                    .result(new DokumentDownloadResult(data.length, Duration.ZERO))
+                    .httpStatus(200)
+                    .httpHeaders(singletonMap("header", "value"))
+                    .build();
+        };
+    }
+
+    private static Function<Path, DokumentlagerResponse<DokumentDownloadResult>> ventendeNedlaster(byte[] data,
+                                                                                                 AtomicInteger antallNedlastinger,
+                                                                                                 CountDownLatch startet,
+                                                                                                 CountDownLatch slipp) {
+        Function<Path, DokumentlagerResponse<DokumentDownloadResult>> nedlaster = nedlaster(data, antallNedlastinger);
+        return fil -> {
+            DokumentlagerResponse<DokumentDownloadResult> response = nedlaster.apply(fil);
+            startet.countDown();
+            try {
+                slipp.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return response;
+        };
+    }
+
+    private static byte[] les(DokumentlagerResponse<InputStream> response) throws IOException {
+        try (InputStream stream = response.getResult()) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private static byte[] tilfeldigeBytes(int antall) {
+        byte[] data = new byte[antall];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
@@ -1,12 +1,57 @@
 package no.ks.fiks.dokumentlager.klient;
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import no.ks.fiks.dokumentlager.klient.authentication.AsyncAuthenticationStrategy;
+import no.ks.fiks.dokumentlager.klient.exception.CircuitBreakerOpenException;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerHttpException;
+import no.ks.fiks.dokumentlager.klient.metrics.DefaultDokumentlagerMetrics;
+import no.ks.fiks.dokumentlager.klient.metrics.DokumentlagerMetrics;
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUpdate;
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUpload;
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUploadResult;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+import no.ks.fiks.dokumentlager.klient.model.OperasjonStatistikk;
+import no.ks.fiks.dokumentlager.klient.model.Soketreff;
+import no.ks.fiks.dokumentlager.klient.model.Tidsbruk;
+import no.ks.fiks.dokumentlager.klient.model.WarmUpResult;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.PathRequestContent;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class DokumentlagerApiImplTest {
@@ -30,4 +75,599 @@ class DokumentlagerApiImplTest {
         builder.build();
     }
 
+    @Test
+    @DisplayName("Test at klienten kan bygges med egen tilkoblingskonfigurasjon for upload og download")
+    void builderMedConnectionConfiguration() {
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("https://upload.example.com")
+                .downloadBaseUrl("https://download.example.com")
+                .authenticationStrategy(request -> { })
+                .httpConfiguration(HttpConfiguration.builder()
+                        .uploadConnection(ConnectionConfiguration.builder()
+                                .maxConnectionsPerDestination(8)
+                                .httpVersion(ConnectionConfiguration.HttpVersion.HTTP_2)
+                                .sendBufferSize(256 * 1024)
+                                .connectTimeout(Duration.ofSeconds(2))
+                                .build())
+                        .downloadConnection(ConnectionConfiguration.builder()
+                                .maxRequestsQueuedPerDestination(10)
+                                .poolStrategy(ConnectionConfiguration.PoolStrategy.DUPLEX)
+                                .receiveBufferSize(256 * 1024)
+                                .build())
+                        .build())
+                .build();
+        api.close();
+    }
+
+    @Test
+    @DisplayName("Test at MULTIPLEX avvises med HTTP/1.1")
+    void multiplexKreverHttp2() {
+        DokumentlagerApiImpl.DokumentlagerApiImplBuilder builder = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("https://upload.example.com")
+                .downloadBaseUrl("https://download.example.com")
+                .authenticationStrategy(request -> { })
+                .httpConfiguration(HttpConfiguration.builder()
+                        .uploadConnection(ConnectionConfiguration.builder()
+                                .poolStrategy(ConnectionConfiguration.PoolStrategy.MULTIPLEX)
+                                .build())
+                        .build());
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, builder::build);
+        assertThat(exception.getMessage(), is("Pool strategy MULTIPLEX requires HTTP/2"));
+    }
+
+    @Test
+    @DisplayName("Test at HTTP/2 faller tilbake til HTTP/1.1 mot en http://-url uten å forsøke h2c")
+    void http2MotHttpBrukerHttp11() throws IOException {
+        HttpServer server = startOkServer(exchange -> exchange.getProtocol());
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .httpConfiguration(HttpConfiguration.builder()
+                        .uploadConnection(ConnectionConfiguration.builder()
+                                .httpVersion(ConnectionConfiguration.HttpVersion.HTTP_2)
+                                .build())
+                        .build())
+                .build();
+
+        try {
+            assertThat(api.getPublicKey().getResult(), is("HTTP/1.1"));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at upload og download deler klient og tilkoblinger når konfigurasjonen og base-url er lik")
+    void delKlientVedLikKonfigurasjon() {
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy(request -> { })
+                .httpConfiguration(HttpConfiguration.builder()
+                        .uploadConnection(ConnectionConfiguration.builder().maxConnectionsPerDestination(8).build())
+                        .downloadConnection(ConnectionConfiguration.builder().maxConnectionsPerDestination(8).build())
+                        .build())
+                .build();
+
+        WarmUpResult result = api.warmUp();
+        api.close();
+
+        assertThat(result.getFaser().keySet(), contains("upload-tilkoblinger", "json"));
+    }
+
+    @Test
+    @DisplayName("Test at warm-up tar tiden på hver fase, og at feilende tilkoblinger ikke stopper de andre fasene")
+    void warmUp() {
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:2")
+                .authenticationStrategy(request -> { })
+                .build();
+
+        WarmUpResult result = api.warmUp();
+        api.close();
+
+        assertThat(result.getFaser().keySet(), contains("upload-tilkoblinger", "download-tilkoblinger", "json"));
+        assertThat(result.getFeiledeFaser(), containsInAnyOrder("upload-tilkoblinger", "download-tilkoblinger"));
+        assertThat(result.isOk(), is(false));
+    }
+
+    @Test
+    @DisplayName("Test at circuit breakeren for download åpnes når tilkobling feiler, uten å påvirke upload")
+    void circuitBreaker() {
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy(request -> { })
+                .circuitBreaker(CircuitBreakerConfiguration.builder()
+                        .minimumNumberOfCalls(2)
+                        .waitDurationInOpenState(Duration.ofMinutes(1))
+                        .build())
+                .build();
+
+        UUID dokumentId = UUID.randomUUID();
+        assertThrows(RuntimeException.class, () -> api.downloadDokumentMetadata(dokumentId));
+        assertThrows(RuntimeException.class, () -> api.downloadDokumentMetadata(dokumentId));
+        CircuitBreakerOpenException exception = assertThrows(CircuitBreakerOpenException.class, () -> api.downloadDokumentMetadata(dokumentId));
+
+        assertThat(exception.getNavn(), is("download"));
+        assertThat(api.getDownloadCircuitBreakerState().get(), is(CircuitBreakerConfiguration.State.OPEN));
+        assertThat(api.getUploadCircuitBreakerState().get(), is(CircuitBreakerConfiguration.State.CLOSED));
+        api.close();
+    }
+
+    @Test
+    @DisplayName("Test at tiden det tar å sende dokumentet ikke regnes som et tregt kall i circuit breakeren")
+    void circuitBreakerMalerTidTilSvar() throws IOException {
+        HttpServer server = startOkServer(exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            return "{\"id\":\"" + UUID.randomUUID() + "\",\"dokumentnavn\":\"dokument.pdf\"}";
+        });
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .circuitBreaker(CircuitBreakerConfiguration.builder()
+                        .minimumNumberOfCalls(1)
+                        .slowCallDuration(Duration.ofMillis(500))
+                        .waitDurationInOpenState(Duration.ofMinutes(1))
+                        .build())
+                .build();
+        InputStream tregtDokument = new SequenceInputStream(new ByteArrayInputStream(new byte[1000]), new InputStream() {
+            private boolean lest;
+
+            @Override
+            public int read() {
+                if (!lest) {
+                    lest = true;
+                    try {
+                        Thread.sleep(1500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return -1;
+            }
+        });
+
+        try {
+            api.uploadDokument(tregtDokument, DokumentMetadataUpload.builder().dokumentnavn("dokument.pdf").build(), UUID.randomUUID(), UUID.randomUUID(), false);
+
+            assertThat(api.getUploadCircuitBreakerState().get(), is(CircuitBreakerConfiguration.State.CLOSED));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at asynkrone kall ikke venter på asynkron autentisering, og at interceptoren ser autentiseringsheaderne")
+    void asyncAuthenticationStrategy() {
+        CompletableFuture<Void> token = new CompletableFuture<>();
+        List<String> interceptet = new ArrayList<>();
+        AsyncAuthenticationStrategy authenticationStrategy = request -> token.thenRun(() -> request.headers(headers -> headers.add("Authorization", "Bearer token")));
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy(authenticationStrategy)
+                .requestInterceptor(request -> {
+                    interceptet.add(request.getHeaders().get("Authorization"));
+                    return request;
+                })
+                .build();
+
+        CompletableFuture<?> response = api.downloadDokumentMetadataAsync(UUID.randomUUID());
+        assertThat(response.isDone(), is(false));
+        assertThat(interceptet.isEmpty(), is(true));
+
+        token.complete(null);
+
+        assertThrows(Exception.class, response::join);
+        assertThat(interceptet, contains("Bearer token"));
+        api.close();
+    }
+
+    @Test
+    @DisplayName("Test at requesten interceptoren returnerer er den som sendes, også når autentiseringen fullføres senere")
+    void interceptorResultatSendes() throws Exception {
+        HttpServer server = startOkServer(exchange -> exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("X-Token"));
+        HttpClient interceptorKlient = new HttpClient();
+        interceptorKlient.start();
+        CompletableFuture<Void> token = new CompletableFuture<>();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy((AsyncAuthenticationStrategy) request -> token.thenRun(() -> request.headers(headers -> headers.add("X-Token", "token"))))
+                .requestInterceptor(request -> interceptorKlient.newRequest("http://localhost:" + server.getAddress().getPort())
+                        .method(request.getMethod())
+                        .path(request.getPath())
+                        .headers(headers -> headers.add(request.getHeaders())))
+                .build();
+
+        try {
+            CompletableFuture<DokumentlagerResponse<String>> asynkron = api.getPublicKeyAsync();
+            token.complete(null);
+
+            assertThat(asynkron.join().getResult(), is("GET token"));
+            assertThat(api.getPublicKey().getResult(), is("GET token"));
+        } finally {
+            api.close();
+            interceptorKlient.stop();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at feil i asynkron autentisering gjør at kallet feiler uten at requesten sendes")
+    void asyncAuthenticationStrategyFeiler() {
+        List<String> interceptet = new ArrayList<>();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy((AsyncAuthenticationStrategy) request -> CompletableFuture.failedFuture(new IllegalStateException("token")))
+                .requestInterceptor(request -> {
+                    interceptet.add(request.getHeaders().get("Authorization"));
+                    return request;
+                })
+                .build();
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> api.downloadDokumentMetadata(UUID.randomUUID()));
+
+        assertThat(exception.getMessage(), is("token"));
+        assertThat(interceptet.isEmpty(), is(true));
+        api.close();
+    }
+
+    @Test
+    @DisplayName("Test at feil i asynkron autentisering ikke holder på tillatelser fra begrensningen av samtidige kall")
+    void asyncAuthenticationStrategyFeilerMedConcurrencyLimit() {
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy((AsyncAuthenticationStrategy) request -> CompletableFuture.failedFuture(new IllegalStateException("token")))
+                .concurrencyLimit(ConcurrencyLimitConfiguration.builder().initialLimit(1).minLimit(1).maxLimit(1).build())
+                .build();
+
+        assertThrows(IllegalStateException.class, () -> api.downloadDokumentMetadata(UUID.randomUUID()));
+        assertThrows(Exception.class, () -> api.downloadDokumentMetadataAsync(UUID.randomUUID()).join());
+        assertThrows(Exception.class, () -> api.updateDokumentMetadataAsync(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), DokumentMetadataUpdate.builder().build()).join());
+
+        assertThat(api.getConcurrencyLimitStatus(ConcurrencyLimitConfiguration.Operation.METADATA).get().getAntallAktive(), is(0));
+        api.close();
+    }
+
+    @Test
+    @DisplayName("Test at tillatelsen frigis når et asynkront kall avbrytes mens det venter i kø og derfor aldri sendes")
+    void avbruttIKoFrigirTillatelse() throws Exception {
+        CountDownLatch slipp = new CountDownLatch(1);
+        HttpServer server = startServer(exchange -> {
+            try {
+                slipp.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "{}");
+        });
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:" + server.getAddress().getPort())
+                .downloadBaseUrl("http://localhost:" + server.getAddress().getPort())
+                .authenticationStrategy(request -> { })
+                .concurrencyLimit(ConcurrencyLimitConfiguration.builder().initialLimit(1).minLimit(1).maxLimit(1).build())
+                .build();
+
+        try {
+            CompletableFuture<?> forste = api.updateDokumentMetadataAsync(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), DokumentMetadataUpdate.builder().build());
+            CompletableFuture<?> andre = api.updateDokumentMetadataAsync(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), DokumentMetadataUpdate.builder().build());
+            assertThat(api.getConcurrencyLimitStatus(ConcurrencyLimitConfiguration.Operation.METADATA).get().getAntallIKo(), is(1));
+
+            andre.cancel(false);
+            slipp.countDown();
+            forste.join();
+
+            long frist = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (api.getConcurrencyLimitStatus(ConcurrencyLimitConfiguration.Operation.METADATA).get().getAntallAktive() > 0 && System.nanoTime() < frist) {
+                Thread.sleep(10);
+            }
+            assertThat(api.getConcurrencyLimitStatus(ConcurrencyLimitConfiguration.Operation.METADATA).get().getAntallAktive(), is(0));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at requester som feiler uten svar registreres i metrics for riktig operasjon")
+    void metrics() {
+        DefaultDokumentlagerMetrics metrics = new DefaultDokumentlagerMetrics();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl("http://localhost:1")
+                .downloadBaseUrl("http://localhost:1")
+                .authenticationStrategy(request -> { })
+                .metrics(metrics)
+                .build();
+
+        assertThrows(RuntimeException.class, () -> api.downloadDokumentMetadata(UUID.randomUUID()));
+        assertThrows(RuntimeException.class, () -> api.getPublicKeyAsync().join());
+        api.close();
+
+        OperasjonStatistikk statistikk = metrics.statistikk(DokumentlagerMetrics.Operation.DOWNLOAD_METADATA);
+        assertThat(statistikk.getAntallKall(), is(1L));
+        assertThat(statistikk.getAntallFeilet(), is(1L));
+        assertThat(statistikk.getAntallAktive(), is(0L));
+        assertThat(statistikk.getStatuskoder().isEmpty(), is(true));
+        assertThat(statistikk.getResponstid().getAntall(), is(1L));
+        assertThat(metrics.statistikk(DokumentlagerMetrics.Operation.PUBLIC_KEY).getAntallKall(), is(1L));
+        assertThat(metrics.statistikk(DokumentlagerMetrics.Operation.DOWNLOAD).getAntallKall(), is(0L));
+    }
+
+    @Test
+    @DisplayName("Test at antall bytes i svaret telles også når svaret sendes uten Content-Length og leses strømmende")
+    void metricsResponseBytesUtenContentLength() throws IOException {
+        byte[] body = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        HttpServer server = startServer(exchange -> {
+            // Lengde 0 gir chunked svar
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        DefaultDokumentlagerMetrics metrics = new DefaultDokumentlagerMetrics();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .metrics(metrics)
+                .build();
+
+        try {
+            try (InputStream dokument = api.downloadDokument(UUID.randomUUID()).getResult()) {
+                assertThat(dokument.readAllBytes().length, is(body.length));
+            }
+            api.getPublicKey();
+            api.downloadDokumentTo(UUID.randomUUID(), Channels.newChannel(OutputStream.nullOutputStream()));
+
+            assertThat(metrics.statistikk(DokumentlagerMetrics.Operation.PUBLIC_KEY).getResponseBytes(), is((long) body.length));
+            assertThat(metrics.statistikk(DokumentlagerMetrics.Operation.DOWNLOAD).getResponseBytes(), is(2L * body.length));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at tidsbruk per fase er tilgjengelig på responsen og rapporteres til metrics")
+    void tidsbruk() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "public-key".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        DefaultDokumentlagerMetrics metrics = new DefaultDokumentlagerMetrics();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .metrics(metrics)
+                .build();
+
+        try {
+            DokumentlagerResponse<String> response = api.getPublicKey();
+
+            assertThat(response.getResult(), is("public-key"));
+            Tidsbruk tidsbruk = response.getTidsbruk().orElseThrow();
+            assertThat(tidsbruk.getVentetidNanos(), is(0L));
+            assertThat(tidsbruk.getTilkoblingNanos(), greaterThanOrEqualTo(0L));
+            assertThat(tidsbruk.getSendingNanos(), greaterThanOrEqualTo(0L));
+            // Serveren kan starte å vente før klienten har registrert at requesten er sendt
+            assertThat(tidsbruk.getSendingNanos() + tidsbruk.getVentetPaSvarNanos(), greaterThanOrEqualTo(Duration.ofMillis(50).toNanos()));
+            assertThat(tidsbruk.getLesingNanos(), greaterThanOrEqualTo(0L));
+
+            OperasjonStatistikk statistikk = metrics.statistikk(DokumentlagerMetrics.Operation.PUBLIC_KEY);
+            assertThat(statistikk.getStatuskoder(), is(Map.of(200, 1L)));
+            assertThat(statistikk.getResponseBytes(), is(10L));
+            assertThat(statistikk.getTidTilForsteByte().getAntall(), is(1L));
+            assertThat(statistikk.getTilkoblingstid().getAntall(), is(1L));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at tidsbruk kun måles når det er slått på")
+    void tidsbrukOptIn() throws IOException {
+        HttpServer server = startOkServer(exchange -> "public-key");
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl utenTidsbruk = api(server);
+        DokumentlagerApiImpl medTidsbruk = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .tidsbruk(true)
+                .build();
+
+        try {
+            assertThat(utenTidsbruk.getPublicKey().getTidsbruk().isPresent(), is(false));
+            assertThat(medTidsbruk.getPublicKey().getTidsbruk().isPresent(), is(true));
+        } finally {
+            utenTidsbruk.close();
+            medTidsbruk.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at opplasting av innhold med kjent lengde sendes med Content-Length og ikke chunked")
+    void uploadMedContentLength(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        ThreadLocalRandom.current().nextBytes(data);
+        Path fil = Files.write(tempDir.resolve("dokument.pdf"), data);
+        AtomicReference<Headers> requestHeaders = new AtomicReference<>();
+        AtomicReference<byte[]> requestBody = new AtomicReference<>();
+        HttpServer server = startOkServer(exchange -> {
+            requestHeaders.set(exchange.getRequestHeaders());
+            requestBody.set(exchange.getRequestBody().readAllBytes());
+            return "{\"id\":\"" + UUID.randomUUID() + "\",\"dokumentnavn\":\"dokument.pdf\"}";
+        });
+        DokumentlagerApiImpl api = api(server);
+
+        try {
+            api.uploadDokument(new PathRequestContent("application/octet-stream", fil),
+                    DokumentMetadataUpload.builder().dokumentnavn("dokument.pdf").build(), UUID.randomUUID(), UUID.randomUUID(), false);
+
+            assertThat(requestHeaders.get().getFirst("Content-Length"), is(String.valueOf(requestBody.get().length)));
+            assertThat(requestHeaders.get().containsKey("Transfer-Encoding"), is(false));
+            assertThat(new String(requestBody.get(), StandardCharsets.ISO_8859_1), containsString(new String(data, StandardCharsets.ISO_8859_1)));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at opplasting fra fil prøves på nytt ved retry, og at filen sendes på nytt")
+    void uploadFraFilRetry(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        ThreadLocalRandom.current().nextBytes(data);
+        Path fil = Files.write(tempDir.resolve("dokument.pdf"), data);
+        List<byte[]> requestBodies = new CopyOnWriteArrayList<>();
+        HttpServer server = startServer(exchange -> {
+            requestBodies.add(exchange.getRequestBody().readAllBytes());
+            if (requestBodies.size() == 1) {
+                respond(exchange, 503, "");
+            } else {
+                respond(exchange, 200, "{\"id\":\"" + UUID.randomUUID() + "\",\"dokumentnavn\":\"dokument.pdf\"}");
+            }
+        });
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .retryPolicy(RetryPolicy.builder().initialBackoff(Duration.ofMillis(1)).build())
+                .uploadSpooling(SpoolingConfiguration.builder().build())
+                .build();
+
+        try {
+            DokumentlagerResponse<DokumentMetadataUploadResult> response = api.uploadDokument(new PathRequestContent("application/octet-stream", fil),
+                    DokumentMetadataUpload.builder().dokumentnavn("dokument.pdf").build(), UUID.randomUUID(), UUID.randomUUID(), false);
+
+            assertThat(response.getAntallForsok(), is(2));
+            assertThat(requestBodies.size(), is(2));
+            for (byte[] body : requestBodies) {
+                assertThat(new String(body, StandardCharsets.ISO_8859_1), containsString(new String(data, StandardCharsets.ISO_8859_1)));
+            }
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at nedlasting til fil ikke endrer en eksisterende fil når nedlastingen feiler, og erstatter den når den lykkes")
+    void downloadTilEksisterendeFil(@TempDir Path tempDir) throws IOException {
+        Path fil = Files.writeString(tempDir.resolve("dokument.pdf"), "eksisterende");
+        AtomicReference<Integer> status = new AtomicReference<>(404);
+        HttpServer server = startServer(exchange -> respond(exchange, status.get(), status.get() == 200 ? "nytt" : "finnes ikke"));
+        DokumentlagerApiImpl api = api(server);
+
+        try {
+            DokumentlagerHttpException e = assertThrows(DokumentlagerHttpException.class, () -> api.downloadDokumentTo(UUID.randomUUID(), fil));
+            assertThat(e.getStatus(), is(404));
+            assertThat(Files.readString(fil), is("eksisterende"));
+
+            status.set(200);
+            api.downloadDokumentTo(UUID.randomUUID(), fil);
+            assertThat(Files.readString(fil), is("nytt"));
+            try (Stream<Path> filer = Files.list(tempDir)) {
+                assertThat(filer.toList(), contains(fil));
+            }
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Test at strømmende søk prøves på nytt når søket feiler før treff er levert")
+    void strommendeSokRetry() throws IOException {
+        UUID dokumentId = UUID.randomUUID();
+        AtomicInteger antallRequester = new AtomicInteger();
+        HttpServer server = startServer(exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (antallRequester.incrementAndGet() == 1) {
+                respond(exchange, 503, "");
+            } else {
+                respond(exchange, 200, "{\"totaltAntallTreff\":1,\"dokumenter\":[{\"id\":\"" + dokumentId + "\"}]}");
+            }
+        });
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        DokumentlagerApiImpl api = DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .retryPolicy(RetryPolicy.builder().initialBackoff(Duration.ofMillis(1)).build())
+                .build();
+
+        try {
+            List<Soketreff> treff = new ArrayList<>();
+            DokumentlagerResponse<Integer> response = api.sokDokumenterMedKorrelasjonsid(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), 0, 10, treff::add);
+
+            assertThat(response.getResult(), is(1));
+            assertThat(response.getAntallForsok(), is(2));
+            assertThat(treff.stream().map(Soketreff::getId).toList(), contains(dokumentId));
+        } finally {
+            api.close();
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer startOkServer(Responder responder) throws IOException {
+        return startServer(exchange -> respond(exchange, 200, responder.respond(exchange)));
+    }
+
+    private static HttpServer startServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        return server;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String content) throws IOException {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private interface Responder {
+        String respond(HttpExchange exchange) throws IOException;
+    }
+
+    private static DokumentlagerApiImpl api(HttpServer server) {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        return DokumentlagerApiImpl.builder()
+                .uploadBaseUrl(baseUrl)
+                .downloadBaseUrl(baseUrl)
+                .authenticationStrategy(request -> { })
+                .build();
+    }
+
 }
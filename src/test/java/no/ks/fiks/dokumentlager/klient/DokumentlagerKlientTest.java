@@ -1,21 +1,32 @@
 package no.ks.fiks.dokumentlager.klient;
 
 import no.ks.fiks.dokumentlager.klient.exception.DokumentTooLargeException;
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerHttpException;
 import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerIOException;
 import no.ks.fiks.dokumentlager.klient.exception.EmptyDokumentException;
+import no.ks.fiks.dokumentlager.klient.metrics.DefaultDokumentlagerMetrics;
 import no.ks.fiks.dokumentlager.klient.model.*;
 import no.ks.fiks.dokumentlager.klient.model.eksponertfor.EksponertForIntegrasjon;
 import no.ks.kryptering.CMSKrypteringImpl;
 import no.ks.kryptering.CMSStreamKryptering;
 import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.client.PathRequestContent;
+import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.io.Content;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 
 import java.io.*;
 import java.net.NoRouteToHostException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.concurrent.*;
@@ -23,7 +34,9 @@ import java.util.concurrent.*;
 import static java.util.Collections.*;
 import static no.ks.fiks.dokumentlager.klient.EncryptUtil.PRIVATE_KEY;
 import static no.ks.fiks.dokumentlager.klient.EncryptUtil.PUBLIC_KEY;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -71,11 +84,38 @@ class DokumentlagerKlientTest {
                                 .build();
                     }
                 });
+        when(api.uploadDokument(any(Request.Content.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
+                .then(a -> {
+                    DokumentMetadataUpload metadata = a.getArgument(1);
+                    uploadedBytes = lesContent(a.getArgument(0));
+                    return DokumentlagerResponse.<DokumentMetadataUploadResult>builder()
+                            .result(new DokumentMetadataUploadResult(UUID.randomUUID(), metadata.getDokumentnavn(), metadata.getMimetype(), (long) uploadedBytes.length, (long) uploadedBytes.length + 500))
+                            .httpStatus(200)
+                            .httpHeaders(emptyMap())
+                            .build();
+                });
         klient = DokumentlagerKlient.builder()
                 .api(api)
                 .build();
     }
 
+    private static byte[] lesContent(Request.Content content) throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (true) {
+            Content.Chunk chunk = content.read();
+            if (Content.Chunk.isFailure(chunk)) {
+                throw chunk.getFailure();
+            }
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.getByteBuffer().get(bytes);
+            chunk.release();
+            out.write(bytes);
+            if (chunk.isLast()) {
+                return out.toByteArray();
+            }
+        }
+    }
+
     @AfterEach
     void afterEach() {
         uploadedBytes = null;
@@ -191,6 +231,82 @@ class DokumentlagerKlientTest {
         assertThat(exception.getMessage(), is("Exceeded configured input limit of 259 bytes"));
     }
 
+    @Test
+    @DisplayName("Ved opplasting fra fil skal API kalles med filinnhold med kjent lengde")
+    void uploadDokumentFraFil(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        new Random().nextBytes(data);
+        Path fil = Files.write(tempDir.resolve("uploadDokumentFraFil.pdf"), data);
+
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        DokumentMetadataUpload metadata = DokumentMetadataUpload.builder()
+                .dokumentnavn("uploadDokumentFraFil.pdf")
+                .mimetype("application/pdf")
+                .sikkerhetsniva(3)
+                .build();
+
+        klient.upload(fil, metadata, fiksOrganisasjonId, kontoId);
+
+        ArgumentCaptor<Request.Content> content = ArgumentCaptor.forClass(Request.Content.class);
+        verify(api, times(1)).uploadDokument(content.capture(), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(false));
+        assertThat(content.getValue() instanceof PathRequestContent, is(true));
+        assertThat(content.getValue().getLength(), is((long) data.length));
+        assertThat(uploadedBytes, is(data));
+    }
+
+    @Test
+    @DisplayName("Et API uten egen nedlasting til fil skal laste ned til filen fra downloadDokument")
+    void downloadToDefault(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        new Random().nextBytes(data);
+        UUID dokumentId = UUID.randomUUID();
+        Path fil = tempDir.resolve("downloadToDefault.pdf");
+        when(api.downloadDokument(dokumentId)).thenReturn(DokumentlagerResponse.<InputStream>builder()
+                .result(new ByteArrayInputStream(data))
+                .httpStatus(200)
+                .httpHeaders(singletonMap("header", "value"))
+                .build());
+        when(api.downloadDokumentTo(any(UUID.class), any(Path.class))).thenCallRealMethod();
+        when(api.downloadDokumentTo(any(UUID.class), any(WritableByteChannel.class))).thenCallRealMethod();
+
+        DokumentlagerResponse<DokumentDownloadResult> response = klient.downloadTo(dokumentId, fil);
+
+        assertThat(response.getResult().getAntallBytes(), is((long) data.length));
+        assertThat(response.getHeader("header").get(), is("value"));
+        assertArrayEquals(data, Files.readAllBytes(fil));
+    }
+
+    @Test
+    @DisplayName("Et API som kun implementerer opplasting fra InputStream skal få innholdet som InputStream")
+    void uploadDokumentContentDefault(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        new Random().nextBytes(data);
+        Path fil = Files.write(tempDir.resolve("uploadDokumentContentDefault.pdf"), data);
+        when(api.uploadDokument(any(Request.Content.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
+                .thenCallRealMethod();
+
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        DokumentMetadataUpload metadata = DokumentMetadataUpload.builder().dokumentnavn("uploadDokumentContentDefault.pdf").build();
+        klient.upload(fil, metadata, fiksOrganisasjonId, kontoId);
+
+        verify(api, times(1)).uploadDokument(any(InputStream.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(false));
+        assertThat(uploadedBytes, is(data));
+    }
+
+    @Test
+    @DisplayName("Ved opplasting fra fil som er større enn maksStorrelse skal DokumentTooLargeException kastes før API kalles")
+    void uploadDokumentFraFilForStor(@TempDir Path tempDir) throws IOException {
+        Path fil = Files.write(tempDir.resolve("uploadDokumentFraFilForStor.pdf"), new byte[1000]);
+
+        DokumentTooLargeException exception = assertThrows(DokumentTooLargeException.class, () ->
+                klient.upload(fil, DokumentMetadataUpload.builder().build(), UUID.randomUUID(), UUID.randomUUID(), false, 999L));
+
+        assertThat(exception.getMessage(), is("Exceeded configured input limit of 999 bytes"));
+        verify(api, never()).uploadDokument(any(Request.Content.class), any(), any(), any(), anyBoolean());
+    }
+
     @Test
     @DisplayName("Ved opplasting av et dokument med sikkerhetsnivå 4 og uten kryptert-flagg skal API kalles med kryptert data")
     void uploadDokumentNiva4UtenFlag() {
@@ -209,7 +325,7 @@ class DokumentlagerKlientTest {
                 .build();
 
         klient.upload(new ByteArrayInputStream(data), metadata, fiksOrganisasjonId, kontoId);
-        verify(api, times(1)).uploadDokument(any(InputStream.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
+        verify(api, times(1)).uploadDokument(any(KrypteringRequestContent.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
         assertDataEncrypted(data);
     }
 
@@ -231,8 +347,35 @@ class DokumentlagerKlientTest {
                 .build();
 
         klient.upload(new ByteArrayInputStream(data), metadata, fiksOrganisasjonId, kontoId, true);
-        verify(api, times(1)).uploadDokument(any(DokumentlagerPipedInputStream.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
+        verify(api, times(1)).uploadDokument(any(KrypteringRequestContent.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
+        assertDataEncrypted(data);
+    }
+
+    @Test
+    @DisplayName("Tiden brukt på kryptering ved opplasting skal rapporteres til metrics")
+    void uploadDokumentKryptertMetrics() {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        new Random().nextBytes(data);
+        DefaultDokumentlagerMetrics metrics = new DefaultDokumentlagerMetrics();
+        klient = DokumentlagerKlient.builder()
+                .api(api)
+                .metrics(metrics)
+                .build();
+
+        DokumentMetadataUpload metadata = DokumentMetadataUpload.builder()
+                .dokumentnavn("uploadDokumentKryptertMetrics.pdf")
+                .mimetype("application/pdf")
+                .ttl(-1L)
+                .eksponertFor(new HashSet<>(singletonList((new EksponertForIntegrasjon(UUID.randomUUID())))))
+                .sikkerhetsniva(3)
+                .build();
+
+        klient.upload(new ByteArrayInputStream(data), metadata, UUID.randomUUID(), UUID.randomUUID(), true);
         assertDataEncrypted(data);
+
+        KrypteringStatistikk statistikk = metrics.krypteringStatistikk();
+        assertThat(statistikk.getAntallBytes(), is((long) data.length));
+        assertThat(statistikk.getTid().getAntall(), is(1L));
     }
 
     @Test
@@ -256,7 +399,7 @@ class DokumentlagerKlientTest {
                 .result(PUBLIC_KEY)
                 .httpStatus(200)
                 .build());
-        when(api.uploadDokument(any(InputStream.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
+        when(api.uploadDokument(any(Request.Content.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
                 .then(a -> {
                         throw new NoRouteToHostException("No route to host");
                     });
@@ -267,7 +410,7 @@ class DokumentlagerKlientTest {
         RuntimeException exception = assertThrows(RuntimeException.class, () ->
                 klient.upload(new ByteArrayInputStream(data), metadata, fiksOrganisasjonId, kontoId, true));
         assertThat(exception.getMessage(), is(expected.getMessage()));
-        verify(api, times(1)).uploadDokument(any(DokumentlagerPipedInputStream.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
+        verify(api, times(1)).uploadDokument(any(KrypteringRequestContent.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
     }
 
 
@@ -292,7 +435,7 @@ class DokumentlagerKlientTest {
                 .result(PUBLIC_KEY)
                 .httpStatus(200)
                 .build());
-        when(api.uploadDokument(any(DokumentlagerPipedInputStream.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
+        when(api.uploadDokument(any(KrypteringRequestContent.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
                 .then(a -> {
                     throw expected;
                 });
@@ -303,11 +446,11 @@ class DokumentlagerKlientTest {
         RuntimeException exception = assertThrows(DokumentlagerIOException.class, () ->
                 klient.upload(new ByteArrayInputStream(data), metadata, fiksOrganisasjonId, kontoId, true));
         assertThat(exception.getMessage(), is(expected.getMessage()));
-        verify(api, times(1)).uploadDokument(any(DokumentlagerPipedInputStream.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
+        verify(api, times(1)).uploadDokument(any(KrypteringRequestContent.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
     }
 
     @Test
-    @DisplayName("Ved opplasting av et dokument hvis APIet er nede skal futures bli kansellert og thread pool ryddet opp i")
+    @DisplayName("Ved opplasting av et dokument hvis APIet er nede skal påfølgende opplastinger fortsatt fungere")
     void uploadDokumentApiErrorCleanThreadPool() {
         byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
         new Random().nextBytes(data);
@@ -326,7 +469,7 @@ class DokumentlagerKlientTest {
                 .result(PUBLIC_KEY)
                 .httpStatus(200)
                 .build());
-        when(api.uploadDokument(any(InputStream.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
+        when(api.uploadDokument(any(Request.Content.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
                 .then(a -> {
                     throw new NoRouteToHostException("No route to host");
                 })
@@ -334,14 +477,12 @@ class DokumentlagerKlientTest {
                     throw new NoRouteToHostException("No route to host");
                 })
                 .thenAnswer(a -> {
-                    try (InputStream inputStream = a.getArgument(0)) {
-                    uploadedBytes = IOUtils.toByteArray(inputStream);
+                    uploadedBytes = lesContent(a.getArgument(0));
                     return DokumentlagerResponse.<DokumentMetadataUploadResult>builder()
                         .result(new DokumentMetadataUploadResult(UUID.randomUUID(), metadata.getDokumentnavn(), metadata.getMimetype(), (long) uploadedBytes.length, (long) uploadedBytes.length + 500))
                         .httpStatus(200)
                         .httpHeaders(emptyMap())
                         .build();
-                    }
                 });
         DokumentlagerKlient klient = DokumentlagerKlient.builder()
                 .api(api)
@@ -411,6 +552,17 @@ class DokumentlagerKlientTest {
         assertDataEncrypted(data);
     }
 
+    @Test
+    @DisplayName("Med prefetchPublicKey skal public key hentes når klienten bygges")
+    void prefetchPublicKey() {
+        DokumentlagerKlient.builder()
+                .api(api)
+                .prefetchPublicKey(true)
+                .build();
+
+        verify(api, timeout(1000).times(1)).getPublicKey();
+    }
+
     @Test
     @DisplayName("Ved oppdatering av metadata for et dokument skal API kalles med samme parametere som klienten")
     void updateDokumentMetadata() {
@@ -451,6 +603,40 @@ class DokumentlagerKlientTest {
         verify(api, times(1)).deleteDokumenterByKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid);
     }
 
+    @Test
+    @DisplayName("Ved sletting via korrelasjonsid skal kun dokumentene med korrelasjonsiden invalideres i diskcachen")
+    void deleteDokumenterByKorrelasjonsidInvaliderKunTreff(@TempDir Path katalog) throws IOException {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID korrelasjonsid = UUID.randomUUID();
+        UUID slettet = UUID.randomUUID();
+        UUID beholdt = UUID.randomUUID();
+        when(api.downloadDokumentTo(any(UUID.class), any(Path.class))).thenAnswer(a -> {
+            Files.write(a.getArgument(1), new byte[10]);
+            return DokumentlagerResponse.<DokumentDownloadResult>builder()
+                    .result(new DokumentDownloadResult(10, Duration.ZERO))
+                    .httpStatus(200)
+                    .build();
+        });
+        when(api.sokDokumenterMedKorrelasjonsid(eq(fiksOrganisasjonId), eq(kontoId), eq(korrelasjonsid), eq(0), anyInt())).thenReturn(DokumentlagerResponse.<Sokeresultat>builder()
+                .result(new Sokeresultat(1, singletonList(new Soketreff(slettet, "slettet.pdf", 10L, 10L, OffsetDateTime.now(), "application/pdf", false, korrelasjonsid))))
+                .httpStatus(200)
+                .build());
+        DokumentlagerKlient klient = DokumentlagerKlient.builder()
+                .api(api)
+                .dokumentCache(katalog, 1000)
+                .build();
+        klient.download(slettet).getResult().close();
+        klient.download(beholdt).getResult().close();
+
+        klient.deleteDokumenterByKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid);
+        klient.download(slettet).getResult().close();
+        klient.download(beholdt).getResult().close();
+
+        verify(api, times(2)).downloadDokumentTo(eq(slettet), any(Path.class));
+        verify(api, times(1)).downloadDokumentTo(eq(beholdt), any(Path.class));
+    }
+
     @Test
     @DisplayName("Ved nedlasting av et dokument skal API kalles med samme parametere som klienten, og stream returnert av API skal returneres")
     void downloadDokument() {
@@ -472,13 +658,36 @@ class DokumentlagerKlientTest {
         assertThat(response.getHeader("header").get(), is("value"));
     }
 
+    @Test
+    @DisplayName("Ved dekryptert nedlasting skal dokumentet dekrypteres med samme provider som ved opplasting")
+    void downloadDekryptert() throws IOException {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(10000, 100000)];
+        new Random().nextBytes(data);
+        byte[] kryptert = kryptering.krypterData(data, klient.getPublicKeyAsX509Certificate().getResult(), provider);
+        UUID dokumentId = UUID.randomUUID();
+
+        when(api.downloadDokument(dokumentId)).thenReturn(DokumentlagerResponse.<InputStream>builder()
+                .result(new ByteArrayInputStream(kryptert))
+                .httpStatus(200)
+                .httpHeaders(singletonMap("header", "value"))
+                .build());
+
+        DokumentlagerResponse<InputStream> response = klient.downloadDekryptert(dokumentId, privateKey);
+
+        try (InputStream dekryptert = response.getResult()) {
+            assertArrayEquals(data, IOUtils.toByteArray(dekryptert));
+        }
+        assertThat(response.getHttpStatus(), is(200));
+        assertThat(response.getHeader("header").get(), is("value"));
+    }
+
     @Test
     @DisplayName("Dersom kryptering feiler skal riktig exception kastes av klienten")
     void uploadDokumentKrypteringFeiler() {
         String message = UUID.randomUUID().toString();
         Exception expected = new IllegalArgumentException(message);
         CMSStreamKryptering kryptering = mock(CMSStreamKryptering.class);
-        doThrow(expected).when(kryptering).krypterData(any(OutputStream.class), any(InputStream.class), any(X509Certificate.class), any(Provider.class));
+        when(kryptering.getKrypteringOutputStream(any(OutputStream.class), any(X509Certificate.class), any(Provider.class))).thenThrow(expected);
 
         klient = DokumentlagerKlient.builder()
                 .api(api)
@@ -565,10 +774,76 @@ class DokumentlagerKlientTest {
                 throw new RuntimeException(e);
             }
         });
-        verify(api, times(20)).uploadDokument(any(), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
+        verify(api, times(20)).uploadDokument(any(Request.Content.class), eq(metadata), eq(fiksOrganisasjonId), eq(kontoId), eq(true));
         executorService.shutdown();
     }
 
+    @Test
+    @DisplayName("Ved bulk-opplasting skal alle jobber lastes opp, og resultat rapporteres per jobb")
+    void uploadAll() {
+        byte[] data = new byte[ThreadLocalRandom.current().nextInt(1000, 10000)];
+        new Random().nextBytes(data);
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+
+        List<UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            jobs.add(UploadJob.builder()
+                    .dokumentStream(() -> new ByteArrayInputStream(data))
+                    .metadata(DokumentMetadataUpload.builder().dokumentnavn("uploadAll-" + i + ".pdf").build())
+                    .fiksOrganisasjonId(fiksOrganisasjonId)
+                    .kontoId(kontoId)
+                    .build());
+        }
+        jobs.add(UploadJob.builder()
+                .dokumentStream(() -> new ByteArrayInputStream(new byte[0]))
+                .metadata(DokumentMetadataUpload.builder().dokumentnavn("tom.pdf").build())
+                .fiksOrganisasjonId(fiksOrganisasjonId)
+                .kontoId(kontoId)
+                .build());
+
+        List<UploadJobResult> results = Collections.synchronizedList(new ArrayList<>());
+        BulkUploadSummary summary = klient.uploadAll(jobs, BulkOptions.builder()
+                .parallelism(3)
+                .resultHandler(results::add)
+                .build());
+
+        assertThat(summary.getAntallOk(), is(10L));
+        assertThat(summary.getAntallFeilet(), is(1L));
+        assertThat(summary.getUkryptertStorrelse(), is(10L * data.length));
+        assertThat(results.size(), is(11));
+        assertThat(results.stream().filter(r -> !r.isSuccess()).findFirst().get().getFailure() instanceof EmptyDokumentException, is(true));
+        verify(api, times(10)).uploadDokument(isA(InputStream.class), any(DokumentMetadataUpload.class), eq(fiksOrganisasjonId), eq(kontoId), eq(false));
+    }
+
+    @Test
+    @DisplayName("Bulk-opplasting av krypterte dokumenter mot et synkront API skal ikke låse seg når executoren har færre tråder enn parallelliteten")
+    void uploadAllKryptertMedSynkrontApiOgEnTrad() {
+        when(api.uploadDokument(any(Request.Content.class), any(DokumentMetadataUpload.class), any(UUID.class), any(UUID.class), anyBoolean()))
+                .thenReturn(DokumentlagerResponse.<DokumentMetadataUploadResult>builder().httpStatus(200).build());
+        DokumentlagerKlient klient = DokumentlagerKlient.builder()
+                .api(api)
+                .executor(Executors.newFixedThreadPool(1))
+                .build();
+        List<UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            jobs.add(UploadJob.builder()
+                    .dokumentStream(() -> new ByteArrayInputStream(new byte[100]))
+                    .metadata(DokumentMetadataUpload.builder().dokumentnavn("kryptert-" + i + ".pdf").build())
+                    .fiksOrganisasjonId(UUID.randomUUID())
+                    .kontoId(UUID.randomUUID())
+                    .skalKrypteres(true)
+                    .build());
+        }
+
+        BulkUploadSummary summary = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> klient.uploadAll(jobs, BulkOptions.builder()
+                .parallelism(2)
+                .build()));
+
+        assertThat(summary.getAntallOk(), is(2L));
+        verify(api, times(1)).getPublicKey();
+    }
+
     @Test
     @DisplayName("Ved nedlasting av dokument-metadata skal API kalles med samme parametere som klienten, og metadata returnert av API skal returneres")
     void downloadDokumentMetadata() {
@@ -591,6 +866,74 @@ class DokumentlagerKlientTest {
         assertThat(response.getHeader("header").get(), is("value"));
     }
 
+    @Test
+    @DisplayName("Ved asynkron sletting av et dokument skal asynkront API kalles med samme parametere som klienten")
+    void deleteDokumentAsync() {
+        DokumentlagerApi api = mock(DokumentlagerApi.class, withSettings().extraInterfaces(AsyncDokumentlagerApi.class));
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID dokumentId = UUID.randomUUID();
+        when(((AsyncDokumentlagerApi) api).deleteDokumentAsync(fiksOrganisasjonId, kontoId, dokumentId)).thenReturn(CompletableFuture.completedFuture(DokumentlagerResponse.<Void>builder()
+                .httpStatus(204)
+                .build()));
+
+        DokumentlagerKlient klient = DokumentlagerKlient.builder()
+                .api(api)
+                .build();
+        DokumentlagerResponse<Void> response = klient.deleteAsync(fiksOrganisasjonId, kontoId, dokumentId).join();
+
+        verify((AsyncDokumentlagerApi) api, times(1)).deleteDokumentAsync(fiksOrganisasjonId, kontoId, dokumentId);
+        verify(api, never()).deleteDokument(any(), any(), any());
+        assertThat(response.getHttpStatus(), is(204));
+    }
+
+    @Test
+    @DisplayName("Public key-sertifikatet skal hentes fra cachen, slik at det kun hentes og parses én gang")
+    void getPublicKeyAsX509CertificateCaches() {
+        X509Certificate forste = klient.getPublicKeyAsX509Certificate().getResult();
+        X509Certificate andre = klient.getPublicKeyAsX509Certificate().getResult();
+
+        assertThat(andre == forste, is(true));
+        verify(api, times(1)).getPublicKey();
+    }
+
+    @Test
+    @DisplayName("Public key-sertifikatet fra cachen skal returneres med status og headere fra requesten som hentet det")
+    void getPublicKeyAsX509CertificateBeholderResponse() {
+        when(api.getPublicKey()).thenReturn(DokumentlagerResponse.<String>builder()
+                .result(PUBLIC_KEY)
+                .httpStatus(203)
+                .httpHeaders(singletonMap("header", "value"))
+                .antallForsok(2)
+                .build());
+
+        klient.getPublicKeyAsX509Certificate();
+        DokumentlagerResponse<X509Certificate> response = klient.getPublicKeyAsX509Certificate();
+
+        assertThat(response.getHttpStatus(), is(203));
+        assertThat(response.getHeader("header").get(), is("value"));
+        assertThat(response.getAntallForsok(), is(2));
+        verify(api, times(1)).getPublicKey();
+    }
+
+    @Test
+    @DisplayName("Asynkrone kall mot et API uten asynkron støtte skal utføres med det synkrone API-et på executoren")
+    void asyncUtenAsyncApi() {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID dokumentId = UUID.randomUUID();
+        when(api.deleteDokument(fiksOrganisasjonId, kontoId, dokumentId)).thenAnswer(a -> DokumentlagerResponse.<Void>builder()
+                .httpStatus(204)
+                .httpHeaders(Map.of("thread", Thread.currentThread().getName()))
+                .build());
+
+        DokumentlagerResponse<Void> response = klient.deleteAsync(fiksOrganisasjonId, kontoId, dokumentId).join();
+
+        verify(api, times(1)).deleteDokument(fiksOrganisasjonId, kontoId, dokumentId);
+        assertThat(response.getHttpStatus(), is(204));
+        assertThat(response.getHeader("thread").get(), is(not(Thread.currentThread().getName())));
+    }
+
     @Test
     @DisplayName("Ved søk etter dokumenter med korrelasjonsid skal API kalles med samme parametere som klienten, og metadata returnert av API skal returneres")
     void sokDokumenterMedKorrelasjonsid() {
@@ -630,4 +973,148 @@ class DokumentlagerKlientTest {
         assertThat(response.getHttpStatus(), is(200));
     }
 
+
+    @Test
+    @DisplayName("Ved parallelt søk skal alle sider hentes, og treffene returneres i rekkefølge")
+    void sokAlleParallelt() {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID korrelasjonsid = UUID.randomUUID();
+        List<Soketreff> treff = lagSoketreff(95, korrelasjonsid);
+        when(api.sokDokumenterMedKorrelasjonsid(eq(fiksOrganisasjonId), eq(kontoId), eq(korrelasjonsid), anyInt(), anyInt()))
+                .thenAnswer(invocation -> sokeside(treff, invocation.getArgument(3), invocation.getArgument(4), treff.size()));
+
+        SokAlleResultat resultat = klient.sokAlleParallelt(fiksOrganisasjonId, kontoId, korrelasjonsid, 10, 4);
+
+        assertThat(resultat.getDokumenter(), is(treff));
+        assertThat(resultat.getTotaltAntallTreff(), is(95));
+        assertThat(resultat.isKomplett(), is(true));
+        verify(api, times(10)).sokDokumenterMedKorrelasjonsid(eq(fiksOrganisasjonId), eq(kontoId), eq(korrelasjonsid), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Ved parallelt søk skal resultatet markeres som ikke komplett dersom antall treff endres underveis")
+    void sokAlleParalleltEndretUnderveis() {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID korrelasjonsid = UUID.randomUUID();
+        List<Soketreff> treff = lagSoketreff(30, korrelasjonsid);
+        when(api.sokDokumenterMedKorrelasjonsid(eq(fiksOrganisasjonId), eq(kontoId), eq(korrelasjonsid), anyInt(), anyInt()))
+                .thenAnswer(invocation -> {
+                    int fra = invocation.getArgument(3);
+                    return sokeside(treff.subList(0, fra == 0 ? 30 : 25), fra, invocation.getArgument(4), fra == 0 ? 30 : 25);
+                });
+
+        SokAlleResultat resultat = klient.sokAlleParallelt(fiksOrganisasjonId, kontoId, korrelasjonsid, 10, 2);
+
+        assertThat(resultat.getDokumenter(), is(treff.subList(0, 25)));
+        assertThat(resultat.getTotaltAntallTreff(), is(30));
+        assertThat(resultat.isKomplett(), is(false));
+    }
+
+    @Test
+    @DisplayName("Et API uten strømmende søk skal sende treffene fra vanlig søk til treffHandler")
+    void strommendeSokDefault() {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID korrelasjonsid = UUID.randomUUID();
+        List<Soketreff> treff = lagSoketreff(5, korrelasjonsid);
+        when(api.sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, 0, 5)).thenReturn(sokeside(treff, 0, 5, 12));
+        when(api.sokDokumenterMedKorrelasjonsid(eq(fiksOrganisasjonId), eq(kontoId), eq(korrelasjonsid), eq(0), eq(5), any())).thenCallRealMethod();
+
+        List<Soketreff> levert = new ArrayList<>();
+        DokumentlagerResponse<Integer> response = klient.sokDokumenterMedKorrelasjonsid(fiksOrganisasjonId, kontoId, korrelasjonsid, 0, 5, levert::add);
+
+        assertThat(response.getResult(), is(12));
+        assertThat(levert, is(treff));
+    }
+
+    private static DokumentlagerResponse<Sokeresultat> sokeside(List<Soketreff> treff, int fra, int til, int totaltAntallTreff) {
+        List<Soketreff> side = fra >= treff.size() ? List.of() : treff.subList(fra, Math.min(til, treff.size()));
+        return DokumentlagerResponse.<Sokeresultat>builder()
+                .result(new Sokeresultat(totaltAntallTreff, side))
+                .httpStatus(200)
+                .build();
+    }
+
+    private static List<Soketreff> lagSoketreff(int antall, UUID korrelasjonsid) {
+        List<Soketreff> treff = new ArrayList<>();
+        for (int i = 0; i < antall; i++) {
+            treff.add(new Soketreff(UUID.randomUUID(), "dokument" + i, 5L, 3L, OffsetDateTime.now(), "application/pdf", false, korrelasjonsid));
+        }
+        return treff;
+    }
+
+    @Test
+    @DisplayName("Ved bulk-sletting skal dokumenter som ikke finnes telles for seg, og kun feilede id-er returneres")
+    void deleteAll() {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID ikkeFunnet = UUID.randomUUID();
+        UUID feilet = UUID.randomUUID();
+        List<UUID> dokumentIder = new ArrayList<>(List.of(ikkeFunnet, feilet));
+        for (int i = 0; i < 20; i++) {
+            dokumentIder.add(UUID.randomUUID());
+        }
+        when(api.deleteDokument(eq(fiksOrganisasjonId), eq(kontoId), any())).thenReturn(DokumentlagerResponse.<Void>builder().httpStatus(204).build());
+        when(api.deleteDokument(fiksOrganisasjonId, kontoId, ikkeFunnet)).thenThrow(new DokumentlagerHttpException("Not found", 404, ""));
+        when(api.deleteDokument(fiksOrganisasjonId, kontoId, feilet)).thenThrow(new DokumentlagerHttpException("Server error", 500, ""));
+
+        BulkDeleteResult resultat = klient.deleteAll(fiksOrganisasjonId, kontoId, dokumentIder, 4);
+
+        assertThat(resultat.getAntallSlettet(), is(20L));
+        assertThat(resultat.getAntallIkkeFunnet(), is(1L));
+        assertThat(resultat.getFeiledeDokumentIder(), is(List.of(feilet)));
+        verify(api, times(22)).deleteDokument(eq(fiksOrganisasjonId), eq(kontoId), any());
+    }
+
+    @Test
+    @DisplayName("Ved bulk-oppdatering av metadata skal alle dokumenter oppdateres, og resultat rapporteres per dokument")
+    void updateMetadataAll() {
+        UUID fiksOrganisasjonId = UUID.randomUUID();
+        UUID kontoId = UUID.randomUUID();
+        UUID feilet = UUID.randomUUID();
+        List<UUID> dokumentIder = new ArrayList<>(List.of(feilet));
+        for (int i = 0; i < 20; i++) {
+            dokumentIder.add(UUID.randomUUID());
+        }
+        DokumentMetadataUpdate update = DokumentMetadataUpdate.builder().ttl(1000L).build();
+        Set<byte[]> serialiserteOppdateringer = newSetFromMap(new IdentityHashMap<>());
+        when(api.updateDokumentMetadata(eq(fiksOrganisasjonId), eq(kontoId), any(), eq(update), any(byte[].class)))
+                .thenAnswer(invocation -> {
+                    serialiserteOppdateringer.add(invocation.getArgument(4));
+                    return DokumentlagerResponse.<DokumentMetadataUpdateResult>builder()
+                            .result(new DokumentMetadataUpdateResult(invocation.getArgument(2), null))
+                            .httpStatus(200)
+                            .build();
+                });
+        when(api.updateDokumentMetadata(eq(fiksOrganisasjonId), eq(kontoId), eq(feilet), eq(update), any(byte[].class))).thenThrow(new DokumentlagerHttpException("Server error", 500, ""));
+
+        List<MetadataUpdateJobResult> resultater = synchronizedList(new ArrayList<>());
+        BulkMetadataUpdateSummary summary = klient.updateMetadataAll(fiksOrganisasjonId, kontoId, dokumentIder, update, 4, resultater::add);
+
+        assertThat(summary.getAntallOk(), is(20L));
+        assertThat(summary.getAntallFeilet(), is(1L));
+        assertThat(resultater.size(), is(21));
+        resultater.forEach(resultat -> {
+            assertThat(resultat.isSuccess(), is(!resultat.getDokumentId().equals(feilet)));
+            if (resultat.isSuccess()) {
+                assertThat(resultat.getResponse().getResult().getId(), is(resultat.getDokumentId()));
+            }
+        });
+        assertThat(serialiserteOppdateringer.size(), is(1));
+        assertThat(new String(serialiserteOppdateringer.iterator().next()), containsString("\"ttl\":1000"));
+    }
+
+    @Test
+    @DisplayName("Ved warm-up skal api varmes opp og public key hentes, med tidsbruk per fase")
+    void warmUp() {
+        when(api.warmUp()).thenReturn(new WarmUpResult(singletonMap("json", Duration.ofMillis(5)), emptySet()));
+
+        WarmUpResult result = klient.warmUp();
+
+        assertThat(result.getFaser().keySet(), is(new HashSet<>(List.of("json", "public-key"))));
+        assertThat(result.isOk(), is(true));
+        verify(api, times(1)).getPublicKey();
+    }
 }
@@ -0,0 +1,161 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.HedgingStatistikk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HedgedRequestsTest {
+
+    private static final HedgingPolicy POLICY = HedgingPolicy.builder()
+            .initialDelay(Duration.ofMillis(20))
+            .maxHedgeRate(1.0)
+            .build();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "hedge"));
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Et tregt kall skal hedges, og første svar skal brukes mens det andre avbrytes")
+    void hedgeVinner() {
+        HedgedRequests hedgedRequests = new HedgedRequests(POLICY, executor);
+        List<TestForsok> forsok = new ArrayList<>();
+
+        CompletableFuture<String> resultat = hedgedRequests.utfor(() -> {
+            TestForsok nytt = new TestForsok();
+            forsok.add(nytt);
+            if (forsok.size() == 2) {
+                nytt.future.complete(Thread.currentThread().getName());
+            }
+            return nytt.forsok();
+        });
+
+        // Hedgen startes på executoren som er gitt inn
+        assertThat(resultat.join(), is("hedge"));
+        assertThat(forsok.size(), is(2));
+        // Taperen avbrytes etter at resultatet er satt
+        await(() -> forsok.get(0).antallAvbrutt.get() == 1);
+        assertThat(forsok.get(1).antallAvbrutt.get(), is(0));
+        HedgingStatistikk statistikk = hedgedRequests.statistikk();
+        assertThat(statistikk.getAntallKall(), is(1L));
+        assertThat(statistikk.getAntallHedget(), is(1L));
+        assertThat(statistikk.getAntallHedgeVant(), is(1L));
+    }
+
+    @Test
+    @DisplayName("Et kall som svarer før forsinkelsen skal ikke hedges")
+    void raskeKallHedgesIkke() throws InterruptedException {
+        HedgedRequests hedgedRequests = new HedgedRequests(POLICY, executor);
+        AtomicInteger antallForsok = new AtomicInteger();
+
+        String resultat = hedgedRequests.utfor(() -> {
+            antallForsok.incrementAndGet();
+            return new HedgedRequests.Forsok<>(CompletableFuture.completedFuture("ok"), () -> { });
+        }).join();
+        Thread.sleep(50);
+
+        assertThat(resultat, is("ok"));
+        assertThat(antallForsok.get(), is(1));
+        assertThat(hedgedRequests.statistikk().getAntallHedget(), is(0L));
+    }
+
+    @Test
+    @DisplayName("Andelen hedgede kall skal begrenses av maxHedgeRate")
+    void begrensetHedgerate() {
+        HedgedRequests hedgedRequests = new HedgedRequests(POLICY.toBuilder().maxHedgeRate(0.5).build(), executor);
+        List<CompletableFuture<String>> resultater = new ArrayList<>();
+        List<TestForsok> forsok = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            resultater.add(hedgedRequests.utfor(() -> {
+                TestForsok nytt = new TestForsok();
+                synchronized (forsok) {
+                    forsok.add(nytt);
+                }
+                return nytt.forsok();
+            }));
+        }
+
+        await(() -> hedgedRequests.statistikk().getAntallHedget() == 2);
+        synchronized (forsok) {
+            forsok.forEach(f -> f.future.complete("ok"));
+        }
+        resultater.forEach(CompletableFuture::join);
+
+        assertThat(hedgedRequests.statistikk().getAntallHedget(), is(2L));
+        assertThat(forsok.size(), is(6));
+    }
+
+    @Test
+    @DisplayName("Kallet skal feile først når alle forsøk har feilet")
+    void alleForsokFeiler() {
+        HedgedRequests hedgedRequests = new HedgedRequests(POLICY, executor);
+        List<TestForsok> forsok = new ArrayList<>();
+
+        CompletableFuture<String> resultat = hedgedRequests.utfor(() -> {
+            TestForsok nytt = new TestForsok();
+            synchronized (forsok) {
+                forsok.add(nytt);
+            }
+            return nytt.forsok();
+        });
+        await(() -> hedgedRequests.statistikk().getAntallHedget() == 1);
+        forsok.get(0).future.completeExceptionally(new IllegalStateException("første"));
+        assertThat(resultat.isDone(), is(false));
+        forsok.get(1).future.completeExceptionally(new IllegalStateException("andre"));
+
+        CompletionException e = assertThrows(CompletionException.class, resultat::join);
+        assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    @DisplayName("Forsinkelsen skal beregnes fra persentil av observerte responstider")
+    void forsinkelseFraPersentil() {
+        HedgedRequests hedgedRequests = new HedgedRequests(POLICY.toBuilder().minSamples(10).minDelay(Duration.ZERO).build(), executor);
+        for (int i = 0; i < 10; i++) {
+            hedgedRequests.utfor(() -> new HedgedRequests.Forsok<>(CompletableFuture.completedFuture("ok"), () -> { })).join();
+        }
+
+        assertThat(hedgedRequests.statistikk().getForsinkelse().compareTo(Duration.ofMillis(20)) < 0, is(true));
+    }
+
+    private static void await(BooleanSupplier betingelse) {
+        long frist = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!betingelse.getAsBoolean()) {
+            if (System.nanoTime() > frist) {
+                throw new AssertionError("Timed out waiting for condition");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static class TestForsok {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final AtomicInteger antallAvbrutt = new AtomicInteger();
+
+        private HedgedRequests.Forsok<String> forsok() {
+            return new HedgedRequests.Forsok<>(future, () -> {
+                antallAvbrutt.incrementAndGet();
+                future.completeExceptionally(new HedgedRequests.TaptHedgeException());
+            });
+        }
+    }
+}
@@ -1,20 +1,27 @@
 package no.ks.fiks.dokumentlager.klient;
 
 import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataDownloadResult;
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUpdate;
 import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUpload;
 import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataUploadResult;
 import no.ks.fiks.dokumentlager.klient.model.Sokeresultat;
+import no.ks.fiks.dokumentlager.klient.model.Soketreff;
 import no.ks.fiks.dokumentlager.klient.model.eksponertfor.*;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -46,6 +53,21 @@ public class JsonMapperTest {
         assertHasJsonFieldWithValue(json, "ikkeLagreDokumentLastetNed", metadata.getIkkeLagreDokumentLastetNed());
     }
 
+    @Test
+    @DisplayName("Test at metadataoppdatering serialiseres til bytes likt som til String")
+    void testToJsonBytes() {
+        DokumentMetadataUpdate update = DokumentMetadataUpdate.builder()
+                .ttl(ThreadLocalRandom.current().nextLong())
+                .tilgjengeligTil(OffsetDateTime.now())
+                .build();
+        JsonMapper mapper = new JsonMapper();
+
+        String json = new String(mapper.toJsonBytes(update), StandardCharsets.UTF_8);
+
+        assertThat(json, is(mapper.toJson(update)));
+        assertHasJsonFieldWithValue(json, "ttl", update.getTtl());
+    }
+
     private void assertHasJsonFieldWithValue(String json, String field, Object value) {
         if (value instanceof String) {
             assertThat(json, containsString(String.format("\"%s\":\"%s\"", field, value)));
@@ -164,6 +186,23 @@ public class JsonMapperTest {
         assertThat(result.getDokumenter().get(0).getKorrelasjonsid(), is(korrelasjonsid));
     }
 
+    @Test
+    @DisplayName("Test at søkeresultat kan leses strømmende, med ett kall per treff")
+    void testReadSokeresultatStreaming() {
+        List<UUID> ider = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        String dokumenter = ider.stream()
+                .map(id -> String.format("{\"id\":\"%s\",\"dokumentnavn\":\"navn\",\"ukjent\":{\"felt\":[1,2]},\"opprettet\":\"%s\"}", id, OffsetDateTime.now()))
+                .collect(Collectors.joining(","));
+        String json = String.format("{\"ukjent\":[{\"a\":1}],\"dokumenter\":[%s],\"totaltAntallTreff\":42}", dokumenter);
+
+        List<Soketreff> treff = new ArrayList<>();
+        Integer totaltAntallTreff = new JsonMapper().readSokeresultat(new ByteArrayInputStream(json.getBytes()), treff::add);
+
+        assertThat(totaltAntallTreff, is(42));
+        assertThat(treff.stream().map(Soketreff::getId).toList(), is(ider));
+        assertThat(treff.get(0).getDokumentnavn(), is("navn"));
+    }
+
     @Test
     @DisplayName("Test at deserialisering ignorerer ukjente felter")
     void testFromJsonIgnoreUnknown() {
@@ -0,0 +1,109 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.DokumentMetadataDownloadResult;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MetadataCacheTest {
+
+    @Test
+    @DisplayName("Samtidige oppslag på samme dokument skal dele én request")
+    void sammenslattOppslag() {
+        AtomicInteger antallHentinger = new AtomicInteger();
+        CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>> henting = new CompletableFuture<>();
+        MetadataCache cache = new MetadataCache(id -> {
+            antallHentinger.incrementAndGet();
+            return henting;
+        }, Duration.ofHours(1), 100);
+        UUID dokumentId = UUID.randomUUID();
+
+        List<CompletableFuture<DokumentlagerResponse<DokumentMetadataDownloadResult>>> oppslag = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            oppslag.add(cache.getAsync(dokumentId));
+        }
+        DokumentlagerResponse<DokumentMetadataDownloadResult> response = response(dokumentId, UUID.randomUUID());
+        henting.complete(response);
+
+        oppslag.forEach(o -> assertThat(o.join(), is(sameInstance(response))));
+        assertThat(cache.get(dokumentId), is(sameInstance(response)));
+        assertThat(antallHentinger.get(), is(1));
+        assertThat(cache.statistikk().getAntallTreff(), is(10L));
+        assertThat(cache.statistikk().getAntallBom(), is(1L));
+    }
+
+    @Test
+    @DisplayName("Metadata skal hentes på nytt når TTL er utløpt")
+    void hentesPaNyttEtterTtl() throws InterruptedException {
+        AtomicInteger antallHentinger = new AtomicInteger();
+        MetadataCache cache = new MetadataCache(id -> {
+            antallHentinger.incrementAndGet();
+            return CompletableFuture.completedFuture(response(id, UUID.randomUUID()));
+        }, Duration.ofMillis(50), 100);
+        UUID dokumentId = UUID.randomUUID();
+
+        cache.get(dokumentId);
+        cache.get(dokumentId);
+        Thread.sleep(100);
+        cache.get(dokumentId);
+
+        assertThat(antallHentinger.get(), is(2));
+    }
+
+    @Test
+    @DisplayName("Invalidering på korrelasjonsid skal kun fjerne dokumenter med den korrelasjonsiden")
+    void invaliderKorrelasjonsid() {
+        UUID korrelasjonsid = UUID.randomUUID();
+        UUID medKorrelasjonsid = UUID.randomUUID();
+        UUID utenKorrelasjonsid = UUID.randomUUID();
+        AtomicInteger antallHentinger = new AtomicInteger();
+        MetadataCache cache = new MetadataCache(id -> {
+            antallHentinger.incrementAndGet();
+            return CompletableFuture.completedFuture(response(id, id.equals(medKorrelasjonsid) ? korrelasjonsid : UUID.randomUUID()));
+        }, Duration.ofHours(1), 100);
+
+        cache.get(medKorrelasjonsid);
+        cache.get(utenKorrelasjonsid);
+        cache.invaliderKorrelasjonsid(korrelasjonsid);
+        cache.get(medKorrelasjonsid);
+        cache.get(utenKorrelasjonsid);
+
+        assertThat(antallHentinger.get(), is(3));
+    }
+
+    @Test
+    @DisplayName("Feilede oppslag skal ikke caches")
+    void feilCachesIkke() {
+        AtomicInteger antallHentinger = new AtomicInteger();
+        MetadataCache cache = new MetadataCache(id -> {
+            antallHentinger.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("feil"));
+        }, Duration.ofHours(1), 100);
+        UUID dokumentId = UUID.randomUUID();
+
+        assertThrows(IllegalStateException.class, () -> cache.get(dokumentId));
+        assertThrows(IllegalStateException.class, () -> cache.get(dokumentId));
+
+        assertThat(antallHentinger.get(), is(2));
+        assertThat(cache.statistikk().getAntallDokumenter(), is(0L));
+    }
+
+    private static DokumentlagerResponse<DokumentMetadataDownloadResult> response(UUID dokumentId, UUID korrelasjonsid) {
+        return DokumentlagerResponse.<DokumentMetadataDownloadResult>builder()
+                .result(new DokumentMetadataDownloadResult(dokumentId, "navn", "text/plain", null, 10L, korrelasjonsid))
+                .httpStatus(200)
+                .build();
+    }
+}
@@ -0,0 +1,78 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class PublicKeyCacheTest {
+
+    @Test
+    @DisplayName("Samtidige oppslag mens sertifikatet hentes skal dele én henting")
+    void singleFlight() {
+        DokumentlagerResponse<X509Certificate> publicKey = respons(mock(X509Certificate.class));
+        AtomicInteger antallHentinger = new AtomicInteger();
+        CompletableFuture<DokumentlagerResponse<X509Certificate>> henting = new CompletableFuture<>();
+        PublicKeyCache cache = new PublicKeyCache(() -> {
+            antallHentinger.incrementAndGet();
+            return henting;
+        }, Duration.ofHours(1));
+
+        List<CompletableFuture<DokumentlagerResponse<X509Certificate>>> oppslag = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            oppslag.add(cache.getAsync());
+        }
+        henting.complete(publicKey);
+
+        oppslag.forEach(o -> assertThat(o.join(), is(sameInstance(publicKey))));
+        assertThat(cache.get(), is(sameInstance(publicKey)));
+        assertThat(antallHentinger.get(), is(1));
+    }
+
+    @Test
+    @DisplayName("Sertifikatet skal hentes på nytt når TTL er utløpt")
+    void hentesPaNyttEtterTtl() throws InterruptedException {
+        AtomicInteger antallHentinger = new AtomicInteger();
+        PublicKeyCache cache = new PublicKeyCache(() -> {
+            antallHentinger.incrementAndGet();
+            return CompletableFuture.completedFuture(respons(mock(X509Certificate.class)));
+        }, Duration.ofMillis(50));
+
+        DokumentlagerResponse<X509Certificate> forste = cache.get();
+        Thread.sleep(100);
+        DokumentlagerResponse<X509Certificate> andre = cache.get();
+
+        assertThat(antallHentinger.get(), is(2));
+        assertThat(forste == andre, is(false));
+    }
+
+    @Test
+    @DisplayName("Feil ved henting skal ikke caches")
+    void feilCachesIkke() {
+        DokumentlagerResponse<X509Certificate> publicKey = respons(mock(X509Certificate.class));
+        AtomicInteger antallHentinger = new AtomicInteger();
+        PublicKeyCache cache = new PublicKeyCache(() -> antallHentinger.incrementAndGet() == 1
+                ? CompletableFuture.failedFuture(new IllegalStateException("Feilet"))
+                : CompletableFuture.completedFuture(publicKey), Duration.ofHours(1));
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, cache::get);
+        assertThat(exception.getMessage(), is("Feilet"));
+        assertThat(cache.get(), is(sameInstance(publicKey)));
+    }
+
+    private static DokumentlagerResponse<X509Certificate> respons(X509Certificate certificate) {
+        return DokumentlagerResponse.<X509Certificate>builder().result(certificate).httpStatus(200).build();
+    }
+}
@@ -0,0 +1,129 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.exception.DokumentlagerHttpException;
+import no.ks.fiks.dokumentlager.klient.model.DokumentlagerResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RetryHandlerTest {
+
+    private static final RetryPolicy POLICY = RetryPolicy.builder()
+            .maxAttempts(3)
+            .initialBackoff(Duration.ofMillis(1))
+            .maxBackoff(Duration.ofMillis(5))
+            .build();
+
+    @Test
+    @DisplayName("Kall som feiler med status som kan prøves igjen skal gjentas, og antall forsøk skal settes på responsen")
+    void retryVedServerfeil() {
+        AtomicInteger antallKall = new AtomicInteger();
+        RetryHandler handler = new RetryHandler(POLICY);
+
+        DokumentlagerResponse<String> response = handler.execute("Test", () -> {
+            if (antallKall.incrementAndGet() < 3) {
+                throw new DokumentlagerHttpException("feil", 503, "");
+            }
+            return response("ok");
+        });
+
+        assertThat(response.getResult(), is("ok"));
+        assertThat(response.getAntallForsok(), is(3));
+        assertThat(antallKall.get(), is(3));
+    }
+
+    @Test
+    @DisplayName("Klientfeil skal ikke prøves igjen")
+    void ingenRetryVedKlientfeil() {
+        AtomicInteger antallKall = new AtomicInteger();
+        RetryHandler handler = new RetryHandler(POLICY);
+
+        DokumentlagerHttpException e = assertThrows(DokumentlagerHttpException.class, () -> handler.execute("Test", () -> {
+            antallKall.incrementAndGet();
+            throw new DokumentlagerHttpException("feil", 404, "");
+        }));
+
+        assertThat(e.getStatus(), is(404));
+        assertThat(antallKall.get(), is(1));
+    }
+
+    @Test
+    @DisplayName("Timeout skal prøves igjen til maks antall forsøk er brukt opp")
+    void retryVedTimeout() {
+        AtomicInteger antallKall = new AtomicInteger();
+        RetryHandler handler = new RetryHandler(POLICY);
+
+        assertThrows(RuntimeException.class, () -> handler.execute("Test", () -> {
+            antallKall.incrementAndGet();
+            throw new RuntimeException(new TimeoutException());
+        }));
+
+        assertThat(antallKall.get(), is(3));
+    }
+
+    @Test
+    @DisplayName("Retry-After som er lengre enn maxRetryAfter skal ikke ventes på")
+    void forLangRetryAfter() {
+        AtomicInteger antallKall = new AtomicInteger();
+        RetryHandler handler = new RetryHandler(POLICY.toBuilder().maxRetryAfter(Duration.ofSeconds(1)).build());
+
+        assertThrows(DokumentlagerHttpException.class, () -> handler.execute("Test", () -> {
+            antallKall.incrementAndGet();
+            throw new DokumentlagerHttpException("feil", 503, "", Map.of("Retry-After", "120"));
+        }));
+
+        assertThat(antallKall.get(), is(1));
+        assertThat(RetryHandler.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT").get(), is(Duration.ZERO));
+    }
+
+    @Test
+    @DisplayName("Retries skal stoppe når retry-budsjettet er brukt opp")
+    void retryBudsjett() {
+        AtomicInteger antallKall = new AtomicInteger();
+        RetryHandler handler = new RetryHandler(POLICY.toBuilder().retryBudget(2).retryBudgetRatio(0).build());
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(DokumentlagerHttpException.class, () -> handler.execute("Test", () -> {
+                antallKall.incrementAndGet();
+                throw new DokumentlagerHttpException("feil", 502, "");
+            }));
+        }
+
+        // 3 første forsøk og 2 retries fra budsjettet
+        assertThat(antallKall.get(), is(5));
+    }
+
+    @Test
+    @DisplayName("Asynkrone kall skal prøves igjen uten å blokkere")
+    void retryAsync() {
+        AtomicInteger antallKall = new AtomicInteger();
+        RetryHandler handler = new RetryHandler(POLICY);
+
+        DokumentlagerResponse<String> response = handler.<String>executeAsync("Test", () -> antallKall.incrementAndGet() < 2
+                ? CompletableFuture.failedFuture(new TimeoutException())
+                : CompletableFuture.completedFuture(response("ok"))).join();
+        assertThat(response.getAntallForsok(), is(2));
+
+        CompletionException e = assertThrows(CompletionException.class, () -> handler.executeAsync("Test",
+                () -> CompletableFuture.failedFuture(new DokumentlagerHttpException("feil", 400, ""))).join());
+        assertThat(e.getCause(), instanceOf(DokumentlagerHttpException.class));
+    }
+
+    private static DokumentlagerResponse<String> response(String result) {
+        return DokumentlagerResponse.<String>builder()
+                .result(result)
+                .httpStatus(200)
+                .build();
+    }
+}
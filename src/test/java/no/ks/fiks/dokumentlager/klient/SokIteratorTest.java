@@ -0,0 +1,93 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import no.ks.fiks.dokumentlager.klient.model.Sokeresultat;
+import no.ks.fiks.dokumentlager.klient.model.Soketreff;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SokIteratorTest {
+
+    @Test
+    @DisplayName("Alle treff skal returneres i rekkefølge, og neste side skal hentes mens gjeldende side leses")
+    void alleSider() {
+        List<Soketreff> treff = lagTreff(25);
+        List<Integer> hentet = new ArrayList<>();
+        SokIterator iterator = new SokIterator(fra -> {
+            hentet.add(fra);
+            return CompletableFuture.completedFuture(side(treff, fra, 10, treff.size()));
+        }, 10, 1);
+
+        assertThat(iterator.next(), is(treff.get(0)));
+        assertThat(hentet, is(List.of(0, 10)));
+
+        List<Soketreff> lest = new ArrayList<>(List.of(treff.get(0)));
+        iterator.forEachRemaining(lest::add);
+
+        assertThat(lest, is(treff));
+        assertThat(hentet, is(List.of(0, 10, 20)));
+    }
+
+    @Test
+    @DisplayName("Antall sider som hentes i forkant skal være begrenset")
+    void begrensetPrefetch() {
+        List<Soketreff> treff = lagTreff(100);
+        List<Integer> hentet = new ArrayList<>();
+        SokIterator iterator = new SokIterator(fra -> {
+            hentet.add(fra);
+            return CompletableFuture.completedFuture(side(treff, fra, 10, treff.size()));
+        }, 10, 3);
+
+        iterator.next();
+
+        assertThat(hentet, is(List.of(0, 10, 20, 30)));
+    }
+
+    @Test
+    @DisplayName("Iterasjonen skal stoppe dersom en side er tom selv om totalt antall treff tilsier flere")
+    void stopperVedTomSide() {
+        List<Soketreff> treff = lagTreff(15);
+        SokIterator iterator = new SokIterator(fra -> CompletableFuture.completedFuture(side(treff, fra, 10, 30)), 10, 1);
+
+        List<Soketreff> lest = new ArrayList<>();
+        iterator.forEachRemaining(lest::add);
+
+        assertThat(lest, is(treff));
+    }
+
+    @Test
+    @DisplayName("Feil ved henting av en side skal kastes ved lesing")
+    void feilVedHenting() {
+        List<Soketreff> treff = lagTreff(15);
+        SokIterator iterator = new SokIterator(fra -> fra == 0
+                ? CompletableFuture.completedFuture(side(treff, fra, 10, treff.size()))
+                : CompletableFuture.failedFuture(new IllegalStateException("feil")), 10, 1);
+
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+        assertThrows(IllegalStateException.class, iterator::hasNext);
+    }
+
+    private static Sokeresultat side(List<Soketreff> treff, int fra, int sideStorrelse, int totaltAntallTreff) {
+        List<Soketreff> side = fra >= treff.size() ? List.of() : treff.subList(fra, Math.min(fra + sideStorrelse, treff.size()));
+        return new Sokeresultat(totaltAntallTreff, side);
+    }
+
+    private static List<Soketreff> lagTreff(int antall) {
+        UUID korrelasjonsid = UUID.randomUUID();
+        return IntStream.range(0, antall)
+                .mapToObj(i -> new Soketreff(UUID.randomUUID(), "dokument" + i, 5L, 3L, OffsetDateTime.now(), "application/pdf", false, korrelasjonsid))
+                .toList();
+    }
+}
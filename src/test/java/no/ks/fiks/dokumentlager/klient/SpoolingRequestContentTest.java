@@ -0,0 +1,102 @@
+package no.ks.fiks.dokumentlager.klient;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.Content;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class SpoolingRequestContentTest {
+
+    @TempDir
+    Path katalog;
+
+    @Test
+    @DisplayName("Små dokumenter skal mellomlagres i minnet og kunne sendes på nytt")
+    void mellomlagringIMinnet() throws IOException {
+        byte[] data = tilfeldigeBytes(1000);
+        try (SpoolingRequestContent content = lagContent(new ByteArrayInputStream(data), 10_000)) {
+            assertArrayEquals(data, les(content));
+            assertArrayEquals(data, les(content.replay()));
+            assertArrayEquals(data, les(content.replay()));
+            assertThat(antallFiler(), is(0L));
+        }
+    }
+
+    @Test
+    @DisplayName("Store dokumenter skal mellomlagres på disk, og filen skal slettes ved close")
+    void mellomlagringPaDisk() throws IOException {
+        byte[] data = tilfeldigeBytes(300_000);
+        SpoolingRequestContent content = lagContent(new ByteArrayInputStream(data), 1000);
+
+        assertArrayEquals(data, les(content));
+        assertArrayEquals(data, les(content.replay()));
+
+        content.close();
+        assertThat(antallFiler(), is(0L));
+    }
+
+    @Test
+    @DisplayName("Et forsøk som feiler underveis skal sendes på nytt fra starten uten å lese kilden på nytt")
+    void replayEtterFeiletForsok() throws IOException {
+        byte[] data = tilfeldigeBytes(300_000);
+        AtomicInteger lestFraKilde = new AtomicInteger();
+        InputStream kilde = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int read = super.read(b, off, len);
+                lestFraKilde.addAndGet(Math.max(read, 0));
+                return read;
+            }
+        };
+
+        try (SpoolingRequestContent content = lagContent(kilde, 1000)) {
+            Content.Chunk chunk = content.read();
+            chunk.release();
+            content.fail(new IOException("Tilkobling brutt"));
+
+            assertArrayEquals(data, les(content.replay()));
+            assertArrayEquals(data, les(content.replay()));
+        }
+        assertThat(lestFraKilde.get(), is(data.length));
+        assertThat(antallFiler(), is(0L));
+    }
+
+    private SpoolingRequestContent lagContent(InputStream kilde, long minneTerskel) {
+        SpoolingConfiguration configuration = SpoolingConfiguration.builder()
+                .memoryThreshold(minneTerskel)
+                .directory(katalog)
+                .build();
+        return new SpoolingRequestContent("application/octet-stream", kilde::read, configuration, new ArrayByteBufferPool());
+    }
+
+    private static byte[] les(Content.Source content) throws IOException {
+        try (InputStream stream = Content.Source.asInputStream(content)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private long antallFiler() throws IOException {
+        try (var filer = Files.list(katalog)) {
+            return filer.count();
+        }
+    }
+
+    private static byte[] tilfeldigeBytes(int antall) {
+        byte[] data = new byte[antall];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
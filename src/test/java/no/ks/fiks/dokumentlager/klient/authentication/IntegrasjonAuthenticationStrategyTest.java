@@ -0,0 +1,151 @@
+package no.ks.fiks.dokumentlager.klient.authentication;
+
+import no.ks.fiks.maskinporten.AccessTokenRequest;
+import no.ks.fiks.maskinporten.Maskinportenklient;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.Request;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class IntegrasjonAuthenticationStrategyTest {
+
+    private final HttpClient httpClient = new HttpClient();
+    private final Maskinportenklient maskinportenklient = mock(Maskinportenklient.class);
+    private final UUID integrasjonId = UUID.randomUUID();
+
+    @Test
+    @DisplayName("Token og headere skal gjenbrukes mellom requester")
+    void gjenbrukerToken() {
+        String token = token(System.currentTimeMillis() / 1000 + 120);
+        when(maskinportenklient.getAccessToken(any(AccessTokenRequest.class))).thenReturn(token);
+        IntegrasjonAuthenticationStrategy strategy = new IntegrasjonAuthenticationStrategy(maskinportenklient, integrasjonId, "passord");
+
+        for (int i = 0; i < 10; i++) {
+            Request request = request(strategy);
+            assertThat(request.getHeaders().get("Authorization"), is("Bearer " + token));
+            assertThat(request.getHeaders().get("IntegrasjonId"), is(integrasjonId.toString()));
+            assertThat(request.getHeaders().get("IntegrasjonPassord"), is("passord"));
+        }
+
+        verify(maskinportenklient, times(1)).getAccessToken(any(AccessTokenRequest.class));
+    }
+
+    @Test
+    @DisplayName("Tokenet skal fornyes i bakgrunnen før det utløper, mens gjeldende token brukes")
+    void fornyesIBakgrunnen() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long exp = start / 1000 + 7;
+        String forste = token(exp);
+        String andre = token(exp + 60);
+        CountDownLatch slippFornyelse = new CountDownLatch(1);
+        when(maskinportenklient.getAccessToken(any(AccessTokenRequest.class)))
+                .thenReturn(forste)
+                .thenAnswer(invocation -> {
+                    slippFornyelse.await();
+                    return andre;
+                });
+        IntegrasjonAuthenticationStrategy strategy = new IntegrasjonAuthenticationStrategy(maskinportenklient, integrasjonId, "passord");
+
+        assertThat(request(strategy).getHeaders().get("Authorization"), is("Bearer " + forste));
+        // Levetiden er tiden til exp minus 5 sekunder margin, og fornyelse starter etter 3/4 av den
+        long levetid = exp * 1000 - start - 5000;
+        Thread.sleep(levetid * 3 / 4 + 100);
+
+        assertThat(request(strategy).getHeaders().get("Authorization"), is("Bearer " + forste));
+        assertThat(request(strategy).getHeaders().get("Authorization"), is("Bearer " + forste));
+        slippFornyelse.countDown();
+
+        long frist = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!request(strategy).getHeaders().get("Authorization").equals("Bearer " + andre)) {
+            if (System.nanoTime() > frist) {
+                throw new AssertionError("Token was not refreshed");
+            }
+            Thread.onSpinWait();
+        }
+        verify(maskinportenklient, times(2)).getAccessToken(any(AccessTokenRequest.class));
+    }
+
+    @Test
+    @DisplayName("Samtidige requester uten gyldig token skal dele én henting av token")
+    void samtidigeHentingerSlasSammen() {
+        String token = token(System.currentTimeMillis() / 1000 + 120);
+        CountDownLatch slippHenting = new CountDownLatch(1);
+        when(maskinportenklient.getAccessToken(any(AccessTokenRequest.class))).thenAnswer(invocation -> {
+            slippHenting.await();
+            return token;
+        });
+        IntegrasjonAuthenticationStrategy strategy = new IntegrasjonAuthenticationStrategy(maskinportenklient, integrasjonId, "passord");
+
+        List<CompletableFuture<Request>> requester = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requester.add(CompletableFuture.supplyAsync(() -> request(strategy)));
+        }
+        slippHenting.countDown();
+
+        requester.forEach(request -> assertThat(request.join().getHeaders().get("Authorization"), is("Bearer " + token)));
+        verify(maskinportenklient, times(1)).getAccessToken(any(AccessTokenRequest.class));
+    }
+
+    @Test
+    @DisplayName("Token uten lesbar utløpstid skal også gjenbrukes")
+    void tokenUtenExp() {
+        when(maskinportenklient.getAccessToken(any(AccessTokenRequest.class))).thenReturn("ikke-jwt");
+        IntegrasjonAuthenticationStrategy strategy = new IntegrasjonAuthenticationStrategy(maskinportenklient, integrasjonId, "passord");
+
+        request(strategy);
+        assertThat(request(strategy).getHeaders().get("Authorization"), is("Bearer ikke-jwt"));
+
+        verify(maskinportenklient, times(1)).getAccessToken(any(AccessTokenRequest.class));
+    }
+
+    @Test
+    @DisplayName("Asynkron autentisering skal fullføres med en gang med gyldig token, og ellers når token er hentet")
+    void asynkronAutentisering() {
+        String token = token(System.currentTimeMillis() / 1000 + 120);
+        CountDownLatch slippHenting = new CountDownLatch(1);
+        when(maskinportenklient.getAccessToken(any(AccessTokenRequest.class))).thenAnswer(invocation -> {
+            slippHenting.await();
+            return token;
+        });
+        IntegrasjonAuthenticationStrategy strategy = new IntegrasjonAuthenticationStrategy(maskinportenklient, integrasjonId, "passord");
+
+        Request forste = httpClient.newRequest("http://localhost");
+        CompletableFuture<Void> forsteAutentisering = strategy.setAuthenticationHeadersAsync(forste).toCompletableFuture();
+        assertThat(forsteAutentisering.isDone(), is(false));
+        slippHenting.countDown();
+        forsteAutentisering.join();
+        assertThat(forste.getHeaders().get("Authorization"), is("Bearer " + token));
+
+        Request andre = httpClient.newRequest("http://localhost");
+        assertThat(strategy.setAuthenticationHeadersAsync(andre).toCompletableFuture().isDone(), is(true));
+        assertThat(andre.getHeaders().get("IntegrasjonId"), is(integrasjonId.toString()));
+        verify(maskinportenklient, times(1)).getAccessToken(any(AccessTokenRequest.class));
+    }
+
+    private Request request(AuthenticationStrategy strategy) {
+        Request request = httpClient.newRequest("http://localhost");
+        strategy.setAuthenticationHeaders(request);
+        return request;
+    }
+
+    private static String token(long exp) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(("{\"exp\":" + exp + ",\"jti\":\"" + UUID.randomUUID() + "\"}").getBytes(StandardCharsets.UTF_8)) + "."
+                + "signatur";
+    }
+}
@@ -0,0 +1,41 @@
+package no.ks.fiks.dokumentlager.klient.metrics;
+
+import no.ks.fiks.dokumentlager.klient.metrics.DokumentlagerMetrics.Operation;
+import no.ks.fiks.dokumentlager.klient.model.OperasjonStatistikk;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class DefaultDokumentlagerMetricsTest {
+
+    @Test
+    @DisplayName("Kall, feil, statuskoder og bytes skal telles per operasjon")
+    void statistikkPerOperasjon() {
+        DefaultDokumentlagerMetrics metrics = new DefaultDokumentlagerMetrics();
+
+        metrics.requestStarted(Operation.UPLOAD);
+        metrics.requestStarted(Operation.UPLOAD);
+        metrics.requestStarted(Operation.UPLOAD);
+        metrics.requestCompleted(Operation.UPLOAD, 200, Duration.ofMillis(10).toNanos(), 1000, 100);
+        metrics.requestCompleted(Operation.UPLOAD, 503, Duration.ofMillis(20).toNanos(), 1000, -1);
+        metrics.queued(Operation.UPLOAD, Duration.ofMillis(5).toNanos());
+
+        OperasjonStatistikk upload = metrics.statistikk(Operation.UPLOAD);
+        assertThat(upload.getAntallKall(), is(2L));
+        assertThat(upload.getAntallFeilet(), is(1L));
+        assertThat(upload.getFeilrate(), is(0.5));
+        assertThat(upload.getAntallAktive(), is(1L));
+        assertThat(upload.getRequestBytes(), is(2000L));
+        assertThat(upload.getResponseBytes(), is(100L));
+        assertThat(upload.getStatuskoder(), is(Map.of(200, 1L, 503, 1L)));
+        assertThat(upload.getResponstid().getMaks(), is(Duration.ofMillis(20)));
+        assertThat(upload.getVentetid().getAntall(), is(1L));
+
+        assertThat(metrics.statistikk(Operation.DOWNLOAD).getAntallKall(), is(0L));
+    }
+}
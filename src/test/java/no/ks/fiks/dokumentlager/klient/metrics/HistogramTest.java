@@ -0,0 +1,61 @@
+package no.ks.fiks.dokumentlager.klient.metrics;
+
+import no.ks.fiks.dokumentlager.klient.model.Tidsfordeling;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class HistogramTest {
+
+    @Test
+    @DisplayName("Hver verdi skal havne i en bøtte som gjengir den med høyst 1/32 avvik")
+    void presisjon() {
+        for (long verdi = 0; verdi < 1_000_000; verdi += 7) {
+            int indeks = Histogram.indeks(verdi);
+            long hoyeste = Histogram.hoyesteVerdi(indeks);
+            assertThat(hoyeste, greaterThanOrEqualTo(verdi));
+            assertThat(hoyeste - verdi, lessThanOrEqualTo(verdi / 32));
+            if (indeks > 0) {
+                assertThat(Histogram.hoyesteVerdi(indeks - 1), lessThan(verdi));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Persentiler, gjennomsnitt og maks skal beregnes fra registrerte varigheter")
+    void tidsfordeling() {
+        Histogram histogram = new Histogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.registrer(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        Tidsfordeling tidsfordeling = histogram.tidsfordeling();
+
+        assertThat(tidsfordeling.getAntall(), is(100L));
+        assertThat(tidsfordeling.getGjennomsnitt().toMillis(), is(50L));
+        assertNaer(tidsfordeling.getP50(), Duration.ofMillis(50));
+        assertNaer(tidsfordeling.getP90(), Duration.ofMillis(90));
+        assertNaer(tidsfordeling.getP99(), Duration.ofMillis(99));
+        assertThat(tidsfordeling.getMaks(), is(Duration.ofMillis(100)));
+    }
+
+    @Test
+    @DisplayName("Et tomt histogram skal gi null for alle verdier")
+    void tomt() {
+        Tidsfordeling tidsfordeling = new Histogram().tidsfordeling();
+
+        assertThat(tidsfordeling.getAntall(), is(0L));
+        assertThat(tidsfordeling.getP99(), is(Duration.ZERO));
+        assertThat(tidsfordeling.getMaks(), is(Duration.ZERO));
+    }
+
+    private static void assertNaer(Duration faktisk, Duration forventet) {
+        assertThat(faktisk, greaterThanOrEqualTo(forventet));
+        assertThat(faktisk.toNanos(), lessThanOrEqualTo((long) (forventet.toNanos() * (1 + 1.0 / 32))));
+    }
+}